@@ -0,0 +1,103 @@
+package ru.stm.marvelcomics.benchmark;
+
+import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.ComicsPage;
+import ru.stm.marvelcomics.domain.projection.PageView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * <h2>BenchmarkData - синтетические данные для бенчмарков</h2>
+ * <p>
+ * Данные создаются генератором с фиксированным seed, поэтому каждый запуск измеряет одни и те же объекты.
+ * Размеры полей близки к реальным: название комикса 2-6 слов, описание персонажа - абзац,
+ * биография - несколько абзацев, имена файлов - {digest}_{uuid}_{имя} как после загрузки
+ */
+final class BenchmarkData {
+    private static final String[] WORDS = {
+            "amazing", "spider", "man", "iron", "captain", "america", "avengers", "secret", "wars", "infinity",
+            "gauntlet", "x-men", "dark", "phoenix", "saga", "civil", "war", "guardians", "galaxy", "thor",
+            "человек", "паук", "железный", "мстители", "война", "бесконечности", "тайные", "стражи", "галактики"};
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long FIRST_RELEASE = -31L * 365 * DAY;
+
+    private final Random random;
+
+    BenchmarkData(long seed) {
+        this.random = new Random(seed);
+    }
+
+    Comics comics(long id) {
+        return new Comics(id, words(2 + random.nextInt(5)), date(), filename("cover.jpg"),
+                new ArrayList<>(), new ArrayList<>());
+    }
+
+    Char character(long id) {
+        return new Char(id, words(1 + random.nextInt(3)), date(), filename("portrait.jpg"),
+                words(30 + random.nextInt(30)), words(300 + random.nextInt(300)), new ArrayList<>());
+    }
+
+    List<Comics> comics(int count) {
+        List<Comics> comics = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            comics.add(comics(i));
+        }
+        return comics;
+    }
+
+    List<Char> characters(int count) {
+        List<Char> characters = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            characters.add(character(i));
+        }
+        return characters;
+    }
+
+    /**
+     * @return страницы комикса с номерами 1..count в случайном порядке, как их возвращает findAllByComics
+     */
+    List<ComicsPage> pages(Comics comics, int count) {
+        List<ComicsPage> pages = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            pages.add(ComicsPage.builder()
+                    .comics(comics)
+                    .order((long) i)
+                    .pathFile(filename(String.format("page%d.jpg", i)))
+                    .build());
+        }
+        Collections.shuffle(pages, random);
+        return pages;
+    }
+
+    List<PageView> pageWindow(Comics comics) {
+        List<PageView> window = new ArrayList<>(3);
+        for (int i = 0; i < 3; i++) {
+            window.add(PageView.of(comics.getId(), comics.getTitle(), filename(String.format("page%d.jpg", i + 1))));
+        }
+        return window;
+    }
+
+    String words(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) text.append(' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    Date date() {
+        return new Date(FIRST_RELEASE + (long) random.nextInt(60 * 365) * DAY);
+    }
+
+    String filename(String name) {
+        return String.format("%032x_%s_%s", random.nextLong() & Long.MAX_VALUE,
+                new UUID(random.nextLong(), random.nextLong()), name);
+    }
+}
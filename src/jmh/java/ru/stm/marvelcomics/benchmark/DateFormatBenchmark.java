@@ -0,0 +1,83 @@
+package ru.stm.marvelcomics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.stm.marvelcomics.util.Dates;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>DateFormatBenchmark - форматирование и разбор дат</h2>
+ * <p>
+ * Даты выпуска и первого упоминания форматируются через {@link Dates} для каждого элемента списка.
+ * Для сравнения измеряются прежний общий {@link SimpleDateFormat} и {@link DateTimeFormatter} без перевода из {@link Date}.
+ * Бенчмарк однопоточный: SimpleDateFormat не потокобезопасен
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DateFormatBenchmark {
+    private static final DateTimeFormatter TO_STRING = DateTimeFormatter.ofPattern("d.MM.yyyy");
+    private static final DateTimeFormatter FROM_STRING = DateTimeFormatter.ofPattern("d-MM-yyyy");
+    private static final DateFormat LEGACY_TO_STRING = new SimpleDateFormat("d.MM.yyyy");
+    private static final DateFormat LEGACY_FROM_STRING = new SimpleDateFormat("d-MM-yyyy");
+
+    private Date date;
+    private LocalDate localDate;
+    private String text;
+
+    @Setup
+    public void setup() {
+        date = new BenchmarkData(42).date();
+        localDate = date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        text = FROM_STRING.format(localDate);
+    }
+
+    @Benchmark
+    public String formatDates() {
+        return Dates.format(date);
+    }
+
+    @Benchmark
+    public Date parseDates() throws ParseException {
+        return Dates.parse(text);
+    }
+
+    @Benchmark
+    public String formatSimpleDateFormat() {
+        return LEGACY_TO_STRING.format(date);
+    }
+
+    @Benchmark
+    public Date parseSimpleDateFormat() throws ParseException {
+        return LEGACY_FROM_STRING.parse(text);
+    }
+
+    @Benchmark
+    public String formatDateTimeFormatter() {
+        return TO_STRING.format(localDate);
+    }
+
+    @Benchmark
+    public LocalDate parseDateTimeFormatter() {
+        return LocalDate.parse(text, FROM_STRING);
+    }
+}
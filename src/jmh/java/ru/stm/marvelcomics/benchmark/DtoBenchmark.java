@@ -0,0 +1,70 @@
+package ru.stm.marvelcomics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.ComicsPage;
+import ru.stm.marvelcomics.domain.dto.CharacterDTO;
+import ru.stm.marvelcomics.domain.dto.ComicsDTO;
+import ru.stm.marvelcomics.domain.dto.PageDTO;
+import ru.stm.marvelcomics.domain.projection.PageView;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>DtoBenchmark - формирование кратких содержаний и страниц</h2>
+ * <p>
+ * {@link ComicsDTO#preview(Comics)} и {@link CharacterDTO#preview(Char)} вызываются для каждого элемента
+ * списка, {@link PageDTO} - при каждом просмотре страницы
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DtoBenchmark {
+    private Comics comics;
+    private Char character;
+    private ComicsPage page;
+    private List<PageView> window;
+
+    @Setup
+    public void setup() {
+        BenchmarkData data = new BenchmarkData(42);
+        comics = data.comics(1);
+        character = data.character(1);
+        page = data.pages(comics, 1).get(0);
+        window = data.pageWindow(comics);
+    }
+
+    @Benchmark
+    public ComicsDTO comicsPreview() {
+        return ComicsDTO.preview(comics);
+    }
+
+    @Benchmark
+    public CharacterDTO characterPreview() {
+        return CharacterDTO.preview(character);
+    }
+
+    @Benchmark
+    public PageDTO pageView() {
+        return PageDTO.view(comics, page);
+    }
+
+    @Benchmark
+    public PageDTO pageWindowView() {
+        return PageDTO.view(window);
+    }
+}
@@ -0,0 +1,67 @@
+package ru.stm.marvelcomics.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.dto.ComicsDTO;
+import ru.stm.marvelcomics.util.Const;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>JsonBenchmark - сериализация ответов в json</h2>
+ * <p>
+ * Полные объекты {@link Comics} и {@link Char} (ответы просмотра по id)
+ * и страница списка из {@value Const#LIMIT} кратких содержаний
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+    private final ObjectMapper jsonParser = new ObjectMapper();
+    private Comics comics;
+    private Char character;
+    private List<ComicsDTO> page;
+
+    @Setup
+    public void setup() {
+        BenchmarkData data = new BenchmarkData(42);
+        comics = data.comics(1);
+        character = data.character(1);
+        page = new ArrayList<>();
+        for (Comics item : data.comics(Integer.parseInt(Const.LIMIT))) {
+            page.add(ComicsDTO.preview(item));
+        }
+    }
+
+    @Benchmark
+    public byte[] comics() throws JsonProcessingException {
+        return jsonParser.writeValueAsBytes(comics);
+    }
+
+    @Benchmark
+    public byte[] character() throws JsonProcessingException {
+        return jsonParser.writeValueAsBytes(character);
+    }
+
+    @Benchmark
+    public byte[] comicsListPage() throws JsonProcessingException {
+        return jsonParser.writeValueAsBytes(page);
+    }
+}
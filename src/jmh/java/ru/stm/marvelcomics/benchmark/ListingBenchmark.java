@@ -0,0 +1,100 @@
+package ru.stm.marvelcomics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.ComicsPage;
+import ru.stm.marvelcomics.domain.dto.ComicsDTO;
+import ru.stm.marvelcomics.domain.dto.PageDTO;
+import ru.stm.marvelcomics.util.Const;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <h2>ListingBenchmark - выборка страницы списка и страницы комикса в памяти</h2>
+ * <p>
+ * Воспроизводит первоначальную реализацию, в которой список комиксов читался целиком (findAll(Sort))
+ * и обрезался через skip/limit, а страница комикса выбиралась сортировкой всех страниц и skip.
+ * Сейчас обе выборки выполняет база (limit/offset, keyset-курсор, индекс comics_page_comics_id_order_idx),
+ * бенчмарк показывает стоимость, которая перенесена из приложения, в зависимости от размера каталога
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListingBenchmark {
+
+    @Param({"1000", "100000"})
+    public int catalogSize;
+
+    private List<Comics> catalog;
+
+    @Setup
+    public void setup() {
+        catalog = new BenchmarkData(42).comics(catalogSize);
+    }
+
+    @Benchmark
+    public List<ComicsDTO> listFirstPage() {
+        return list(Const.OFS);
+    }
+
+    @Benchmark
+    public List<ComicsDTO> listMiddlePage() {
+        return list(catalogSize / 2);
+    }
+
+    @Benchmark
+    public Optional<PageDTO> comicsPageSortAndSkip(Pages state) {
+        return state.pages.stream()
+                .sorted(Comparator.comparing(ComicsPage::getOrder))
+                .skip(state.comicsPages / 2)
+                .limit(1)
+                .map(page -> PageDTO.view(state.comics, page))
+                .findFirst();
+    }
+
+    private List<ComicsDTO> list(int offset) {
+        return catalog.stream()
+                .sorted(Comparator.comparing(Comics::getTitle))
+                .skip(offset)
+                .limit(Const.LIM)
+                .map(ComicsDTO::preview)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Страницы одного комикса в порядке, в котором их возвращала база
+     */
+    @State(Scope.Benchmark)
+    public static class Pages {
+
+        @Param({"24", "200"})
+        public int comicsPages;
+
+        private Comics comics;
+        private List<ComicsPage> pages;
+
+        @Setup
+        public void setup() {
+            BenchmarkData data = new BenchmarkData(42);
+            comics = data.comics(1);
+            pages = data.pages(comics, comicsPages);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ru.stm.marvelcomics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.dto.CharacterDTO;
+import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.PrefixIndex;
+import ru.stm.marvelcomics.util.SearchIndex;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>SearchBenchmark - полнотекстовый поиск и автодополнение персонажей</h2>
+ * <p>
+ * Индексы строятся так же, как в {@link ru.stm.marvelcomics.service.SearchService}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"10000"})
+    public int characters;
+
+    private final SearchIndex<CharacterDTO> index = new SearchIndex<>(3f, 1f, 1f);
+    private final PrefixIndex<CharacterDTO> names = new PrefixIndex<>(Const.SUGGEST_LIMIT);
+
+    @Setup
+    public void setup() {
+        for (Char character : new BenchmarkData(42).characters(characters)) {
+            CharacterDTO preview = CharacterDTO.preview(character);
+            index.put(character.getId(), preview,
+                    character.getName(), character.getDescription(), character.getBiography());
+            names.put(character.getId(), preview, character.getName());
+        }
+    }
+
+    @Benchmark
+    public List<CharacterDTO> search() {
+        return index.search("железный человек", Const.LIM);
+    }
+
+    @Benchmark
+    public List<CharacterDTO> suggest() {
+        return names.suggest("spi", Const.SUGGEST_LIMIT);
+    }
+}
@@ -0,0 +1,443 @@
+package ru.stm.marvelcomics.loadtest;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import ru.stm.marvelcomics.util.Const;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h2>CatalogGenerator - синтетический каталог промышленного объема</h2>
+ * <p>
+ * Загружает персонажей, комиксы, страницы и связи персонажей с комиксами через COPY,
+ * параллельно в несколько соединений. Каталог детерминирован: данные каждой порции из {@value #CHUNK} записей
+ * генерируются из seed и номера порции, поэтому результат не зависит от числа потоков.</br>
+ * Распределения приближены к реальным: число персонажей комикса и популярность персонажей подчиняются
+ * закону Ципфа (несколько персонажей встречаются в тысячах комиксов, большинство - в единицах),
+ * у большинства выпусков 20-40 страниц, у редких сборников - сотни.</br>
+ * Если files=true, для каждой обложки, портрета и страницы создается файл-заглушка в хранилище
+ * так же, как их сохраняет {@link ru.stm.marvelcomics.service.FileService}: содержимое в {@value Const#BLOBS_DIR}
+ * и жесткие ссылки на него с именами {digest}_{uuid}_{имя}.</br>
+ * Параметры key=value: jdbcUrl, user, password, seed, characters, comics, pages (среднее число страниц),
+ * links (среднее число персонажей комикса), skew (показатель Ципфа), threads, files, root (папка хранилища),
+ * truncate (очистить таблицы перед загрузкой).</br>
+ * Запуск: mvn -Ploadtest test -Dloadtest.main=ru.stm.marvelcomics.loadtest.CatalogGenerator
+ * -Dloadtest.args="jdbcUrl=jdbc:postgresql://localhost/comicsdb characters=100000 comics=300000"
+ */
+public class CatalogGenerator {
+    private static final int CHUNK = 10_000;
+    private static final int COPY_BUFFER = 1 << 20;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int LINKS_PER_BLOB = 20_000;
+    private static final int MAX_LINKS = 200;
+    private static final int PAGES_SPREAD = 8;
+    private static final String[] FIRST = {
+            "Amazing", "Iron", "Captain", "Dark", "Silver", "Scarlet", "Black", "Invisible", "Incredible", "Mighty",
+            "Doctor", "Ultimate", "Uncanny", "Secret", "Crimson", "Ghost", "Moon", "Star", "Winter", "Night",
+            "Железный", "Черная", "Алый", "Невидимый", "Серебряный", "Призрачный", "Лунный", "Звездный"};
+    private static final String[] SECOND = {
+            "Spider", "Man", "Woman", "Knight", "Hawk", "Panther", "Widow", "Surfer", "Witch", "Soldier",
+            "Rider", "Lord", "Strange", "Falcon", "Vision", "Storm", "Phoenix", "Wolf", "Hulk", "Thor",
+            "Человек", "Вдова", "Ведьма", "Солдат", "Рыцарь", "Гонщик", "Сокол", "Феникс"};
+    private static final String[] WORDS = {
+            "hero", "villain", "city", "power", "team", "war", "secret", "origin", "battle", "empire",
+            "galaxy", "mutant", "agent", "shield", "legend", "return", "rise", "fall", "night", "future",
+            "герой", "город", "сила", "война", "тайна", "битва", "империя", "легенда", "будущее", "мутант"};
+
+    private final Map<String, String> args;
+    private final String jdbcUrl;
+    private final String user;
+    private final String password;
+    private final long seed;
+    private final int characters;
+    private final int comics;
+    private final int pages;
+    private final int links;
+    private final double skew;
+    private final int threads;
+    private final boolean files;
+    private final Path root;
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong linkedFiles = new AtomicLong();
+    private double[] popularity;
+    private int descriptionLength;
+    private int biographyLength;
+    private Path[] blobs;
+    private String[] digests;
+
+    CatalogGenerator(Map<String, String> args) {
+        this.args = args;
+        jdbcUrl = required("jdbcUrl");
+        user = args.getOrDefault("user", "postgres");
+        password = args.getOrDefault("password", "");
+        seed = Long.parseLong(args.getOrDefault("seed", "42"));
+        characters = Integer.parseInt(args.getOrDefault("characters", "100000"));
+        comics = Integer.parseInt(args.getOrDefault("comics", "300000"));
+        pages = Integer.parseInt(args.getOrDefault("pages", "28"));
+        links = Integer.parseInt(args.getOrDefault("links", "4"));
+        skew = Double.parseDouble(args.getOrDefault("skew", "1.0"));
+        threads = Integer.parseInt(args.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        files = Boolean.parseBoolean(args.getOrDefault("files", "true"));
+        root = Paths.get(args.getOrDefault("root", Const.PATH_FILE));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 1) throw new IllegalArgumentException(String.format("Ожидается key=value: %s", arg));
+            values.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+        }
+        new CatalogGenerator(values).generate();
+    }
+
+    /**
+     * Создает таблицы, если их нет, и загружает каталог
+     *
+     * @return число загруженных строк
+     */
+    long generate() throws Exception {
+        long start = System.currentTimeMillis();
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            createSchema(statement);
+            if (Boolean.parseBoolean(args.getOrDefault("truncate", "false"))) {
+                statement.execute("truncate comics_has_character, comics_page, comics, characters");
+            } else if (count(statement, "characters") + count(statement, "comics") > 0) {
+                throw new IllegalStateException("Таблицы каталога не пусты, для очистки задайте truncate=true");
+            }
+            descriptionLength = columnLength(statement, "description");
+            biographyLength = columnLength(statement, "biography");
+        }
+        if (files) placeholders();
+        popularity = zipf(characters, skew);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            run(executor, 1, characters, this::loadCharacters);
+            run(executor, 2, comics, this::loadComics);
+            run(executor, 3, comics, this::loadPagesAndLinks);
+        } finally {
+            executor.shutdown();
+        }
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute(String.format("select setval('char_id_seq', %d, false)", characters + 50));
+            statement.execute(String.format("select setval('com_id_seq', %d, false)", comics + 50));
+            statement.execute("analyze characters");
+            statement.execute("analyze comics");
+            statement.execute("analyze comics_page");
+            statement.execute("analyze comics_has_character");
+        }
+        System.out.println(String.format("Каталог создан за %d с: %d строк, %d файлов",
+                (System.currentTimeMillis() - start) / 1000, rows.get(), linkedFiles.get()));
+        return rows.get();
+    }
+
+    private void loadCharacters(int from, int to, SplittableRandom random, Connection connection) throws Exception {
+        Copy copy = new Copy(connection, "copy characters (id, name, create_date, portrait, description, biography) from stdin");
+        for (int id = from; id < to; id++) {
+            String portrait = file(Const.CHARACTER_DIR, id, "portrait.jpg");
+            copy.row(Integer.toString(id), name(random), date(random, 1939).toString(), portrait,
+                    text(random, 10 + random.nextInt(30), descriptionLength),
+                    random.nextInt(4) == 0 ? null : text(random, 50 + random.nextInt(300), biographyLength));
+        }
+        copy.end();
+    }
+
+    private void loadComics(int from, int to, SplittableRandom random, Connection connection) throws Exception {
+        Copy copy = new Copy(connection, "copy comics (id, title, release, cover) from stdin");
+        for (int id = from; id < to; id++) {
+            String title = String.format("%s #%d", text(random, 1 + random.nextInt(4), 200), 1 + random.nextInt(700));
+            copy.row(Integer.toString(id), title, date(random, 1939).toString(),
+                    random.nextInt(20) == 0 ? null : file(Const.COMICS_DIR, id, "cover.jpg"));
+        }
+        copy.end();
+    }
+
+    private void loadPagesAndLinks(int from, int to, SplittableRandom random, Connection connection) throws Exception {
+        Copy pageCopy = new Copy(connection, "copy comics_page (comics_id, order_page, path_file) from stdin");
+        for (int id = from; id < to; id++) {
+            int count = pageCount(random);
+            for (int order = 1; order <= count; order++) {
+                pageCopy.row(Integer.toString(id), Integer.toString(order),
+                        file(Const.COMICS_DIR, id, String.format("page%03d.jpg", order)));
+            }
+        }
+        pageCopy.end();
+        if (characters == 0) return;
+        Copy linkCopy = new Copy(connection, "copy comics_has_character (comics_id, character_id) from stdin");
+        for (int id = from; id < to; id++) {
+            int count = Math.min(Math.min(characters, MAX_LINKS), linkCount(random));
+            int[] chosen = new int[count];
+            int size = 0;
+            while (size < count) {
+                int character = character(random);
+                boolean duplicate = false;
+                for (int i = 0; i < size && !duplicate; i++) duplicate = chosen[i] == character;
+                if (duplicate) continue;
+                chosen[size++] = character;
+                linkCopy.row(Integer.toString(id), Integer.toString(character));
+            }
+        }
+        linkCopy.end();
+    }
+
+    /**
+     * Делит id 1..total на порции по {@value #CHUNK} и загружает их параллельно
+     *
+     * @param stage номер этапа, вместе с seed и началом порции определяет случайную последовательность порции
+     */
+    private void run(ExecutorService executor, int stage, int total, ChunkLoader loader) throws Exception {
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int from = 1; from <= total; from += CHUNK) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(total + 1, from + CHUNK);
+            SplittableRandom random = new SplittableRandom(seed ^ ((long) stage << 40) ^ chunkFrom);
+            tasks.add(executor.submit(() -> {
+                try (Connection connection = connect()) {
+                    connection.setAutoCommit(false);
+                    loader.load(chunkFrom, chunkTo, random, connection);
+                    connection.commit();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+    }
+
+    /**
+     * Большинство выпусков - pages ± {@value #PAGES_SPREAD} страниц, один из 50 - сборник на сотни страниц
+     */
+    private int pageCount(SplittableRandom random) {
+        if (pages == 0) return 0;
+        if (random.nextInt(50) == 0) return pages * (3 + random.nextInt(15));
+        int min = minPages(pages);
+        return min + random.nextInt(2 * (pages - min) + 1);
+    }
+
+    /**
+     * @param pages среднее число страниц
+     * @return сколько страниц гарантированно есть у каждого комикса
+     */
+    static int minPages(int pages) {
+        return pages == 0 ? 0 : Math.max(1, pages - PAGES_SPREAD);
+    }
+
+    /**
+     * Геометрическое распределение со средним links: обычно 1-5 персонажей, в кроссоверах - десятки
+     */
+    private int linkCount(SplittableRandom random) {
+        if (links == 0) return 0;
+        double p = 1.0 / links;
+        return 1 + (int) (Math.log(1 - random.nextDouble()) / Math.log(1 - p + 1e-12));
+    }
+
+    /**
+     * @return id персонажа по закону Ципфа. Популярные персонажи разбросаны по всему диапазону id
+     */
+    private int character(SplittableRandom random) {
+        int rank = Arrays.binarySearch(popularity, random.nextDouble());
+        if (rank < 0) rank = -rank - 1;
+        rank = Math.min(rank, characters - 1);
+        return 1 + (int) ((rank * 2_654_435_761L) % characters);
+    }
+
+    private static double[] zipf(int count, double skew) {
+        double[] cdf = new double[count];
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < count; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    /**
+     * Имя файла как после загрузки. Если files=true, создает жесткую ссылку на одну из заглушек
+     */
+    private String file(String dir, int id, String name) throws IOException {
+        UUID uuid = new UUID(seed ^ id, (long) name.hashCode() << 32 | id);
+        if (!files) return String.format("%s_%s", uuid, name);
+        int variant = Math.floorMod(uuid.hashCode(), blobs.length);
+        String filename = String.format("%s_%s_%s", digests[variant], uuid, name);
+        Path directory = root.resolve(dir.substring(1)).resolve(Integer.toString(id));
+        Files.createDirectories(directory);
+        try {
+            Files.createLink(directory.resolve(filename), blobs[variant]);
+            linkedFiles.incrementAndGet();
+        } catch (FileAlreadyExistsException e) {
+            // повторная генерация того же каталога
+        }
+        return filename;
+    }
+
+    /**
+     * Записывает заглушки (JPEG 400x600) в хранилище содержимого.
+     * Число жестких ссылок на один файл ограничено файловой системой (65000 в ext4),
+     * поэтому заглушек столько, чтобы на каждую приходилось около {@value #LINKS_PER_BLOB} ссылок
+     */
+    private void placeholders() throws IOException, NoSuchAlgorithmException {
+        long expected = characters + (long) comics * (pages + pages / 2 + 1);
+        int count = (int) Math.max(1, expected / LINKS_PER_BLOB + 1);
+        blobs = new Path[count];
+        digests = new String[count];
+        for (int i = 0; i < count; i++) {
+            BufferedImage image = new BufferedImage(400, 600, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = image.createGraphics();
+            graphics.setColor(Color.LIGHT_GRAY);
+            graphics.fillRect(0, 0, 400, 600);
+            graphics.setColor(Color.DARK_GRAY);
+            graphics.drawString(String.format("placeholder %d", i), 150, 300);
+            graphics.dispose();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", out);
+            byte[] content = out.toByteArray();
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+            digests[i] = hex.substring(0, DIGEST_LENGTH);
+            blobs[i] = root.resolve(Const.BLOBS_DIR.substring(1)).resolve(digests[i].substring(0, 2)).resolve(digests[i]);
+            Files.createDirectories(blobs[i].getParent());
+            if (!Files.exists(blobs[i])) Files.write(blobs[i], content);
+        }
+    }
+
+    private static String name(SplittableRandom random) {
+        return FIRST[random.nextInt(FIRST.length)] + " " + SECOND[random.nextInt(SECOND.length)];
+    }
+
+    private static String text(SplittableRandom random, int words, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (text.length() + word.length() + 1 > maxLength) break;
+            text.append(i == 0 ? "" : " ").append(word);
+        }
+        return text.toString();
+    }
+
+    private static LocalDate date(SplittableRandom random, int fromYear) {
+        return LocalDate.of(fromYear, 1, 1).plusDays(random.nextInt((2020 - fromYear) * 365));
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(jdbcUrl, user, password);
+    }
+
+    private String required(String key) {
+        String value = args.get(key);
+        if (value == null) throw new IllegalArgumentException(String.format("Не задан параметр %s", key));
+        return value;
+    }
+
+    private static long count(Statement statement, String table) throws SQLException {
+        try (ResultSet result = statement.executeQuery(String.format("select count(*) from (select 1 from %s limit 1) t", table))) {
+            result.next();
+            return result.getLong(1);
+        }
+    }
+
+    /**
+     * @return длина колонки characters: 255 в схеме Hibernate и больше в схеме из db/sql_scrypt
+     */
+    private static int columnLength(Statement statement, String column) throws SQLException {
+        try (ResultSet result = statement.executeQuery(String.format("select character_maximum_length " +
+                "from information_schema.columns where table_name = 'characters' and column_name = '%s'", column))) {
+            return result.next() && result.getObject(1) != null ? result.getInt(1) : Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Схема из db/sql_scrypt, если приложение еще не создало таблицы
+     */
+    private static void createSchema(Statement statement) throws SQLException {
+        statement.execute("create sequence if not exists char_id_seq start with 1 increment by 50");
+        statement.execute("create sequence if not exists com_id_seq start with 1 increment by 50");
+        statement.execute("create table if not exists characters (id int8 not null primary key, create_date date, " +
+                "description varchar(2000), name varchar(255), portrait varchar(255), biography varchar(10000))");
+        statement.execute("create table if not exists comics (id int8 not null primary key, cover varchar(255), " +
+                "release date, title varchar(255))");
+        statement.execute("create table if not exists comics_page (comics_id int8 not null references comics (id), " +
+                "order_page int8, path_file varchar(255) not null primary key)");
+        statement.execute("create table if not exists comics_has_character (" +
+                "comics_id int8 not null references comics (id), character_id int8 not null references characters (id), " +
+                "unique (comics_id, character_id))");
+        statement.execute("create index if not exists characters_name_id_idx on characters (name, id)");
+        statement.execute("create index if not exists comics_title_id_idx on comics (title, id)");
+        statement.execute("create index if not exists comics_release_id_idx on comics (release, id)");
+        statement.execute("create index if not exists comics_page_comics_id_order_idx " +
+                "on comics_page (comics_id, order_page, path_file)");
+    }
+
+    @FunctionalInterface
+    private interface ChunkLoader {
+        void load(int from, int to, SplittableRandom random, Connection connection) throws Exception;
+    }
+
+    /**
+     * Построчная запись в COPY ... FROM STDIN в текстовом формате с буфером {@value #COPY_BUFFER} байт
+     */
+    private final class Copy {
+        private final CopyIn copy;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(COPY_BUFFER);
+
+        private Copy(Connection connection, String sql) throws SQLException {
+            this.copy = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+        }
+
+        private void row(String... values) throws SQLException {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                line.append(i == 0 ? "" : "\t").append(values[i] == null ? "\\N" : values[i]);
+            }
+            byte[] bytes = line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+            buffer.write(bytes, 0, bytes.length);
+            rows.incrementAndGet();
+            if (buffer.size() >= COPY_BUFFER) flush();
+        }
+
+        private void end() throws SQLException {
+            flush();
+            copy.endCopy();
+        }
+
+        private void flush() throws SQLException {
+            copy.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+            buffer.reset();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ru.stm.marvelcomics.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>LoadReport - задержки и пропускная способность по каждому запросу теста</h2>
+ * <p>
+ * Задержки хранятся в {@link Histogram} с точностью 3 значащих цифры, от 1 мкс до 1 минуты,
+ * поэтому память отчета не зависит от числа запросов.
+ * Ответы с кодом 4xx/5xx и ошибки соединения считаются отдельно и в задержки не входят
+ */
+final class LoadReport {
+    private static final long MAX_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    void record(String endpoint, long latencyNanos, boolean ok) {
+        Endpoint stats = endpoints.computeIfAbsent(endpoint, name -> new Endpoint());
+        if (ok) {
+            stats.record(Math.min(MAX_LATENCY, Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos))));
+        } else {
+            stats.errors.increment();
+        }
+    }
+
+    /**
+     * Пишет отчет в json и краткую таблицу в stdout
+     *
+     * @param config  параметры теста
+     * @param seconds фактическая длительность измерения
+     * @param path    путь к файлу отчета
+     */
+    void write(LoadTestConfig config, double seconds, String path) throws IOException {
+        Map<String, Object> results = new TreeMap<>();
+        long total = 0;
+        System.out.println(String.format("%-22s %9s %7s %9s %9s %9s %9s %9s",
+                "endpoint", "requests", "errors", "rps", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, Endpoint> entry : new TreeMap<>(endpoints).entrySet()) {
+            Histogram histogram = entry.getValue().snapshot();
+            long errors = entry.getValue().errors.sum();
+            long count = histogram.getTotalCount();
+            total += count + errors;
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("requests", count + errors);
+            result.put("errors", errors);
+            result.put("rps", round(count / seconds));
+            result.put("p50Ms", millis(histogram.getValueAtPercentile(50)));
+            result.put("p95Ms", millis(histogram.getValueAtPercentile(95)));
+            result.put("p99Ms", millis(histogram.getValueAtPercentile(99)));
+            result.put("maxMs", millis(histogram.getMaxValue()));
+            result.put("meanMs", round(histogram.getMean() / 1000));
+            results.put(entry.getKey(), result);
+            System.out.println(String.format("%-22s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f",
+                    entry.getKey(), count + errors, errors, count / seconds,
+                    result.get("p50Ms"), result.get("p95Ms"), result.get("p99Ms"), result.get("maxMs")));
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config.toMap());
+        report.put("measuredSeconds", round(seconds));
+        report.put("totalRequests", total);
+        report.put("totalRps", round(total / seconds));
+        report.put("endpoints", results);
+        File file = new File(path);
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, report);
+        System.out.println(String.format("Отчет: %s", file.getAbsolutePath()));
+    }
+
+    private static double millis(long micros) {
+        return round(micros / 1000.0);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static final class Endpoint {
+        private final Histogram histogram = new Histogram(MAX_LATENCY, 3);
+        private final LongAdder errors = new LongAdder();
+
+        private synchronized void record(long micros) {
+            histogram.recordValue(micros);
+        }
+
+        private synchronized Histogram snapshot() {
+            return histogram.copy();
+        }
+    }
+}
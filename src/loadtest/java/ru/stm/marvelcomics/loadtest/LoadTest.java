@@ -0,0 +1,316 @@
+package ru.stm.marvelcomics.loadtest;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.MarvelComicsApplication;
+import ru.stm.marvelcomics.util.Const;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+
+/**
+ * <h2>LoadTest - нагрузочный тест REST API</h2>
+ * <p>
+ * Запускает встроенный PostgreSQL, заполняет его {@link CatalogGenerator} и запускает приложение на случайном порту.
+ * Если задан baseUrl, синтетический каталог загружается через /v1/public/import уже запущенного приложения.
+ * Затем тест нагружает /v1/public/comics и /v1/public/character заданным числом клиентов
+ * со смесью запросов чтения и изменения ({@link LoadTestConfig}).</br>
+ * Результат - p50/p95/p99 и RPS по каждому запросу в json-отчете ({@link LoadReport}).</br>
+ * Загрузка страниц пишет файлы в {@value Const#PATH_FILE}: если папка недоступна для записи,
+ * запрос comics.upload исключается из смеси.</br>
+ * Запуск: mvn -Ploadtest test -Dloadtest.args="concurrency=64 duration=2m"
+ */
+public class LoadTest {
+    private static final String[] WORDS = {
+            "amazing", "spider", "man", "iron", "captain", "america", "avengers", "secret", "wars", "infinity",
+            "gauntlet", "dark", "phoenix", "saga", "civil", "war", "guardians", "galaxy", "thor", "hulk"};
+
+    private final LoadTestConfig config;
+    private final LoadReport report = new LoadReport();
+    private final List<Long> comicsIds = new ArrayList<>();
+    private final List<Long> characterIds = new ArrayList<>();
+    private final List<Operation> operations = new ArrayList<>();
+    private WebClient client;
+    private byte[] image;
+
+    private LoadTest(LoadTestConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+        EmbeddedPostgres postgres = null;
+        ConfigurableApplicationContext app = null;
+        try {
+            String baseUrl = config.baseUrl;
+            String jdbcUrl = null;
+            if (baseUrl == null) {
+                postgres = EmbeddedPostgres.builder().start();
+                jdbcUrl = String.format("jdbc:postgresql://localhost:%d/postgres?reWriteBatchedInserts=true", postgres.getPort());
+                generate(config, jdbcUrl);
+                app = new SpringApplicationBuilder(MarvelComicsApplication.class).run(
+                        "--server.port=0",
+                        "--spring.datasource.url=" + jdbcUrl,
+                        "--spring.datasource.username=postgres",
+                        "--spring.datasource.password=",
+                        "--spring.jpa.show-sql=false",
+                        "--comics.persistence=" + config.persistence,
+                        String.format("--comics.r2dbc.url=r2dbc:pool:postgresql://postgres@localhost:%d/postgres", postgres.getPort()));
+                baseUrl = "http://localhost:" + app.getEnvironment().getProperty("local.server.port");
+            }
+            new LoadTest(config).run(baseUrl, jdbcUrl);
+        } finally {
+            if (app != null) app.close();
+            if (postgres != null) postgres.close();
+        }
+    }
+
+    private void run(String baseUrl, String jdbcUrl) throws Exception {
+        client = WebClient.builder()
+                .baseUrl(baseUrl)
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                .build();
+        long start = System.currentTimeMillis();
+        if (jdbcUrl == null) seed();
+        else readIds(jdbcUrl);
+        System.out.println(String.format("Каталог загружен за %d мс: %d комиксов, %d персонажей",
+                System.currentTimeMillis() - start, comicsIds.size(), characterIds.size()));
+        if (comicsIds.isEmpty() || characterIds.isEmpty()) throw new IllegalStateException("Каталог пуст");
+        image = jpeg();
+        mix();
+
+        long warmupEnd = System.nanoTime() + config.warmup.toNanos();
+        long deadline = warmupEnd + config.duration.toNanos();
+        Flux.range(0, config.concurrency)
+                .flatMap(worker -> {
+                    SplittableRandom random = new SplittableRandom(config.seed + worker);
+                    return Mono.defer(() -> call(random, warmupEnd))
+                            .repeat(() -> System.nanoTime() < deadline);
+                }, config.concurrency)
+                .blockLast();
+        report.write(config, config.duration.toNanos() / 1e9, config.report);
+    }
+
+    /**
+     * Смесь запросов: чтения делят 1 - writeRatio поровну, изменения - writeRatio
+     */
+    private void mix() {
+        List<Operation> reads = new ArrayList<>();
+        reads.add(new Operation("comics.list", r -> get(String.format("/v1/public/comics?offset=%d", r.nextInt(1000)))));
+        reads.add(new Operation("comics.detail", r -> get("/v1/public/comics/" + any(comicsIds, r))));
+        reads.add(new Operation("comics.page", r -> get(String.format("/v1/public/comics/%d?page=%d",
+                any(comicsIds, r), 1 + r.nextInt(Math.max(1, CatalogGenerator.minPages(config.pages)))))));
+        reads.add(new Operation("comics.characters", r -> get(String.format("/v1/public/comics/%d/characters", any(comicsIds, r)))));
+        reads.add(new Operation("character.list", r -> get(String.format("/v1/public/character?offset=%d", r.nextInt(1000)))));
+        reads.add(new Operation("character.detail", r -> get("/v1/public/character/" + any(characterIds, r))));
+        reads.add(new Operation("character.comics", r -> get(String.format("/v1/public/character/%d/comics", any(characterIds, r)))));
+
+        List<Operation> writes = new ArrayList<>();
+        writes.add(new Operation("comics.create", r -> multipart("/v1/public/comics", "comics",
+                String.format("{\"title\":\"%s\",\"release\":\"1-01-2020\"}", words(r, 3)), null)));
+        writes.add(new Operation("character.create", r -> multipart("/v1/public/character", "character",
+                String.format("{\"name\":\"%s\",\"description\":\"%s\"}", words(r, 2), words(r, 20)), null)));
+        writes.add(new Operation("character.link", r -> status(client.post()
+                .uri(String.format("/v1/public/character/%d/comics?comics_id=%d", any(characterIds, r), any(comicsIds, r))))));
+        if (uploadsAvailable()) {
+            writes.add(new Operation("comics.upload", r -> multipart("/v1/public/comics/" + any(comicsIds, r),
+                    null, null, image)));
+        }
+
+        double total = 0;
+        for (Operation read : reads) {
+            read.weight = (1 - config.writeRatio) / reads.size();
+        }
+        for (Operation write : writes) {
+            write.weight = config.writeRatio / writes.size();
+        }
+        operations.addAll(reads);
+        operations.addAll(writes);
+        for (Operation operation : operations) {
+            total += operation.weight;
+            operation.cumulative = total;
+        }
+    }
+
+    private Mono<Void> call(SplittableRandom random, long warmupEnd) {
+        double pick = random.nextDouble() * operations.get(operations.size() - 1).cumulative;
+        Operation operation = operations.get(operations.size() - 1);
+        for (Operation candidate : operations) {
+            if (pick < candidate.cumulative) {
+                operation = candidate;
+                break;
+            }
+        }
+        Operation chosen = operation;
+        long start = System.nanoTime();
+        return chosen.request.apply(random)
+                .map(status -> status < 400)
+                .onErrorReturn(false)
+                .doOnNext(ok -> {
+                    if (start >= warmupEnd) report.record(chosen.name, System.nanoTime() - start, ok);
+                })
+                .then();
+    }
+
+    private Mono<Integer> get(String uri) {
+        return status(client.get().uri(uri));
+    }
+
+    private Mono<Integer> multipart(String uri, String jsonPart, String json, byte[] file) {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        if (jsonPart != null) body.part(jsonPart, json);
+        if (file != null) body.part("images", new ByteArrayResource(file)).filename("page.jpg");
+        return status(client.post().uri(uri).body(BodyInserters.fromMultipartData(body.build())));
+    }
+
+    private static Mono<Integer> status(WebClient.RequestHeadersSpec<?> request) {
+        return request.exchange()
+                .flatMap(response -> response.bodyToMono(Void.class).thenReturn(response.rawStatusCode()));
+    }
+
+    /**
+     * Загружает персонажей, комиксы и связи одним запросом импорта
+     */
+    @SuppressWarnings("unchecked")
+    private void seed() {
+        SplittableRandom random = new SplittableRandom(config.seed);
+        List<String> lines = new ArrayList<>(config.characters + config.comics * (1 + config.links));
+        for (int i = 0; i < config.characters; i++) {
+            lines.add(String.format("{\"type\":\"character\",\"ref\":\"ch%d\",\"name\":\"%s\",\"createDate\":\"%d-%02d-%d\"," +
+                            "\"description\":\"%s\",\"biography\":\"%s\"}\n", i, words(random, 2),
+                    1 + random.nextInt(28), 1 + random.nextInt(12), 1940 + random.nextInt(80),
+                    words(random, 20), words(random, 30)));
+        }
+        for (int i = 0; i < config.comics; i++) {
+            lines.add(String.format("{\"type\":\"comics\",\"ref\":\"c%d\",\"title\":\"%s\",\"release\":\"%d-%02d-%d\"}\n",
+                    i, words(random, 2 + random.nextInt(4)),
+                    1 + random.nextInt(28), 1 + random.nextInt(12), 1940 + random.nextInt(80)));
+            for (int j = 0; j < config.links && config.characters > 0; j++) {
+                lines.add(String.format("{\"type\":\"link\",\"character\":\"ch%d\",\"comics\":\"c%d\"}\n",
+                        random.nextInt(config.characters), i));
+            }
+        }
+        client.post()
+                .uri("/v1/public/import")
+                .contentType(MediaType.parseMediaType(Const.NDJSON))
+                .accept(MediaType.APPLICATION_STREAM_JSON)
+                .body(Flux.fromIterable(lines), String.class)
+                .retrieve()
+                .bodyToFlux(Map.class)
+                .doOnNext(result -> {
+                    Map<String, Object> line = (Map<String, Object>) result;
+                    if (!"created".equals(line.get("status"))) return;
+                    long id = ((Number) line.get("id")).longValue();
+                    if ("comics".equals(line.get("type"))) comicsIds.add(id);
+                    else characterIds.add(id);
+                })
+                .blockLast();
+    }
+
+    /**
+     * Заполняет базу до запуска приложения: таблицы создаются по схеме из db/sql_scrypt, а не Hibernate.
+     * Файлы не создаются, просмотр страницы их не читает
+     */
+    private static void generate(LoadTestConfig config, String jdbcUrl) throws Exception {
+        Map<String, String> args = new HashMap<>();
+        args.put("jdbcUrl", jdbcUrl);
+        args.put("seed", Long.toString(config.seed));
+        args.put("characters", Integer.toString(config.characters));
+        args.put("comics", Integer.toString(config.comics));
+        args.put("pages", Integer.toString(config.pages));
+        args.put("links", Integer.toString(config.links));
+        args.put("files", "false");
+        new CatalogGenerator(args).generate();
+    }
+
+    private void readIds(String jdbcUrl) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, "postgres", "");
+             Statement statement = connection.createStatement()) {
+            try (ResultSet ids = statement.executeQuery("select id from comics")) {
+                while (ids.next()) comicsIds.add(ids.getLong(1));
+            }
+            try (ResultSet ids = statement.executeQuery("select id from characters")) {
+                while (ids.next()) characterIds.add(ids.getLong(1));
+            }
+        }
+    }
+
+    private static boolean uploadsAvailable() {
+        Path root = Paths.get(Const.PATH_FILE);
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            System.out.println(String.format("Папка %s недоступна, comics.upload исключен из теста", root));
+            return false;
+        }
+        return Files.isWritable(root);
+    }
+
+    /**
+     * @return изображение страницы комикса около 100 КБ
+     */
+    private byte[] jpeg() throws IOException {
+        BufferedImage page = new BufferedImage(800, 1200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = page.createGraphics();
+        Random random = new Random(config.seed);
+        for (int i = 0; i < 400; i++) {
+            graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+            graphics.fillRect(random.nextInt(800), random.nextInt(1200), 20 + random.nextInt(200), 20 + random.nextInt(200));
+        }
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(page, "jpg", out);
+        return out.toByteArray();
+    }
+
+    private static long any(List<Long> ids, SplittableRandom random) {
+        return ids.get(random.nextInt(ids.size()));
+    }
+
+    private static String words(SplittableRandom random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static final class Operation {
+        private final String name;
+        private final Function<SplittableRandom, Mono<Integer>> request;
+        private double weight;
+        private double cumulative;
+
+        private Operation(String name, Function<SplittableRandom, Mono<Integer>> request) {
+            this.name = name;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ru.stm.marvelcomics.loadtest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h2>LoadTestConfig - параметры нагрузочного теста</h2>
+ * <p>
+ * Параметры передаются аргументами вида key=value, например
+ * mvn -Ploadtest test -Dloadtest.args="concurrency=64 duration=2m writeRatio=0.2"</br>
+ * concurrency - число одновременных клиентов, каждый отправляет следующий запрос после ответа на предыдущий;</br>
+ * duration и warmup - длительность измерения и прогрева (10s, 2m), запросы прогрева в отчет не входят;</br>
+ * writeRatio - доля запросов на изменение (0..1);</br>
+ * comics, characters, pages, links - объем каталога, загружаемого перед тестом (pages и links - средние на комикс);</br>
+ * persistence - jpa или r2dbc;</br>
+ * baseUrl - адрес уже запущенного приложения. Если задан, приложение и база не запускаются,
+ * а каталог загружается в это приложение;</br>
+ * seed - начальное значение генератора данных и выбора запросов;</br>
+ * report - путь к отчету в json
+ */
+final class LoadTestConfig {
+    final int concurrency;
+    final Duration duration;
+    final Duration warmup;
+    final double writeRatio;
+    final int comics;
+    final int characters;
+    final int pages;
+    final int links;
+    final String persistence;
+    final String baseUrl;
+    final long seed;
+    final String report;
+
+    private LoadTestConfig(Map<String, String> args) {
+        concurrency = Integer.parseInt(args.getOrDefault("concurrency", "32"));
+        duration = duration(args.getOrDefault("duration", "60s"));
+        warmup = duration(args.getOrDefault("warmup", "15s"));
+        writeRatio = Double.parseDouble(args.getOrDefault("writeRatio", "0.1"));
+        comics = Integer.parseInt(args.getOrDefault("comics", "10000"));
+        characters = Integer.parseInt(args.getOrDefault("characters", "5000"));
+        pages = Integer.parseInt(args.getOrDefault("pages", "24"));
+        links = Integer.parseInt(args.getOrDefault("links", "5"));
+        persistence = args.getOrDefault("persistence", "jpa");
+        baseUrl = args.get("baseUrl");
+        seed = Long.parseLong(args.getOrDefault("seed", "42"));
+        report = args.getOrDefault("report", "target/loadtest-report.json");
+        if (writeRatio < 0 || writeRatio > 1) throw new IllegalArgumentException("writeRatio должен быть от 0 до 1");
+    }
+
+    static LoadTestConfig parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 1) throw new IllegalArgumentException(String.format("Ожидается key=value: %s", arg));
+            values.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+        }
+        return new LoadTestConfig(values);
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("concurrency", concurrency);
+        map.put("durationSeconds", duration.getSeconds());
+        map.put("warmupSeconds", warmup.getSeconds());
+        map.put("writeRatio", writeRatio);
+        map.put("comics", comics);
+        map.put("characters", characters);
+        map.put("pagesPerComics", pages);
+        map.put("linksPerComics", links);
+        map.put("persistence", baseUrl == null ? persistence : null);
+        map.put("baseUrl", baseUrl);
+        map.put("seed", seed);
+        return map;
+    }
+
+    private static Duration duration(String value) {
+        String number = value.substring(0, value.length() - 1);
+        switch (value.charAt(value.length() - 1)) {
+            case 's':
+                return Duration.ofSeconds(Long.parseLong(number));
+            case 'm':
+                return Duration.ofMinutes(Long.parseLong(number));
+            default:
+                return Duration.ofSeconds(Long.parseLong(value));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ru.stm.marvelcomics.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Bulkhead - изоляция блокирующих вызовов от потоков event loop</h2>
+ * <p>
+ * Обращения к базе данных через JPA, операции с файлами и обработка изображений выполняются
+ * в отдельных пулах потоков с ограниченным числом потоков и ограниченной очередью. Если очередь пула заполнена, запрос
+ * сразу завершается ответом 503, а не ждет, занимая память.</br>
+ * Размер очереди, количество активных потоков и число отказов публикуются в метриках
+ * comics.db, comics.file и comics.image.</br>
+ * При comics.scheduler.virtual-threads=true потоки пулов создаются виртуальными (требуется JDK 21,
+ * сборка с профилем jdk21 включает этот режим по умолчанию)
+ */
+@Log4j
+@Component
+public class Bulkhead implements DisposableBean {
+    private final Scheduler db;
+    private final Scheduler file;
+    private final Scheduler image;
+
+    public Bulkhead(MeterRegistry registry,
+                    @Value("${comics.scheduler.db.threads}") int dbThreads,
+                    @Value("${comics.scheduler.db.queue}") int dbQueue,
+                    @Value("${comics.scheduler.file.threads}") int fileThreads,
+                    @Value("${comics.scheduler.file.queue}") int fileQueue,
+                    @Value("${comics.scheduler.image.threads}") int imageThreads,
+                    @Value("${comics.scheduler.image.queue}") int imageQueue,
+                    @Value("${comics.scheduler.virtual-threads}") boolean virtualThreads) {
+        this.db = scheduler(registry, "comics.db", dbThreads, dbQueue, virtualThreads);
+        this.file = scheduler(registry, "comics.file", fileThreads, fileQueue, virtualThreads);
+        this.image = scheduler(registry, "comics.image", imageThreads, imageQueue, false);
+    }
+
+    /**
+     * Выполняет блокирующее обращение к базе данных в пуле потоков базы данных
+     *
+     * @param task обращение к репозиторию
+     * @return результат или пустой Mono, если task вернул null
+     * @throws org.springframework.http.HttpStatus.503 если пул перегружен
+     */
+    public <T> Mono<T> fromDb(Callable<T> task) {
+        return Mono.fromCallable(task)
+                .subscribeOn(db)
+                .onErrorMap(RejectedExecutionException.class, Bulkhead::overloaded);
+    }
+
+    /**
+     * Выполняет блокирующее обращение к базе данных без результата в пуле потоков базы данных
+     *
+     * @param task обращение к репозиторию
+     * @return void
+     * @throws org.springframework.http.HttpStatus.503 если пул перегружен
+     */
+    public Mono<Void> runOnDb(Runnable task) {
+        return Mono.fromRunnable(task)
+                .subscribeOn(db)
+                .onErrorMap(RejectedExecutionException.class, Bulkhead::overloaded)
+                .then();
+    }
+
+    /**
+     * Выполняет блокирующую операцию с файлами в пуле потоков для работы с диском
+     *
+     * @param task операция с файлами
+     * @return результат или пустой Mono, если task вернул null
+     * @throws org.springframework.http.HttpStatus.503 если пул перегружен
+     */
+    public <T> Mono<T> fromFile(Callable<T> task) {
+        return Mono.fromCallable(task)
+                .subscribeOn(file)
+                .onErrorMap(RejectedExecutionException.class, Bulkhead::overloaded);
+    }
+
+    /**
+     * Выполняет обработку изображения в фоновом пуле.
+     * Пул небольшой, чтобы масштабирование изображений не занимало все ядра
+     *
+     * @param task обработка изображения
+     * @return результат или пустой Mono, если task вернул null
+     * @throws org.springframework.http.HttpStatus.503 если пул перегружен
+     */
+    public <T> Mono<T> fromImage(Callable<T> task) {
+        return Mono.fromCallable(task)
+                .subscribeOn(image)
+                .onErrorMap(RejectedExecutionException.class, Bulkhead::overloaded);
+    }
+
+    /**
+     * Возвращает планировщик для обращений к базе данных
+     *
+     * @return db
+     */
+    public Scheduler db() {
+        return db;
+    }
+
+    /**
+     * Возвращает планировщик для операций с файлами
+     *
+     * @return file
+     */
+    public Scheduler file() {
+        return file;
+    }
+
+    @Override
+    public void destroy() {
+        db.dispose();
+        file.dispose();
+        image.dispose();
+    }
+
+    private static Scheduler scheduler(MeterRegistry registry, String name, int threads, int queue, boolean virtualThreads) {
+        Counter rejected = Counter.builder(name + ".rejected")
+                .description("Задачи, отклоненные из-за переполнения очереди")
+                .register(registry);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue),
+                virtualThreads ? virtualThreadFactory(name + "-") : new CustomizableThreadFactory(name + "-"),
+                (task, pool) -> {
+                    rejected.increment();
+                    log.warn(String.format("Пул %s перегружен: %d задач в очереди", name, pool.getQueue().size()));
+                    throw new RejectedExecutionException(String.format("Пул %s перегружен", name));
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return Schedulers.fromExecutorService(ExecutorServiceMetrics.monitor(registry, executor, name), name);
+    }
+
+    /**
+     * Фабрика виртуальных потоков Thread.ofVirtual() вызывается через reflection,
+     * так как проект компилируется под Java 9
+     */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Виртуальные потоки доступны начиная с JDK 21", e);
+        }
+    }
+
+    private static ResponseStatusException overloaded(Throwable e) {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Сервер перегружен, повторите запрос позже", e);
+    }
+}
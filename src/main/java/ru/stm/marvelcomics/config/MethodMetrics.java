@@ -0,0 +1,150 @@
+package ru.stm.marvelcomics.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <h2>MethodMetrics - время выполнения методов сервисов и репозиториев</h2>
+ * <p>
+ * Оборачивает реализации сервисов из пакета service.impl и репозитории Spring Data из пакета repository
+ * и публикует таймеры comics.service и comics.repository с тегами class, method, outcome
+ * (success, error или cancelled) и exception.</br>
+ * Для методов, возвращающих {@link Mono} или {@link Flux}, время считается от подписки до завершения,
+ * то есть вместе с ожиданием в очередях {@link Bulkhead}. Репозитории JPA вызываются внутри пулов Bulkhead,
+ * поэтому разница между comics.service и comics.repository показывает, сколько запрос ждал потока.</br>
+ * Таймер репозитория стоит в цепочке прокси перед транзакцией и включает ее открытие и фиксацию.
+ * Время HTTP-запросов по каждому адресу публикует Spring Boot в http.server.requests.</br>
+ * Таймер регистрируется в {@link MeterRegistry} приложения при первом вызове метода с данным результатом
+ * и дальше берется из карты. Реестр запрашивается при первом вызове, а не при создании этого
+ * BeanPostProcessor, чтобы не создавать его раньше остальных bean
+ */
+@Component
+public class MethodMetrics implements BeanPostProcessor {
+    private static final String SERVICE_PACKAGE = "ru.stm.marvelcomics.service.impl";
+    private static final String REPOSITORY_PACKAGE = "ru.stm.marvelcomics.repository";
+
+    private final ObjectProvider<MeterRegistry> registryProvider;
+    private volatile MeterRegistry registry;
+
+    public MethodMetrics(ObjectProvider<MeterRegistry> registryProvider) {
+        this.registryProvider = registryProvider;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof Repository && bean instanceof Advised) {
+            for (Class<?> type : ((Advised) bean).getProxiedInterfaces()) {
+                if (REPOSITORY_PACKAGE.equals(type.getPackage().getName())) {
+                    return advise(bean, new Interceptor("comics.repository", type.getSimpleName()));
+                }
+            }
+            return bean;
+        }
+        Class<?> type = AopUtils.getTargetClass(bean);
+        if (type.getPackage() != null && SERVICE_PACKAGE.equals(type.getPackage().getName())) {
+            return advise(bean, new Interceptor("comics.service", type.getSimpleName()));
+        }
+        return bean;
+    }
+
+    private MeterRegistry registry() {
+        MeterRegistry current = registry;
+        if (current == null) {
+            current = registryProvider.getObject();
+            registry = current;
+        }
+        return current;
+    }
+
+    /**
+     * Добавляет таймер первым в цепочку существующего прокси или создает прокси по интерфейсам bean
+     */
+    private static Object advise(Object bean, Interceptor interceptor) {
+        if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+            ((Advised) bean).addAdvice(0, interceptor);
+            return bean;
+        }
+        ProxyFactory factory = new ProxyFactory(bean);
+        factory.addAdvice(interceptor);
+        return factory.getProxy();
+    }
+
+    private final class Interceptor implements MethodInterceptor {
+        private final String name;
+        private final String owner;
+        private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+        private Interceptor(String name, String owner) {
+            this.name = name;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            String method = invocation.getMethod().getName();
+            if (invocation.getMethod().getDeclaringClass() == Object.class) return invocation.proceed();
+            Timer.Sample sample = Timer.start(registry());
+            Object result;
+            try {
+                result = invocation.proceed();
+            } catch (Throwable e) {
+                stop(sample, method, "error", e);
+                throw e;
+            }
+            if (result instanceof Mono) {
+                Mono<?> mono = (Mono<?>) result;
+                return Mono.defer(() -> {
+                    AtomicReference<Timer.Sample> subscribed = new AtomicReference<>(Timer.start(registry()));
+                    return mono.doOnSuccess(value -> stop(subscribed, method, "success", null))
+                            .doOnError(e -> stop(subscribed, method, "error", e))
+                            .doOnCancel(() -> stop(subscribed, method, "cancelled", null));
+                });
+            }
+            if (result instanceof Flux) {
+                Flux<?> flux = (Flux<?>) result;
+                return Flux.defer(() -> {
+                    AtomicReference<Timer.Sample> subscribed = new AtomicReference<>(Timer.start(registry()));
+                    return flux.doOnComplete(() -> stop(subscribed, method, "success", null))
+                            .doOnError(e -> stop(subscribed, method, "error", e))
+                            .doOnCancel(() -> stop(subscribed, method, "cancelled", null));
+                });
+            }
+            stop(sample, method, "success", null);
+            return result;
+        }
+
+        /**
+         * Останавливает таймер подписки один раз: Mono может получить отмену уже после значения
+         */
+        private void stop(AtomicReference<Timer.Sample> subscribed, String method, String outcome, Throwable error) {
+            Timer.Sample sample = subscribed.getAndSet(null);
+            if (sample != null) stop(sample, method, outcome, error);
+        }
+
+        private void stop(Timer.Sample sample, String method, String outcome, Throwable error) {
+            String exception = error == null ? "none" : error.getClass().getSimpleName();
+            sample.stop(timers.computeIfAbsent(String.join("/", method, outcome, exception),
+                    key -> Timer.builder(name)
+                            .tag("class", owner)
+                            .tag("method", method)
+                            .tag("outcome", outcome)
+                            .tag("exception", exception)
+                            .register(registry())));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ru.stm.marvelcomics.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.multipart.MultipartHttpMessageReader;
+import org.springframework.http.codec.multipart.SynchronossPartHttpMessageReader;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/**
+ * <h2>Ограничения разбора multipart-запросов</h2>
+ * <p>
+ * Spring 5.2 разбирает multipart через {@link SynchronossPartHttpMessageReader}: он читает тело запроса целиком
+ * независимо от скорости обработки частей, каждая часть больше 10 КБ пишется во временный файл в java.io.tmpdir,
+ * и FilePart выдается только после получения части целиком.
+ * Поэтому ограничить скорость клиента на чтении частей нельзя, и объем временных файлов ограничивается здесь:
+ * не больше comics.upload.max-parts частей в запросе и не больше comics.upload.max-part-size на часть.
+ * Запрос, превысивший ограничение, получает ответ 413</br>
+ * Архивы CBZ принимаются телом запроса, а не multipart, и временных файлов не создают
+ *
+ * @see ru.stm.marvelcomics.service.UploadService
+ */
+@Configuration
+public class MultipartConfig implements WebFluxConfigurer {
+    private final int maxParts;
+    private final long maxPartSize;
+
+    public MultipartConfig(@Value("${comics.upload.max-parts}") int maxParts,
+                           @Value("${comics.upload.max-part-size}") DataSize maxPartSize) {
+        this.maxParts = maxParts;
+        this.maxPartSize = maxPartSize.toBytes();
+    }
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        SynchronossPartHttpMessageReader parts = new SynchronossPartHttpMessageReader();
+        parts.setMaxParts(maxParts);
+        parts.setMaxDiskUsagePerPart(maxPartSize);
+        configurer.defaultCodecs().multipartReader(new MultipartHttpMessageReader(parts));
+    }
+}
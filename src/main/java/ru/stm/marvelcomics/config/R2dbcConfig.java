@@ -0,0 +1,51 @@
+package ru.stm.marvelcomics.config;
+
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.r2dbc.connectionfactory.R2dbcTransactionManager;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * <h2>Настройка неблокирующего доступа к базе данных через R2DBC</h2>
+ * <p>
+ * Включается параметром comics.persistence=r2dbc.
+ * Использует те же учетные данные, что и spring.datasource
+ *
+ * @see ru.stm.marvelcomics.service.impl.R2dbcComicsServiceImpl
+ * @see ru.stm.marvelcomics.service.impl.R2dbcCharacterServiceImpl
+ */
+@Configuration
+@ConditionalOnProperty(name = "comics.persistence", havingValue = "r2dbc")
+public class R2dbcConfig {
+
+    @Bean
+    public ConnectionFactory connectionFactory(
+            @Value("${comics.r2dbc.url}") String url,
+            @Value("${spring.datasource.username}") String username,
+            @Value("${spring.datasource.password}") String password) {
+        return ConnectionFactories.get(ConnectionFactoryOptions.parse(url).mutate()
+                .option(ConnectionFactoryOptions.USER, username)
+                .option(ConnectionFactoryOptions.PASSWORD, password)
+                .build());
+    }
+
+    @Bean
+    public DatabaseClient databaseClient(ConnectionFactory connectionFactory) {
+        return DatabaseClient.create(connectionFactory);
+    }
+
+    /**
+     * Менеджер транзакций R2DBC не регистрируется как bean,
+     * чтобы не конкурировать с менеджером транзакций JPA в @Transactional
+     */
+    @Bean
+    public TransactionalOperator r2dbcTransactionalOperator(ConnectionFactory connectionFactory) {
+        return TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+    }
+}
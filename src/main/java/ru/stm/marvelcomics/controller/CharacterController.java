@@ -5,19 +5,25 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.stm.marvelcomics.domain.Char;
 import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.dto.BatchDTO;
 import ru.stm.marvelcomics.domain.dto.CharacterDTO;
 import ru.stm.marvelcomics.domain.dto.ComicsDTO;
 import ru.stm.marvelcomics.service.CharacterService;
-import ru.stm.marvelcomics.service.ComicsService;
+import ru.stm.marvelcomics.service.JsonCache;
+import ru.stm.marvelcomics.service.SearchService;
 import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.Cursor;
 import ru.stm.marvelcomics.util.Validation;
 
+import java.util.List;
+
 /**
  * <h2>Обработка rest запросов на адрес ... /v1/public/character</h2>
  *
@@ -28,23 +34,82 @@ import ru.stm.marvelcomics.util.Validation;
 @RequestMapping("/v1/public/character")
 public class CharacterController {
     private final CharacterService characterService;
-    private final ComicsService comicsService;
+    private final JsonCache json;
+    private final SearchService search;
     private ObjectMapper jsonParser = new ObjectMapper();
 
     /**
      * Просмотр списка всех персонажей в лексографическом порядке
      *
+     * @param cursor Не обязательный. Значение заголовка {@value Const#NEXT_CURSOR_HEADER} из ответа на предыдущий запрос.</br>
+     *               Если задан, выдача продолжается с места, где закончилась предыдущая страница, а offset не учитывается
      * @param limit  Не обязательный. Ограничение количества выдаваемых результатов</b>
      *               Если не задан или задан некорректно, принимает значение по умолчанию
      * @param offset Не обязательный. Кол-во элементов, которые должны быть пропущены</b>
      *               Если не задан или задан некорректно, принимает значение по умолчанию
-     * @return json список объектов {@link CharacterDTO#preview(Char)} персонажей в кратком содержании
+     * @return json список объектов {@link CharacterDTO#preview(Char)} персонажей в кратком содержании</br>
+     * Если страница заполнена полностью, в заголовке {@value Const#NEXT_CURSOR_HEADER} передается курсор на следующую страницу
+     * @throws HttpStatus.400, если cursor некорректен
      */
     @GetMapping
-    public Flux<CharacterDTO> get(
+    public Mono<Void> get(
+            @RequestParam(required = false) String cursor,
             @RequestParam(required = false, defaultValue = Const.LIMIT) Integer limit,
-            @RequestParam(required = false, defaultValue = Const.OFFSET) Integer offset) {
-        return characterService.get("name", Validation.LimitIsValid(limit), Validation.OffsetIsValid(offset));
+            @RequestParam(required = false, defaultValue = Const.OFFSET) Integer offset,
+            ServerHttpResponse response) {
+        int validLimit = Validation.LimitIsValid(limit);
+        int validOffset = Validation.OffsetIsValid(offset);
+        String key = cursor == null && validOffset == 0 ? json.characterListKey(validLimit) : null;
+        return json.write(response, key, () -> characterService.get("name", cursor, validLimit, validOffset)
+                .collectList()
+                .map(list -> {
+                    if (list.size() < validLimit) return json.entry(list, null);
+                    CharacterDTO last = list.get(list.size() - 1);
+                    return json.entry(list, Cursor.encode("name", last.getName(), last.getId()));
+                }));
+    }
+
+    /**
+     * Поиск персонажей по имени, описанию и биографии
+     *
+     * @param q     текст запроса на русском или английском языке
+     * @param limit Не обязательный. Ограничение количества выдаваемых результатов</b>
+     *              Если не задан или задан некорректно, принимает значение по умолчанию
+     * @return json список объектов {@link CharacterDTO#preview(Char)} в порядке убывания релевантности
+     */
+    @GetMapping("/search")
+    public Flux<CharacterDTO> search(
+            @RequestParam String q,
+            @RequestParam(required = false, defaultValue = Const.LIMIT) Integer limit) {
+        return Flux.fromIterable(search.searchCharacters(q, Validation.LimitIsValid(limit)));
+    }
+
+    /**
+     * Автодополнение имени персонажа
+     *
+     * @param q     начало имени
+     * @param limit Не обязательный. Ограничение количества подсказок, от 1 до {@value Const#SUGGEST_LIMIT}
+     * @return json список объектов {@link CharacterDTO#preview(Char)} в порядке убывания популярности
+     * @throws HttpStatus.400, если limit меньше 1 или больше {@value Const#SUGGEST_LIMIT}
+     */
+    @GetMapping("/suggest")
+    public Flux<CharacterDTO> suggest(
+            @RequestParam String q,
+            @RequestParam(required = false, defaultValue = "" + Const.SUGGEST_LIMIT) Integer limit) {
+        return Flux.fromIterable(search.suggestCharacters(q, Validation.SuggestLimitIsValid(limit)));
+    }
+
+    /**
+     * Просмотр полной информации о нескольких персонажах одним запросом
+     *
+     * @param ids список id персонажей через запятую, не больше {@value Const#MAX_IDS}
+     * @return json объект {@link BatchDTO}: items - персонажи {@link Char#Char()} в порядке ids,
+     * missing - id, по которым персонажей не нашлось
+     * @throws HttpStatus.400, если ids пуст, содержит больше {@value Const#MAX_IDS} id или не числа
+     */
+    @GetMapping(params = "ids")
+    public Mono<BatchDTO<Char>> getCharacters(@RequestParam List<Long> ids) {
+        return characterService.getByIds(Validation.IdsIsValid(ids));
     }
 
     /**
@@ -55,9 +120,12 @@ public class CharacterController {
      */
 
     @GetMapping(value = "/{id}")
-    public Mono<Char> getCharacter(
-            @PathVariable long id) {
-        return characterService.getById(id);
+    public Mono<Void> getCharacter(
+            @PathVariable long id,
+            ServerHttpResponse response) {
+        search.viewedCharacter(id);
+        return json.write(response, json.characterKey(id), () -> characterService.getById(id)
+                .map(character -> json.entry(character, null)));
     }
 
     /**
@@ -137,7 +205,7 @@ public class CharacterController {
     public Mono<Object> addComics(
             @PathVariable("id") Long id,
             @RequestParam("comics_id") Long comicsId) {
-        return characterService.addComics(id, comicsService.getComicsById(comicsId));
+        return characterService.addComics(id, comicsId);
     }
 
     /**
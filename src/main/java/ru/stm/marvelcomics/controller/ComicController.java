@@ -4,8 +4,15 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
@@ -13,12 +20,20 @@ import reactor.core.publisher.Mono;
 import ru.stm.marvelcomics.domain.Char;
 import ru.stm.marvelcomics.domain.Comics;
 import ru.stm.marvelcomics.domain.ComicsPage;
+import ru.stm.marvelcomics.domain.dto.BatchDTO;
 import ru.stm.marvelcomics.domain.dto.CharacterDTO;
 import ru.stm.marvelcomics.domain.dto.ComicsDTO;
+import ru.stm.marvelcomics.service.ArchiveService;
 import ru.stm.marvelcomics.service.ComicsService;
+import ru.stm.marvelcomics.service.JsonCache;
+import ru.stm.marvelcomics.service.SearchService;
 import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.Cursor;
 import ru.stm.marvelcomics.util.Validation;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
 /**
  * <h2>Обработка rest запросов на адрес ... /v1/public/comics</h2>
  *
@@ -30,7 +45,13 @@ import ru.stm.marvelcomics.util.Validation;
 @RestController
 @RequestMapping("/v1/public/comics")
 public class ComicController {
+    private static final String CBZ_VALUE = "application/vnd.comicbook+zip";
+    private static final MediaType CBZ = MediaType.parseMediaType(CBZ_VALUE);
+
     private final ComicsService comicsService;
+    private final JsonCache json;
+    private final SearchService search;
+    private final ArchiveService archives;
     private ObjectMapper jsonParser = new ObjectMapper();
 
     /**
@@ -40,19 +61,80 @@ public class ComicController {
      *               Допустимые значения:
      *               "title" - по названию,
      *               "release" - по дате публикации.
+     * @param cursor Не обязательный. Значение заголовка {@value Const#NEXT_CURSOR_HEADER} из ответа на предыдущий запрос.</br>
+     *               Если задан, выдача продолжается с места, где закончилась предыдущая страница, а offset не учитывается
      * @param limit  Не обязательный. Ограничение количества выдаваемых результатов</b>
      *               Если не задан или задан некорректно, принимает значение по умолчанию
      * @param offset Не обязательный. Кол-во элементов, которые должны быть пропущены</b>
      *               Если не задан или задан некорректно, принимает значение по умолчанию
-     * @return json список объектов {@link ru.stm.marvelcomics.domain.dto.ComicsDTO#preview(Comics)} комиксов в кратком содержании
+     * @return json список объектов {@link ru.stm.marvelcomics.domain.dto.ComicsDTO#preview(Comics)} комиксов в кратком содержании</br>
+     * Если страница заполнена полностью, в заголовке {@value Const#NEXT_CURSOR_HEADER} передается курсор на следующую страницу
+     * @throws HttpStatus.400, если cursor некорректен
      */
 
     @GetMapping
-    public Flux<ComicsDTO> getComics(
+    public Mono<Void> getComics(
             @RequestParam(required = false, defaultValue = "title") String sort,
+            @RequestParam(required = false) String cursor,
             @RequestParam(required = false, defaultValue = Const.LIMIT) Integer limit,
-            @RequestParam(required = false, defaultValue = Const.OFFSET) Integer offset) {
-        return comicsService.get(sort, Validation.LimitIsValid(limit), Validation.OffsetIsValid(offset));
+            @RequestParam(required = false, defaultValue = Const.OFFSET) Integer offset,
+            ServerHttpResponse response) {
+        String validSort = Validation.ComicsSortIsValid(sort);
+        int validLimit = Validation.LimitIsValid(limit);
+        int validOffset = Validation.OffsetIsValid(offset);
+        String key = cursor == null && validOffset == 0 ? json.comicsListKey(validSort, validLimit) : null;
+        return json.write(response, key, () -> comicsService.get(validSort, cursor, validLimit, validOffset)
+                .collectList()
+                .map(list -> {
+                    if (list.size() < validLimit) return json.entry(list, null);
+                    ComicsDTO last = list.get(list.size() - 1);
+                    String lastKey = "release".equals(validSort) ? last.getRelease() : last.getTitle();
+                    if ("release".equals(validSort) && "".equals(lastKey)) lastKey = null;
+                    return json.entry(list, Cursor.encode(validSort, lastKey, last.getId()));
+                }));
+    }
+
+    /**
+     * Поиск комиксов по названию
+     *
+     * @param q     текст запроса на русском или английском языке
+     * @param limit Не обязательный. Ограничение количества выдаваемых результатов</b>
+     *              Если не задан или задан некорректно, принимает значение по умолчанию
+     * @return json список объектов {@link ru.stm.marvelcomics.domain.dto.ComicsDTO#preview(Comics)} в порядке убывания релевантности
+     */
+    @GetMapping("/search")
+    public Flux<ComicsDTO> search(
+            @RequestParam String q,
+            @RequestParam(required = false, defaultValue = Const.LIMIT) Integer limit) {
+        return Flux.fromIterable(search.searchComics(q, Validation.LimitIsValid(limit)));
+    }
+
+    /**
+     * Автодополнение названия комикса
+     *
+     * @param q     начало названия
+     * @param limit Не обязательный. Ограничение количества подсказок, от 1 до {@value Const#SUGGEST_LIMIT}
+     * @return json список объектов {@link ru.stm.marvelcomics.domain.dto.ComicsDTO#preview(Comics)} в порядке убывания популярности
+     * @throws HttpStatus.400, если limit меньше 1 или больше {@value Const#SUGGEST_LIMIT}
+     */
+    @GetMapping("/suggest")
+    public Flux<ComicsDTO> suggest(
+            @RequestParam String q,
+            @RequestParam(required = false, defaultValue = "" + Const.SUGGEST_LIMIT) Integer limit) {
+        return Flux.fromIterable(search.suggestComics(q, Validation.SuggestLimitIsValid(limit)));
+    }
+
+    /**
+     * Просмотр полной информации о нескольких комиксах одним запросом
+     *
+     * @param ids список id комиксов через запятую, не больше {@value Const#MAX_IDS}
+     * @return json-объект {@link BatchDTO}: items - комиксы {@link Comics#Comics()} в порядке ids,
+     * missing - id, по которым комиксов не нашлось
+     * @throws HttpStatus.400, если ids пуст, содержит больше {@value Const#MAX_IDS} id или не числа
+     */
+    @GetMapping(params = "ids")
+    public Mono<BatchDTO<Comics>> getComicsByIds(@RequestParam List<Long> ids) {
+        return comicsService.getByIds(Validation.IdsIsValid(ids));
     }
 
     /**
@@ -65,10 +147,77 @@ public class ComicController {
      * @throws HttpStatus.404, если комикса с этим id не нашлось
      */
     @GetMapping("/{id}")
-    public Mono<Object> getComicsById(
+    public Mono<Void> getComicsById(
             @PathVariable long id,
-            @RequestParam(name = "page", required = false, defaultValue = "0") Integer order) {
-        return comicsService.getById(id, order);
+            @RequestParam(name = "page", required = false, defaultValue = "0") Integer order,
+            ServerHttpResponse response) {
+        search.viewedComics(id);
+        String key = order <= 0 ? json.comicsKey(id) : null;
+        return json.write(response, key, () -> comicsService.getById(id, order)
+                .map(comics -> json.entry(comics, null)));
+    }
+
+    /**
+     * Скачивание всего комикса одним архивом CBZ (ZIP без сжатия)
+     * со страницами в порядке их следования, файлы называются 001.jpg, 002.jpg, ...</br>
+     * Поддерживается докачка: заголовок Range с одним диапазоном байт и If-Range с ETag архива.
+     * Повторный запрос с If-None-Match получает ответ 304, если страницы не менялись
+     *
+     * @param id id комикса
+     * @return архив или его часть, если задан заголовок Range
+     * @throws HttpStatus.404, если комикса с этим id не нашлось
+     * @throws HttpStatus.416, если диапазон Range начинается за концом архива
+     */
+    @GetMapping("/{id}/archive")
+    public Mono<Void> getArchive(
+            @PathVariable long id,
+            ServerHttpRequest request,
+            ServerHttpResponse response) {
+        return archives.archive(id).flatMap(archive -> {
+            HttpHeaders headers = response.getHeaders();
+            headers.setETag(archive.getEtag());
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            if (request.getHeaders().getIfNoneMatch().contains(archive.getEtag())) {
+                response.setStatusCode(HttpStatus.NOT_MODIFIED);
+                return response.setComplete();
+            }
+            long size = archive.getSize();
+            long start = 0;
+            long end = size - 1;
+            HttpRange range = singleRange(request.getHeaders(), archive.getEtag());
+            if (range != null) {
+                start = range.getRangeStart(size);
+                end = range.getRangeEnd(size);
+                if (start >= size || start > end) {
+                    response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+                    headers.set(HttpHeaders.CONTENT_RANGE, String.format("bytes */%d", size));
+                    return response.setComplete();
+                }
+                response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+                headers.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, end, size));
+            }
+            headers.setContentType(CBZ);
+            headers.setContentDisposition(ContentDisposition.builder("attachment")
+                    .filename(archive.getFilename(), StandardCharsets.UTF_8)
+                    .build());
+            headers.setContentLength(end - start + 1);
+            return response.writeWith(archives.read(archive, start, end, response.bufferFactory()));
+        });
+    }
+
+    /**
+     * @return единственный диапазон из заголовка Range или null, если архив нужно отдать целиком:
+     * заголовка нет, он некорректен, содержит несколько диапазонов или If-Range не совпадает с ETag
+     */
+    private static HttpRange singleRange(HttpHeaders headers, String etag) {
+        String ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) return null;
+        try {
+            List<HttpRange> ranges = headers.getRange();
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     /**
@@ -117,15 +266,40 @@ public class ComicController {
      * @param images Файл-изображения. Один или несколько.
      * @return void;
      * @throws HttpStatus.404, если комикса с этим id не нашлось
+     * @throws HttpStatus.413, если файлов больше comics.upload.max-parts или файл больше comics.upload.max-part-size
+     * @throws HttpStatus.507, если на диске недостаточно места
      */
     @PostMapping(value = "/{id}")
     public Mono<Void> addPage(
             @PathVariable Long id,
-            @RequestParam(required = false) Long order,
+            @RequestParam(required = false, defaultValue = "0") long order,
             @RequestPart Flux<FilePart> images) {
         return comicsService.addPage(id, order, images);
     }
 
+    /**
+     * Добавление страниц комикса из архива CBZ/ZIP.
+     * Архив передается телом запроса (не multipart) с Content-Type application/vnd.comicbook+zip,
+     * application/zip или application/octet-stream. Тело читается по мере распаковки и на диске не сохраняется,
+     * страницы нумеруются подряд в естественном порядке имен файлов архива (page2 раньше page10)
+     *
+     * @param id      id комикса
+     * @param order   Не обязательный. Номер первой страницы архива
+     * @param archive Тело запроса - архив с изображениями страниц
+     * @return void;
+     * @throws HttpStatus.400, если архив поврежден или содержит больше {@value Const#MAX_ARCHIVE_PAGES} изображений
+     * @throws HttpStatus.404, если комикса с этим id не нашлось
+     * @throws HttpStatus.507, если на диске недостаточно места
+     */
+    @PostMapping(value = "/{id}/archive",
+            consumes = {CBZ_VALUE, "application/zip", "application/x-cbz", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public Mono<Void> addArchive(
+            @PathVariable Long id,
+            @RequestParam(required = false, defaultValue = "0") long order,
+            @RequestBody Flux<DataBuffer> archive) {
+        return comicsService.addArchive(id, order, archive);
+    }
+
     /**
      * Изменение данных комикса
      * <p>
@@ -173,10 +347,8 @@ public class ComicController {
             @PathVariable long id,
             @RequestParam(required = false) String file) {
         if (file == null) {
-            comicsService.delete(id);
-        } else {
-            comicsService.deletePage(id, file);
+            return comicsService.delete(id);
         }
-        return Mono.empty();
+        return comicsService.deletePage(id, file);
     }
 }
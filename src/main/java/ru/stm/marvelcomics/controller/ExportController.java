@@ -0,0 +1,36 @@
+package ru.stm.marvelcomics.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import ru.stm.marvelcomics.service.ExportService;
+
+import java.util.Map;
+
+/**
+ * <h2>Обработка rest запросов на адрес ... /v1/public/export</h2>
+ * <p>
+ * Выгрузка всего каталога ({@link ExportService}) по одному json-объекту на строку.
+ * Ответ передается по мере чтения из базы, темп чтения задает клиент
+ */
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/v1/public/export")
+public class ExportController {
+    private final ExportService exportService;
+
+    /**
+     * Выгрузка каталога
+     *
+     * @return json-объекты персонажей, комиксов, страниц и связей с полем "type"
+     * @throws HttpStatus.503, если уже выполняется слишком много выгрузок
+     */
+    @GetMapping(produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public Flux<Map<String, Object>> exportAll() {
+        return exportService.exportAll();
+    }
+}
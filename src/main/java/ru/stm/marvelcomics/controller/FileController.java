@@ -0,0 +1,82 @@
+package ru.stm.marvelcomics.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.config.Bulkhead;
+import ru.stm.marvelcomics.service.ImageService;
+import ru.stm.marvelcomics.util.Const;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Обработка rest запросов на адрес ... /v1/public/files</h2>
+ * <p>
+ * Отдает изображения: обложки, портреты и страницы комиксов.
+ * Пути из полей cover, portrait и image указываются относительно /v1/public/files,
+ * например /v1/public/files/comics/1/{uuid}_page.jpg</br>
+ * Файл передается без копирования в память приложения (sendfile через {@link org.springframework.http.ZeroCopyHttpOutputMessage}),
+ * поддерживаются запросы с заголовком Range.</br>
+ * Имена файлов уникальны и содержимое файла не меняется, поэтому ответ кэшируется на год,
+ * а повторный запрос с If-None-Match или If-Modified-Since получает ответ 304.</br>
+ * С параметром size отдается уменьшенная копия изображения ({@link ImageService})
+ */
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/v1/public/files")
+public class FileController {
+    private static final CacheControl CACHE_CONTROL = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic();
+
+    private final Bulkhead bulkhead;
+    private final ImageService images;
+
+    /**
+     * Получение файла изображения
+     *
+     * @param dir      "comics" или "character"
+     * @param id       id комикса или персонажа
+     * @param filename уникальное имя файла
+     * @param size     Не обязательный. Ширина уменьшенной копии из comics.image.widths
+     *                 или "progressive" - прогрессивный JPEG в исходном размере.
+     *                 Если не задан, отдается оригинал
+     * @return содержимое файла или его часть, если задан заголовок Range
+     * @throws HttpStatus.400, если size недопустим
+     * @throws HttpStatus.404, если файла нет
+     */
+    @GetMapping("/{dir}/{id}/{filename:.+}")
+    public Mono<ResponseEntity<Resource>> getFile(
+            @PathVariable String dir,
+            @PathVariable long id,
+            @PathVariable String filename,
+            @RequestParam(required = false) String size) {
+        String fileDir = "/" + dir;
+        if (!Const.COMICS_DIR.equals(fileDir) && !Const.CHARACTER_DIR.equals(fileDir)
+                || filename.contains("..") || filename.contains("/") || filename.contains("\\")) {
+            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND));
+        }
+        String etag = (size == null ? filename : size + "-" + filename).replace("\"", "");
+        Mono<File> file = size == null
+                ? Mono.just(new File(String.format("%s%s/%d/%s", Const.PATH_FILE, fileDir, id, filename)))
+                : images.derivative(fileDir, id, filename, size);
+        return file.flatMap(f -> bulkhead.fromFile(() -> f.isFile() ? f.lastModified() : null)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND)))
+                .map(lastModified -> ResponseEntity.ok()
+                        .eTag(etag)
+                        .lastModified(lastModified)
+                        .cacheControl(CACHE_CONTROL)
+                        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                        .body((Resource) new FileSystemResource(f))));
+    }
+}
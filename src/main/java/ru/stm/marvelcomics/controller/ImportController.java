@@ -0,0 +1,39 @@
+package ru.stm.marvelcomics.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import ru.stm.marvelcomics.domain.dto.ImportResult;
+import ru.stm.marvelcomics.service.ImportService;
+import ru.stm.marvelcomics.util.Const;
+
+/**
+ * <h2>Обработка rest запросов на адрес ... /v1/public/import</h2>
+ * <p>
+ * Массовый импорт персонажей, комиксов и связей между ними ({@link ImportService}).
+ * Тело запроса - json-объекты, по одному на строку ({@value Const#NDJSON}).</br>
+ * Ответ - поток результатов по строкам, по одному json-объекту на строку. Результаты выдаются
+ * по мере сохранения пачек, не дожидаясь конца запроса
+ */
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/v1/public/import")
+public class ImportController {
+    private final ImportService importService;
+
+    /**
+     * Импорт записей
+     *
+     * @param lines строки запроса
+     * @return json-объекты {@link ImportResult} в порядке строк запроса
+     */
+    @PostMapping(consumes = {Const.NDJSON, MediaType.APPLICATION_STREAM_JSON_VALUE},
+            produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public Flux<ImportResult> importAll(@RequestBody Flux<String> lines) {
+        return importService.importAll(lines);
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.springframework.lang.NonNull;
 import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.Dates;
 
 import javax.persistence.*;
 import java.text.ParseException;
@@ -13,6 +14,10 @@ import java.util.Date;
 
 /**
  * <h2>Char (character) содержит данные о персонаже комикса</h2>
+ * <p>
+ * Список комиксов загружается лениво.
+ * Связи с комиксами изменяются запросами к comics_has_character без загрузки списка.</br>
+ * id выделяются из char_id_seq блоками по 50 (INCREMENT BY 50 в characters.sql)
  *
  * @see Comics#Comics()
  */
@@ -22,7 +27,8 @@ import java.util.Date;
 @Table(name = "characters")
 public class Char {
     @Id
-    @GeneratedValue(strategy = GenerationType.SEQUENCE)
+    @SequenceGenerator(name = "char_id_seq", sequenceName = "char_id_seq", allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "char_id_seq")
     private Long id;
 
     /**
@@ -59,7 +65,7 @@ public class Char {
     private String biography;
 
     @JsonIgnore
-    @ManyToMany(targetEntity = Comics.class, fetch = FetchType.EAGER)
+    @ManyToMany(targetEntity = Comics.class, fetch = FetchType.LAZY)
     @JoinTable(name = "comics_has_character",
             joinColumns = @JoinColumn(name = "character_id"),
             inverseJoinColumns = @JoinColumn(name = "comics_id"))
@@ -117,6 +123,17 @@ public class Char {
         return String.format("%s/%d/%s", Const.CHARACTER_DIR, id, portrait);
     }
 
+    /**
+     * Возвращает имя файла изображения персонажа без пути</br>
+     * Это поле <b>не</b> входит в json-объект "character"
+     *
+     * @return portrait
+     */
+    @JsonIgnore
+    public String getPortraitFilename() {
+        return this.portrait;
+    }
+
     /**
      * Возвращает уникальный идентификатор персонажа
      *
@@ -238,11 +255,11 @@ public class Char {
     }
 
     public void setCreateDateStr(String createDateStr) throws ParseException {
-        this.createDate = Const.FORMAT_STRING_TO_DATE.parse(createDateStr);
-        this.createDateStr = Const.FORMAT_DATE_TO_STRING.format(this.createDate);
+        this.createDate = Dates.parse(createDateStr);
+        this.createDateStr = Dates.format(this.createDate);
     }
 
     public String getCreateDateStr() {
-        return (createDate == null) ? "" : Const.FORMAT_DATE_TO_STRING.format(createDate);
+        return Dates.format(createDate);
     }
 }
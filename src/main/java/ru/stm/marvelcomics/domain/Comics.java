@@ -3,6 +3,7 @@ package ru.stm.marvelcomics.domain;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.Dates;
 
 import javax.persistence.*;
 import java.text.ParseException;
@@ -12,16 +13,22 @@ import java.util.Date;
 
 /**
  * <h2>Comic содержит данные о комиксе</h2>
+ * <p>
+ * Страницы и персонажи загружаются лениво. Если страницы нужны вместе с комиксом,
+ * используется граф "Comics.pages".</br>
+ * id выделяются из com_id_seq блоками по 50 (INCREMENT BY 50 в comics.sql)
  *
  * @see Char#Char()
  * @see ComicsPage#ComicsPage()
  */
 @Entity
 @Table(name = "comics")
+@NamedEntityGraph(name = "Comics.pages", attributeNodes = @NamedAttributeNode("pages"))
 public class Comics {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.SEQUENCE)
+    @SequenceGenerator(name = "com_id_seq", sequenceName = "com_id_seq", allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "com_id_seq")
     private Long id;
 
     /**
@@ -48,7 +55,7 @@ public class Comics {
     private String cover;
 
     @JsonIgnore
-    @OneToMany(targetEntity = ComicsPage.class, mappedBy = "comics", fetch = FetchType.EAGER, cascade = CascadeType.ALL)
+    @OneToMany(targetEntity = ComicsPage.class, mappedBy = "comics", fetch = FetchType.LAZY, cascade = CascadeType.ALL)
     private Collection<ComicsPage> pages = new ArrayList<>();
 
     @JsonIgnore
@@ -149,9 +156,20 @@ public class Comics {
     /**
      * Возвращает путь к файлу. Изображение обложки комикса
      *
-     * @return cover
+     * @return cover или null, если обложки нет
      */
     public String getCover() {
+        return cover == null ? null : String.format("%s/%d/%s", Const.COMICS_DIR, id, cover);
+    }
+
+    /**
+     * Возвращает имя файла обложки без пути</br>
+     * Это поле <b>не</b> входит в json-объект "comics"
+     *
+     * @return cover
+     */
+    @JsonIgnore
+    public String getCoverFilename() {
         return this.cover;
     }
 
@@ -231,11 +249,11 @@ public class Comics {
     }
 
     public String getReleaseStr() {
-        return (release == null) ? "" : Const.FORMAT_DATE_TO_STRING.format(release);
+        return Dates.format(release);
     }
 
     public void setReleaseStr(String releaseStr) throws ParseException {
-        this.release = Const.FORMAT_STRING_TO_DATE.parse(releaseStr);
-        this.releaseStr = Const.FORMAT_DATE_TO_STRING.format(release);
+        this.release = Dates.parse(releaseStr);
+        this.releaseStr = Dates.format(release);
     }
 }
@@ -2,6 +2,7 @@ package ru.stm.marvelcomics.domain;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Builder;
+import org.springframework.data.domain.Persistable;
 import org.springframework.lang.NonNull;
 import ru.stm.marvelcomics.util.Const;
 
@@ -9,13 +10,19 @@ import javax.persistence.*;
 
 /**
  * <h2>ComicsPage содержит данные о странице комикса</h2>
+ * <p>
+ * Комикс загружается лениво. Если он нужен вместе со страницей (например, для {@link #getPathFile()}),
+ * используется граф "ComicsPage.comics".</br>
+ * Имя файла задается приложением, поэтому новая страница сама сообщает, что она новая ({@link #isNew()}):
+ * при сохранении выполняется insert без предварительного select, и страницы вставляются пакетами
  *
  * @see Comics#Comics()
  */
-@Builder
 @Entity
-@Table(name = "comics_page")
-public class ComicsPage {
+@Table(name = "comics_page",
+        indexes = @Index(name = "comics_page_comics_id_order_idx", columnList = "comics_id, order_page, path_file"))
+@NamedEntityGraph(name = "ComicsPage.comics", attributeNodes = @NamedAttributeNode("comics"))
+public class ComicsPage implements Persistable<String> {
 
     /**
      * Номер страницы комикса
@@ -37,10 +44,13 @@ public class ComicsPage {
      */
 
     @JsonIgnore
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(referencedColumnName = "id")
     private Comics comics;
 
+    @Transient
+    private boolean isNew = true;
+
     /**
      * ComicsPage конструктор со всеми параметрами
      *
@@ -48,6 +58,7 @@ public class ComicsPage {
      * @param pathFile ссылка на файл-изображение
      * @param comics   объект {@link Comics#Comics()}, которому принадлежит эта страница
      */
+    @Builder
     public ComicsPage(Long order, @NonNull String pathFile, Comics comics) {
         this.order = order;
         this.pathFile = pathFile;
@@ -57,6 +68,34 @@ public class ComicsPage {
     public ComicsPage() {
     }
 
+    /**
+     * Возвращает имя файла страницы - первичный ключ
+     *
+     * @return pathFile без пути
+     */
+    @JsonIgnore
+    @Override
+    public String getId() {
+        return this.pathFile;
+    }
+
+    /**
+     * Страница новая, пока не сохранена и не загружена из базы
+     *
+     * @return true, если страницы еще нет в базе
+     */
+    @JsonIgnore
+    @Override
+    public boolean isNew() {
+        return this.isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
     /**
      * Возвращает путь к файлу-изображению в виде строки
      *
@@ -0,0 +1,62 @@
+package ru.stm.marvelcomics.domain.dto;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h2>BatchDTO определяет ответ на запрос нескольких объектов по списку id</h2>
+ * <p>
+ * Найденные объекты идут в порядке запрошенных id, повторяющиеся id выдаются один раз.
+ * Id, по которым ничего не найдено, перечисляются в missing
+ *
+ * @param <T> тип объектов
+ */
+public class BatchDTO<T> {
+
+    private final List<T> items;
+
+    private final List<Long> missing;
+
+    BatchDTO(List<T> items, List<Long> missing) {
+        this.items = items;
+        this.missing = missing;
+    }
+
+    /**
+     * Формирует ответ из найденных объектов
+     *
+     * @param ids   запрошенные id
+     * @param found найденные объекты по их id
+     * @return BatchDTO
+     */
+    public static <T> BatchDTO<T> of(List<Long> ids, Map<Long, T> found) {
+        List<T> items = new ArrayList<>(found.size());
+        List<Long> missing = new ArrayList<>();
+        for (Long id : new LinkedHashSet<>(ids)) {
+            T item = found.get(id);
+            if (item == null) missing.add(id);
+            else items.add(item);
+        }
+        return new BatchDTO<>(items, missing);
+    }
+
+    /**
+     * Возвращает найденные объекты в порядке запрошенных id
+     *
+     * @return items
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Возвращает id, по которым ничего не найдено
+     *
+     * @return missing
+     */
+    public List<Long> getMissing() {
+        return missing;
+    }
+}
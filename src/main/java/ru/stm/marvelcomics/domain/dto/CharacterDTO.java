@@ -3,6 +3,8 @@ package ru.stm.marvelcomics.domain.dto;
 import lombok.Builder;
 import lombok.Setter;
 import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.projection.CharacterPreview;
+import ru.stm.marvelcomics.util.Const;
 
 /**
  * <h2>CharacterDTO определяет краткое содержание {@link Char#Char()}</h2>
@@ -33,6 +35,21 @@ public class CharacterDTO {
                 .build();
     }
 
+    /**
+     * Формирует краткое содержание из колонок персонажа, выбранных запросом</br>
+     * Сущность {@link Char#Char()} при этом не загружается
+     *
+     * @param character
+     * @return CharacterDTO
+     */
+    public static CharacterDTO preview(CharacterPreview character) {
+        return CharacterDTO.builder()
+                .id(character.getId())
+                .name(character.getName())
+                .portrait(String.format("%s/%d/%s", Const.CHARACTER_DIR, character.getId(), character.getPortrait()))
+                .build();
+    }
+
     /**
      * Возвращает уникальный идентификатор персонажа
      *
@@ -59,4 +76,13 @@ public class CharacterDTO {
     public String getPortrait() {
         return this.portrait;
     }
+
+    /**
+     * Возвращает путь к уменьшенной копии изображения персонажа для списков
+     *
+     * @return thumbnail или null, если изображения нет
+     */
+    public String getThumbnail() {
+        return portrait == null ? null : String.format("%s?size=%d", portrait, Const.THUMBNAIL_WIDTH);
+    }
 }
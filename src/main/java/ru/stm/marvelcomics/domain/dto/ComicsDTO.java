@@ -3,6 +3,9 @@ package ru.stm.marvelcomics.domain.dto;
 import lombok.Builder;
 import lombok.Setter;
 import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.projection.ComicsPreview;
+import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.Dates;
 
 /**
  * <h2>ComicsDTO определяет краткое содержание  {@link Comics#Comics()}</h2>
@@ -43,6 +46,23 @@ public class ComicsDTO {
                 .build();
     }
 
+    /**
+     * Формирует краткое содержание из колонок комикса, выбранных запросом</br>
+     * Сущность {@link Comics#Comics()} при этом не загружается
+     *
+     * @param comics
+     * @return ComicsDTO
+     */
+    public static ComicsDTO preview(ComicsPreview comics) {
+        return ComicsDTO.builder()
+                .id(comics.getId())
+                .title(comics.getTitle())
+                .release(Dates.format(comics.getRelease()))
+                .cover(comics.getCover() == null ? null
+                        : String.format("%s/%d/%s", Const.COMICS_DIR, comics.getId(), comics.getCover()))
+                .build();
+    }
+
     /**
      * Возвращает уникальный идентифокатор комикса
      *
@@ -70,6 +90,15 @@ public class ComicsDTO {
         return this.cover;
     }
 
+    /**
+     * Возвращает путь к уменьшенной копии обложки для списков
+     *
+     * @return thumbnail или null, если обложки нет
+     */
+    public String getThumbnail() {
+        return cover == null ? null : String.format("%s?size=%d", cover, Const.THUMBNAIL_WIDTH);
+    }
+
     /**
      * Возвращает дату публикации
      *
@@ -0,0 +1,122 @@
+package ru.stm.marvelcomics.domain.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * <h2>ImportResult определяет результат импорта одной строки</h2>
+ * <p>
+ * Поля, не относящиеся к результату, в json не выдаются
+ *
+ * @see ru.stm.marvelcomics.service.ImportService
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ImportResult {
+    public static final String CREATED = "created";
+    public static final String LINKED = "linked";
+    public static final String ERROR = "error";
+
+    private final long line;
+
+    private final String type;
+
+    private final String ref;
+
+    private final Long id;
+
+    private final String status;
+
+    private final String error;
+
+    ImportResult(long line, String type, String ref, Long id, String status, String error) {
+        this.line = line;
+        this.type = type;
+        this.ref = ref;
+        this.id = id;
+        this.status = status;
+        this.error = error;
+    }
+
+    /**
+     * @param line номер строки, начиная с 1
+     * @param type тип записи
+     * @param ref  ссылка на запись из строки или null
+     * @param id   id созданной записи
+     * @return результат для созданного персонажа или комикса
+     */
+    public static ImportResult created(long line, String type, String ref, long id) {
+        return new ImportResult(line, type, ref, id, CREATED, null);
+    }
+
+    /**
+     * @param line номер строки, начиная с 1
+     * @return результат для добавленной связи персонажа и комикса
+     */
+    public static ImportResult linked(long line) {
+        return new ImportResult(line, "link", null, null, LINKED, null);
+    }
+
+    /**
+     * @param line  номер строки, начиная с 1
+     * @param type  тип записи или null, если строку не удалось разобрать
+     * @param ref   ссылка на запись из строки или null
+     * @param error причина ошибки
+     * @return результат для строки, которая не была импортирована
+     */
+    public static ImportResult error(long line, String type, String ref, String error) {
+        return new ImportResult(line, type, ref, null, ERROR, error);
+    }
+
+    /**
+     * Возвращает номер строки в запросе, начиная с 1
+     *
+     * @return line
+     */
+    public long getLine() {
+        return line;
+    }
+
+    /**
+     * Возвращает тип записи: "character", "comics" или "link"
+     *
+     * @return type
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Возвращает ссылку на запись, указанную в строке
+     *
+     * @return ref
+     */
+    public String getRef() {
+        return ref;
+    }
+
+    /**
+     * Возвращает id созданного персонажа или комикса
+     *
+     * @return id
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Возвращает результат: "created", "linked" или "error"
+     *
+     * @return status
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Возвращает причину ошибки
+     *
+     * @return error
+     */
+    public String getError() {
+        return error;
+    }
+}
@@ -4,6 +4,10 @@ import lombok.Builder;
 import lombok.Setter;
 import ru.stm.marvelcomics.domain.Comics;
 import ru.stm.marvelcomics.domain.ComicsPage;
+import ru.stm.marvelcomics.domain.projection.PageView;
+import ru.stm.marvelcomics.util.Const;
+
+import java.util.List;
 
 /**
  * <h2>PageDTO определает содержание страницы комикса</h2>
@@ -21,6 +25,16 @@ public class PageDTO {
 
     String image;
 
+    /**
+     * Изображение предыдущей страницы или null
+     */
+    String prev;
+
+    /**
+     * Изображение следующей страницы или null
+     */
+    String next;
+
     /**
      * Формирует содержание страницы из полей классов {@link Comics#Comics()} и {@link ComicsPage#ComicsPage()}
      *
@@ -36,6 +50,29 @@ public class PageDTO {
                 .build();
     }
 
+    /**
+     * Формирует содержание страницы из колонок комикса и страниц, выбранных запросом</br>
+     * Сущности {@link Comics#Comics()} и {@link ComicsPage#ComicsPage()} при этом не загружаются
+     *
+     * @param pages предыдущая, запрошенная и следующая страницы (следующей может не быть)
+     * @return PageDTO или null, если запрошенной страницы нет
+     */
+    public static PageDTO view(List<PageView> pages) {
+        if (pages.size() < 2) return null;
+        PageView page = pages.get(1);
+        return PageDTO.builder()
+                .id(page.getId())
+                .title(page.getTitle())
+                .image(image(page))
+                .prev(image(pages.get(0)))
+                .next(pages.size() > 2 ? image(pages.get(2)) : null)
+                .build();
+    }
+
+    private static String image(PageView page) {
+        return String.format("%s/%d/%s", Const.COMICS_DIR, page.getId(), page.getFile());
+    }
+
     public long getId() {
         return this.id;
     }
@@ -47,4 +84,12 @@ public class PageDTO {
     public String getImage() {
         return this.image;
     }
+
+    public String getPrev() {
+        return this.prev;
+    }
+
+    public String getNext() {
+        return this.next;
+    }
 }
@@ -0,0 +1,17 @@
+package ru.stm.marvelcomics.domain.projection;
+
+/**
+ * <h2>CharacterPreview - колонки персонажа, необходимые для краткого содержания</h2>
+ * <p>
+ * Заполняется напрямую из строки результата запроса, без загрузки сущности {@link ru.stm.marvelcomics.domain.Char#Char()}
+ *
+ * @see ru.stm.marvelcomics.domain.dto.CharacterDTO#preview(CharacterPreview)
+ */
+public interface CharacterPreview {
+
+    Long getId();
+
+    String getName();
+
+    String getPortrait();
+}
@@ -0,0 +1,21 @@
+package ru.stm.marvelcomics.domain.projection;
+
+import java.util.Date;
+
+/**
+ * <h2>ComicsPreview - колонки комикса, необходимые для краткого содержания</h2>
+ * <p>
+ * Заполняется напрямую из строки результата запроса, без загрузки сущности {@link ru.stm.marvelcomics.domain.Comics#Comics()}
+ *
+ * @see ru.stm.marvelcomics.domain.dto.ComicsDTO#preview(ComicsPreview)
+ */
+public interface ComicsPreview {
+
+    Long getId();
+
+    String getTitle();
+
+    Date getRelease();
+
+    String getCover();
+}
@@ -0,0 +1,54 @@
+package ru.stm.marvelcomics.domain.projection;
+
+/**
+ * <h2>PageView - колонки комикса и страницы, необходимые для просмотра страницы</h2>
+ * <p>
+ * Заполняется напрямую из строки результата запроса, без загрузки сущностей
+ * {@link ru.stm.marvelcomics.domain.Comics#Comics()} и {@link ru.stm.marvelcomics.domain.ComicsPage#ComicsPage()}
+ *
+ * @see ru.stm.marvelcomics.domain.dto.PageDTO#view(java.util.List)
+ */
+public interface PageView {
+
+    /**
+     * @return id комикса
+     */
+    Long getId();
+
+    /**
+     * @return название комикса
+     */
+    String getTitle();
+
+    /**
+     * @return имя файла страницы
+     */
+    String getFile();
+
+    /**
+     * Создает PageView из значений, выбранных без Spring Data (например, через R2DBC)
+     *
+     * @param id    id комикса
+     * @param title название комикса
+     * @param file  имя файла страницы
+     * @return PageView
+     */
+    static PageView of(Long id, String title, String file) {
+        return new PageView() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getTitle() {
+                return title;
+            }
+
+            @Override
+            public String getFile() {
+                return file;
+            }
+        };
+    }
+}
@@ -1,12 +1,58 @@
 package ru.stm.marvelcomics.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.projection.CharacterPreview;
+
+import java.util.List;
 
 /**
  * <h2>Репозитории для работы с персонажами комиксов</h2>
+ * <p>
+ * Список персонажей выбирается страницами средствами базы данных.
+ * Метод findNextByName продолжает выдачу после элемента (name, id) и опирается на индекс (name, id).
+ * Персонажи без имени идут в конце списка в порядке id, их выдает findNextWithoutName.</br>
+ * Для кратких содержаний выбираются только колонки {@link CharacterPreview}, сущности не загружаются.
+ * Метод findAfterId выбирает персонажей целиком пачками по первичному ключу - для построения поискового индекса.
+ * Связи с комиксами добавляются и удаляются без загрузки списка комиксов персонажа
  *
  * @see Char#Char()
  */
 public interface CharacterRepository extends JpaRepository<Char, Long> {
+    String PREVIEW = "select ch.id as id, ch.name as name, ch.portrait as portrait from characters ch ";
+
+    @Query(value = PREVIEW + "order by ch.name, ch.id limit :limit offset :offset", nativeQuery = true)
+    List<CharacterPreview> findPageByName(@Param("limit") int limit, @Param("offset") int offset);
+
+    @Query(value = PREVIEW + "where (ch.name, ch.id) > (:name, :id) " +
+            "order by ch.name, ch.id limit :limit", nativeQuery = true)
+    List<CharacterPreview> findNextByName(@Param("name") String name, @Param("id") long id, @Param("limit") int limit);
+
+    @Query(value = PREVIEW + "where ch.name is null and ch.id > :id " +
+            "order by ch.id limit :limit", nativeQuery = true)
+    List<CharacterPreview> findNextWithoutName(@Param("id") long id, @Param("limit") int limit);
+
+    @Query(value = PREVIEW + "join comics_has_character l on l.character_id = ch.id " +
+            "where l.comics_id = :comicsId", nativeQuery = true)
+    List<CharacterPreview> findPreviewsByComics(@Param("comicsId") long comicsId);
+
+    @Query(value = "select * from characters ch where ch.id > :id order by ch.id limit :limit", nativeQuery = true)
+    List<Char> findAfterId(@Param("id") long id, @Param("limit") int limit);
+
+    @Modifying
+    @Transactional
+    @Query(value = "insert into comics_has_character (comics_id, character_id) select :comicsId, :characterId " +
+            "where not exists (select 1 from comics_has_character l " +
+            "where l.comics_id = :comicsId and l.character_id = :characterId)", nativeQuery = true)
+    int addComics(@Param("characterId") long characterId, @Param("comicsId") long comicsId);
+
+    @Modifying
+    @Transactional
+    @Query(value = "delete from comics_has_character where character_id = :characterId and comics_id = :comicsId",
+            nativeQuery = true)
+    int deleteComics(@Param("characterId") long characterId, @Param("comicsId") long comicsId);
 }
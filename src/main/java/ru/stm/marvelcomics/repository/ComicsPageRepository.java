@@ -1,10 +1,13 @@
 package ru.stm.marvelcomics.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
-import ru.stm.marvelcomics.domain.Comics;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import ru.stm.marvelcomics.domain.ComicsPage;
+import ru.stm.marvelcomics.domain.projection.PageView;
 
-import java.util.Collection;
+import java.util.List;
 
 /**
  * <h2>Репозиторий для работы с страницами комикса</h2>
@@ -12,6 +15,37 @@ import java.util.Collection;
  * @see ComicsPage#ComicsPage()
  */
 public interface ComicsPageRepository extends JpaRepository<ComicsPage, Long> {
-    Collection<ComicsPage> findAllByComics(Comics comics);
+
+    @EntityGraph("ComicsPage.comics")
     ComicsPage findComicsPageByPathFile(String pathFile);
+
+    /**
+     * Выбирает подряд идущие страницы комикса вместе с названием комикса, сущности не загружаются.
+     * Номер страницы позиционный: order_page задаётся при загрузке и может иметь пропуски и повторы,
+     * поэтому окно выбирается через offset, а не по диапазону order_page.
+     * Индекс comics_page_comics_id_order_idx избавляет от сортировки, но offset всё равно проходит
+     * все предыдущие строки комикса: стоимость растёт линейно с номером страницы
+     *
+     * @param comicsId id комикса
+     * @param offset   сколько страниц пропустить
+     * @param limit    сколько страниц выбрать
+     * @return от 0 до limit объектов {@link PageView} в порядке следования страниц
+     */
+    @Query(value = "select c.id as id, c.title as title, p.path_file as file from comics_page p " +
+            "join comics c on c.id = p.comics_id where p.comics_id = :comicsId " +
+            "order by p.order_page, p.path_file limit :limit offset :offset", nativeQuery = true)
+    List<PageView> findPageWindow(@Param("comicsId") long comicsId, @Param("offset") int offset,
+                                  @Param("limit") int limit);
+
+    /**
+     * Выбирает все страницы комикса вместе с названием комикса
+     *
+     * @param comicsId id комикса
+     * @return объекты {@link PageView} в порядке следования страниц.
+     * Пустой список, если комикса нет, и одна строка с file = null, если у комикса нет страниц
+     */
+    @Query(value = "select c.id as id, c.title as title, p.path_file as file from comics c " +
+            "left join comics_page p on p.comics_id = c.id where c.id = :comicsId " +
+            "order by p.order_page, p.path_file", nativeQuery = true)
+    List<PageView> findAllPages(@Param("comicsId") long comicsId);
 }
@@ -1,12 +1,60 @@
 package ru.stm.marvelcomics.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.projection.ComicsPreview;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
 
 /**
  * <h2>Репозиторий для работы с комиксами</h2>
+ * <p>
+ * Списки выбираются страницами средствами базы данных.
+ * Методы findNext* продолжают выдачу после элемента (key, id) и опираются на индексы (title, id) и (release, id).
+ * Комиксы без названия или без даты публикации идут в конце списка в порядке id,
+ * после них выдача продолжается методами findNextWithout*.</br>
+ * Для кратких содержаний выбираются только колонки {@link ComicsPreview}, сущности не загружаются.
+ * Метод findAfterId выбирает комиксы целиком пачками по первичному ключу - для построения поискового индекса
  *
  * @see Comics#Comics()
  */
 public interface ComicsRepository extends JpaRepository<Comics, Long> {
+    String PREVIEW = "select c.id as id, c.title as title, c.release as release, c.cover as cover from comics c ";
+
+    @EntityGraph("Comics.pages")
+    Optional<Comics> findWithPagesById(Long id);
+
+    @Query(value = PREVIEW + "order by c.title, c.id limit :limit offset :offset", nativeQuery = true)
+    List<ComicsPreview> findPageByTitle(@Param("limit") int limit, @Param("offset") int offset);
+
+    @Query(value = PREVIEW + "order by c.release, c.id limit :limit offset :offset", nativeQuery = true)
+    List<ComicsPreview> findPageByRelease(@Param("limit") int limit, @Param("offset") int offset);
+
+    @Query(value = PREVIEW + "where (c.title, c.id) > (:title, :id) " +
+            "order by c.title, c.id limit :limit", nativeQuery = true)
+    List<ComicsPreview> findNextByTitle(@Param("title") String title, @Param("id") long id, @Param("limit") int limit);
+
+    @Query(value = PREVIEW + "where c.title is null and c.id > :id " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<ComicsPreview> findNextWithoutTitle(@Param("id") long id, @Param("limit") int limit);
+
+    @Query(value = PREVIEW + "where (c.release, c.id) > (:release, :id) " +
+            "order by c.release, c.id limit :limit", nativeQuery = true)
+    List<ComicsPreview> findNextByRelease(@Param("release") Date release, @Param("id") long id, @Param("limit") int limit);
+
+    @Query(value = PREVIEW + "where c.release is null and c.id > :id " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<ComicsPreview> findNextWithoutRelease(@Param("id") long id, @Param("limit") int limit);
+
+    @Query(value = PREVIEW + "join comics_has_character l on l.comics_id = c.id " +
+            "where l.character_id = :characterId", nativeQuery = true)
+    List<ComicsPreview> findPreviewsByCharacter(@Param("characterId") long characterId);
+
+    @Query(value = "select * from comics c where c.id > :id order by c.id limit :limit", nativeQuery = true)
+    List<Comics> findAfterId(@Param("id") long id, @Param("limit") int limit);
 }
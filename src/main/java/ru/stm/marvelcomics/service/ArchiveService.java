@@ -0,0 +1,175 @@
+package ru.stm.marvelcomics.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.config.Bulkhead;
+import ru.stm.marvelcomics.domain.projection.PageView;
+import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.StoredZip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <h2>ArchiveService - выдача комикса одним архивом CBZ</h2>
+ * <p>
+ * Архив не создается на диске и не собирается в памяти: заголовки ZIP формируются при запросе,
+ * а страницы читаются с диска частями по {@value #CHUNK} байт по мере отправки клиенту.
+ * Страницы хранятся без сжатия (STORED), поэтому архив детерминирован ({@link StoredZip}):
+ * его размер известен заранее, и докачка (Range) отдает нужный участок без чтения предыдущих.</br>
+ * Для заголовков нужна CRC-32 каждой страницы. Содержимое файла по имени не меняется,
+ * поэтому CRC-32 считается при первой выдаче и хранится в кэше ({@value #CRC_CACHE} файлов)
+ */
+@Log4j
+@RequiredArgsConstructor
+@Service
+public class ArchiveService {
+    private static final int CHUNK = 64 * 1024;
+    private static final long CRC_CACHE = 100_000;
+
+    private final ComicsService comicsService;
+    private final Bulkhead bulkhead;
+    private final Cache<String, Long> crcs = Caffeine.newBuilder().maximumSize(CRC_CACHE).build();
+
+    /**
+     * Строит раскладку архива комикса
+     *
+     * @param id id комикса
+     * @return архив со страницами в порядке order_page
+     * @throws HttpStatus.404 если нет комикса с таким id
+     * @throws HttpStatus.413 если архив не помещается в ZIP без ZIP64
+     */
+    public Mono<Archive> archive(long id) {
+        return comicsService.getPages(id)
+                .flatMap(pages -> bulkhead.fromFile(() -> layout(id, pages)));
+    }
+
+    /**
+     * Читает участок архива
+     *
+     * @param archive архив
+     * @param start   первый байт участка
+     * @param end     последний байт участка, включительно
+     * @param factory фабрика буферов ответа
+     * @return части архива, не больше {@value #CHUNK} байт каждая
+     */
+    public Flux<DataBuffer> read(Archive archive, long start, long end, DataBufferFactory factory) {
+        return Flux.fromIterable(archive.zip.slice(start, end))
+                .concatMap(slice -> {
+                    StoredZip.Part part = slice.getPart();
+                    if (part.getBytes() != null) {
+                        return Flux.just(factory.wrap(ByteBuffer.wrap(part.getBytes(), (int) slice.getFrom(), (int) slice.getLength())));
+                    }
+                    return DataBufferUtils.takeUntilByteCount(DataBufferUtils.readAsynchronousFileChannel(
+                            () -> AsynchronousFileChannel.open(part.getFile(), StandardOpenOption.READ),
+                            slice.getFrom(), factory, CHUNK), slice.getLength());
+                }, 1);
+    }
+
+    private Archive layout(long id, List<PageView> pages) throws IOException {
+        int width = Math.max(3, Integer.toString(pages.size()).length());
+        List<StoredZip.Entry> entries = new ArrayList<>(pages.size());
+        StringBuilder files = new StringBuilder();
+        for (PageView page : pages) {
+            if (page.getFile() == null) continue;
+            Path path = Paths.get(String.format("%s%s/%d/%s", Const.PATH_FILE, Const.COMICS_DIR, id, page.getFile()));
+            long size;
+            try {
+                size = Files.size(path);
+            } catch (NoSuchFileException e) {
+                log.warn(String.format("Файл страницы не найден, пропущен в архиве: %s", path));
+                continue;
+            }
+            String name = String.format("%0" + width + "d%s", entries.size() + 1, extension(page.getFile()));
+            entries.add(new StoredZip.Entry(name, path, size, crc(page.getFile(), path)));
+            files.append(page.getFile()).append('\n');
+        }
+        try {
+            String title = pages.get(0).getTitle();
+            return new Archive(new StoredZip(entries),
+                    String.format("\"%s\"", DigestUtils.md5DigestAsHex(files.toString().getBytes(StandardCharsets.UTF_8))),
+                    String.format("%s.cbz", title == null || title.trim().isEmpty() ? Long.toString(id) : title.trim()));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    String.format("Комикс слишком велик для архива: %s", e.getMessage()), e);
+        }
+    }
+
+    private long crc(String filename, Path path) throws IOException {
+        Long cached = crcs.getIfPresent(filename);
+        if (cached != null) return cached;
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[CHUNK];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        crcs.put(filename, crc.getValue());
+        return crc.getValue();
+    }
+
+    private static String extension(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot < 0 ? "" : filename.substring(dot).toLowerCase();
+    }
+
+    /**
+     * Раскладка архива комикса и его метаданные для ответа
+     */
+    public static final class Archive {
+        private final StoredZip zip;
+        private final String etag;
+        private final String filename;
+
+        private Archive(StoredZip zip, String etag, String filename) {
+            this.zip = zip;
+            this.etag = etag;
+            this.filename = filename;
+        }
+
+        /**
+         * @return размер архива в байтах
+         */
+        public long getSize() {
+            return zip.getSize();
+        }
+
+        /**
+         * @return ETag архива: меняется при любом изменении состава страниц
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return имя файла архива: название комикса с расширением .cbz
+         */
+        public String getFilename() {
+            return filename;
+        }
+    }
+}
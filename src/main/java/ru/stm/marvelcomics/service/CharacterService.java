@@ -5,9 +5,12 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.stm.marvelcomics.domain.Char;
 import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.dto.BatchDTO;
 import ru.stm.marvelcomics.domain.dto.CharacterDTO;
 import ru.stm.marvelcomics.domain.dto.ComicsDTO;
 
+import java.util.List;
+
 /**
  * <h2>Интерфейс для работы с репозиторием персонажей </h2>
  *
@@ -15,14 +18,17 @@ import ru.stm.marvelcomics.domain.dto.ComicsDTO;
  */
 public interface CharacterService {
     /**
-     * Получеие списка объектов {@link ru.stm.marvelcomics.domain.dto.CharacterDTO#preview(Char)} персонажей в кратком содержании в отсортированном порядке
+     * Получеие списка объектов {@link ru.stm.marvelcomics.domain.dto.CharacterDTO#preview(Char)} персонажей в кратком содержании в отсортированном порядке</br>
+     * Если задан cursor, выдача продолжается после элемента, на который он указывает, а offset не учитывается
      *
      * @param sort   установлен "name"
+     * @param cursor курсор {@link ru.stm.marvelcomics.util.Cursor} на последний полученный элемент или null
      * @param limit  ограничение количества результатов
      * @param offset пропустить элементы
      * @return 0 или несколько объектов {@link ru.stm.marvelcomics.domain.dto.CharacterDTO#preview(Char)}
+     * @throws org.springframework.http.HttpStatus.400 если cursor некорректен
      */
-    Flux<CharacterDTO> get(String sort, int limit, int offset);
+    Flux<CharacterDTO> get(String sort, String cursor, int limit, int offset);
 
     /**
      * Поиск персонажа по его id
@@ -32,6 +38,15 @@ public interface CharacterService {
      */
     Mono<Char> getById(long id);
 
+    /**
+     * Поиск нескольких персонажей по списку id</br>
+     * Id из одновременных запросов загружаются вместе одним запросом к базе
+     *
+     * @param ids список id
+     * @return объект {@link BatchDTO} с персонажами {@link Char#Char()} в порядке ids и id ненайденных персонажей
+     */
+    Mono<BatchDTO<Char>> getByIds(List<Long> ids);
+
     /**
      * Получение списка комиксов в которых задействован персонаж с id
      *
@@ -65,11 +80,11 @@ public interface CharacterService {
      * Добавление комикса в список кмиксов, в которых задействован персонаж
      *
      * @param id       id персонажа
-     * @param comics   объект  {@link Comics#Comics()}
+     * @param comicsId id комикса {@link Comics#Comics()}
      * @return void
      * @throws org.springframework.http.HttpStatus.400 Если параметры заданы некорректно
      */
-    Mono<Object> addComics(long id, Comics comics);
+    Mono<Object> addComics(long id, long comicsId);
 
     /**
      * Удаление персонажа</br>
@@ -86,9 +101,7 @@ public interface CharacterService {
      * @param id       id персонажа
      * @param comicsId id комикса
      * @return void
-     * @throws org.springframework.http.HttpStatus.400 Если параметры заданы некорректно
+     * @throws org.springframework.http.HttpStatus.400 если персонажа с таким id нет
      */
     Mono<Void> deleteComics(Long id, Long comicsId);
-
-    Char getCharacterById(Long id);
 }
@@ -1,13 +1,18 @@
 package ru.stm.marvelcomics.service;
 
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.codec.multipart.FilePart;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.stm.marvelcomics.domain.Char;
 import ru.stm.marvelcomics.domain.Comics;
 import ru.stm.marvelcomics.domain.ComicsPage;
+import ru.stm.marvelcomics.domain.dto.BatchDTO;
 import ru.stm.marvelcomics.domain.dto.CharacterDTO;
 import ru.stm.marvelcomics.domain.dto.ComicsDTO;
+import ru.stm.marvelcomics.domain.projection.PageView;
+
+import java.util.List;
 
 /**
  * <h2>Интерфейс для работы с репозиторием комиксов и страниц комиксов</h2>
@@ -18,26 +23,49 @@ import ru.stm.marvelcomics.domain.dto.ComicsDTO;
 
 public interface ComicsService {
     /**
-     * Получение списка объектов {@link ru.stm.marvelcomics.domain.dto.ComicsDTO#preview(Comics)} комиксов в кратком содержании
+     * Получение списка объектов {@link ru.stm.marvelcomics.domain.dto.ComicsDTO#preview(Comics)} комиксов в кратком содержании</br>
+     * Если задан cursor, выдача продолжается после элемента, на который он указывает, а offset не учитывается
      *
      * @param sort   параметр сортировки
+     * @param cursor курсор {@link ru.stm.marvelcomics.util.Cursor} на последний полученный элемент или null
      * @param limit  ограничение количества резулльтатов
      * @param offset пропустить элементы
      * @return 0 или несколько объектов {@link ru.stm.marvelcomics.domain.dto.ComicsDTO#preview(Comics)}
+     * @throws org.springframework.http.HttpStatus.400 если cursor некорректен
      */
-    Flux<ComicsDTO> get(String sort, int limit, int offset);
+    Flux<ComicsDTO> get(String sort, String cursor, int limit, int offset);
 
     /**
      * Поиск комикса по его id</br>
-     * Просмотр страниц комикса, если order задан корректно
+     * Просмотр страниц комикса, если order задан корректно.
+     * Страница выбирается одним запросом вместе с изображениями соседних страниц
      *
      * @param id    id комикса
      * @param order номер страницы
-     * @return или 1 объект {@link ru.stm.marvelcomics.domain.dto.PageDTO#view(Comics, ComicsPage)}
+     * @return или 1 объект {@link ru.stm.marvelcomics.domain.dto.PageDTO#view(java.util.List)}
      * @throws org.springframework.http.HttpStatus.404 если нет комикса с таким id
      */
     Mono<Object> getById(long id, int order);
 
+    /**
+     * Все страницы комикса
+     *
+     * @param id id комикса
+     * @return объекты {@link ru.stm.marvelcomics.domain.projection.PageView} в порядке следования страниц,
+     * у комикса без страниц - одна запись с file = null
+     * @throws org.springframework.http.HttpStatus.404 если нет комикса с таким id
+     */
+    Mono<List<PageView>> getPages(long id);
+
+    /**
+     * Поиск нескольких комиксов по списку id</br>
+     * Id из одновременных запросов загружаются вместе одним запросом к базе
+     *
+     * @param ids список id
+     * @return объект {@link BatchDTO} с комиксами {@link Comics#Comics()} в порядке ids и id ненайденных комиксов
+     */
+    Mono<BatchDTO<Comics>> getByIds(List<Long> ids);
+
     /**
      * Получание списка персонажей, задействованных в комиксе
      *
@@ -79,23 +107,38 @@ public interface ComicsService {
 
     /**
      * Добавление страниц в комикс</br>
-     * Загрузка файлов на диск
+     * Загрузка файлов на диск. Ответ возвращается после того, как все файлы записаны на диск
+     * и все страницы сохранены в базе
      *
      * @param id    id комикса
      * @param order параметр, определяющии порядок следования страниц
      * @param files 1 или несколько файлов
      * @return void
+     * @throws org.springframework.http.HttpStatus.404 если нет комикса с таким id
+     * @throws org.springframework.http.HttpStatus.507 если на диске недостаточно места
      */
     Mono<Void> addPage(long id, long order, Flux<FilePart> files);
 
+    /**
+     * Добавление страниц комикса из архива CBZ/ZIP
+     *
+     * @param id      id комикса
+     * @param order   номер первой страницы, страницы архива нумеруются подряд в естественном порядке имен
+     * @param archive тело запроса - архив с изображениями страниц
+     * @return void
+     * @throws org.springframework.http.HttpStatus.400 если архив поврежден или в нем слишком много изображений
+     * @throws org.springframework.http.HttpStatus.404 если нет комикса с таким id
+     * @throws org.springframework.http.HttpStatus.507 если на диске недостаточно места
+     */
+    Mono<Void> addArchive(long id, long order, Flux<DataBuffer> archive);
+
     /**
      * Удаление страницы из комикса
      *
      * @param id       id комикса
      * @param fileName имя файла
      * @return void
+     * @throws org.springframework.http.HttpStatus.404 если у комикса с таким id нет такой страницы
      */
     Mono<Void> deletePage(long id, String fileName);
-
-    Comics getComicsById(Long id);
 }
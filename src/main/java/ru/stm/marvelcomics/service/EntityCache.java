@@ -0,0 +1,187 @@
+package ru.stm.marvelcomics.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.Comics;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * <h2>EntityCache - кэш комиксов и персонажей для просмотра по id</h2>
+ * <p>
+ * Хранит не больше comics.cache.size комиксов и столько же персонажей,
+ * запись удаляется через comics.cache.ttl после загрузки.
+ * Сервисы удаляют запись из кэша после любого изменения комикса или персонажа.</br>
+ * Попадания, промахи и вытеснения публикуются в метриках cache.* с тегами cache=comics и cache=character.</br>
+ * Каждое изменение получает номер версии: версия комикса или персонажа и версия списков
+ * используются как часть ключа в {@link JsonCache}, поэтому после изменения старый json больше не выдается.</br>
+ * Загруженная запись попадает в кэш, только если за время загрузки версия не изменилась,
+ * иначе загрузка, начатая до изменения, вернула бы в кэш старые данные.
+ * Версии хранятся для comics.cache.size последних измененных id, для вытесненных id
+ * версией считается наибольшая вытесненная версия
+ */
+@Component
+public class EntityCache {
+    private final Cache<Long, Comics> comics;
+    private final Cache<Long, Char> characters;
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong evictedVersion = new AtomicLong();
+    private final Map<Long, Long> comicsVersions;
+    private final Map<Long, Long> characterVersions;
+    private volatile long comicsListVersion;
+    private volatile long characterListVersion;
+
+    public EntityCache(MeterRegistry registry,
+                       @Value("${comics.cache.size}") long size,
+                       @Value("${comics.cache.ttl}") Duration ttl) {
+        this.comics = CaffeineCacheMetrics.monitor(registry, build(size, ttl), "comics");
+        this.characters = CaffeineCacheMetrics.monitor(registry, build(size, ttl), "character");
+        this.comicsVersions = versions(size);
+        this.characterVersions = versions(size);
+    }
+
+    /**
+     * Возвращает комикс из кэша или загружает его
+     *
+     * @param id     id комикса
+     * @param loader загрузка комикса, если его нет в кэше
+     * @return комикс или пустой Mono, если комикса нет
+     */
+    public Mono<Comics> comics(long id, Supplier<Mono<Comics>> loader) {
+        return cached(comics, id, () -> comicsVersion(id), loader);
+    }
+
+    /**
+     * Возвращает персонажа из кэша или загружает его
+     *
+     * @param id     id персонажа
+     * @param loader загрузка персонажа, если его нет в кэше
+     * @return персонаж или пустой Mono, если персонажа нет
+     */
+    public Mono<Char> character(long id, Supplier<Mono<Char>> loader) {
+        return cached(characters, id, () -> characterVersion(id), loader);
+    }
+
+    /**
+     * Удаляет комикс из кэша и увеличивает версии комикса и списков комиксов.
+     * Вызывается после добавления, изменения и удаления комикса
+     *
+     * @param id id комикса
+     */
+    public void evictComics(long id) {
+        long version = changes.incrementAndGet();
+        comicsVersions.put(id, version);
+        comicsListVersion = version;
+        comics.invalidate(id);
+    }
+
+    /**
+     * Удаляет персонажа из кэша и увеличивает версии персонажа и списков персонажей.
+     * Вызывается после добавления, изменения и удаления персонажа
+     *
+     * @param id id персонажа
+     */
+    public void evictCharacter(long id) {
+        long version = changes.incrementAndGet();
+        characterVersions.put(id, version);
+        characterListVersion = version;
+        characters.invalidate(id);
+    }
+
+    /**
+     * Увеличивает версии списков комиксов и персонажей, не затрагивая записи по id.
+     * Вызывается после массового добавления, когда в кэше еще нет новых записей
+     */
+    public void evictLists() {
+        long version = changes.incrementAndGet();
+        comicsListVersion = version;
+        characterListVersion = version;
+    }
+
+    /**
+     * @param id id комикса
+     * @return номер последнего изменения комикса, 0 - не изменялся после запуска приложения
+     */
+    public long comicsVersion(long id) {
+        Long version = comicsVersions.get(id);
+        return version != null ? version : evictedVersion.get();
+    }
+
+    /**
+     * @param id id персонажа
+     * @return номер последнего изменения персонажа, 0 - не изменялся после запуска приложения
+     */
+    public long characterVersion(long id) {
+        Long version = characterVersions.get(id);
+        return version != null ? version : evictedVersion.get();
+    }
+
+    /**
+     * @return номер последнего изменения любого комикса
+     */
+    public long comicsListVersion() {
+        return comicsListVersion;
+    }
+
+    /**
+     * @return номер последнего изменения любого персонажа
+     */
+    public long characterListVersion() {
+        return characterListVersion;
+    }
+
+    /**
+     * Кладет загруженную запись в кэш через compute, который блокирует ту же ячейку, что и invalidate:
+     * версия увеличивается до invalidate, поэтому запись, загруженная до изменения, в кэш не попадет
+     */
+    private static <T> Mono<T> cached(Cache<Long, T> cache, long id, LongSupplier version, Supplier<Mono<T>> loader) {
+        return Mono.defer(() -> {
+            T value = cache.getIfPresent(id);
+            if (value != null) return Mono.just(value);
+            long before = version.getAsLong();
+            return loader.get().doOnNext(loaded -> cache.asMap().compute(id,
+                    (key, current) -> version.getAsLong() == before ? loaded : current));
+        });
+    }
+
+    /**
+     * Версии вытесняются синхронно через {@link CacheWriter#delete}: наибольшая вытесненная версия
+     * становится версией по умолчанию до того, как запись пропадет из карты
+     */
+    private Map<Long, Long> versions(long size) {
+        return Caffeine.newBuilder()
+                .maximumSize(size)
+                .writer(new CacheWriter<Long, Long>() {
+                    @Override
+                    public void write(Long id, Long version) {
+                    }
+
+                    @Override
+                    public void delete(Long id, Long version, RemovalCause cause) {
+                        if (version != null) evictedVersion.accumulateAndGet(version, Math::max);
+                    }
+                })
+                .<Long, Long>build()
+                .asMap();
+    }
+
+    private static <K, V> Cache<K, V> build(long size, Duration ttl) {
+        return Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+}
@@ -0,0 +1,165 @@
+package ru.stm.marvelcomics.service;
+
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SynchronousSink;
+import ru.stm.marvelcomics.config.Bulkhead;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h2>ExportService - выгрузка всего каталога построчно</h2>
+ * <p>
+ * Выгружаются персонажи, комиксы, страницы комиксов и связи персонажей с комиксами,
+ * каждая запись - json-объект с полем "type" ("character", "comics", "page", "link").
+ * Формат персонажей, комиксов и связей совпадает с форматом {@link ImportService}.</br>
+ * Таблицы читаются серверными курсорами базы данных порциями по comics.export.fetch-size строк
+ * в одной транзакции repeatable read, поэтому выгрузка согласована и не зависит от размера каталога по памяти.
+ * Следующая строка читается только когда клиент готов ее принять: медленный клиент замедляет чтение,
+ * а не накапливает записи в памяти приложения.</br>
+ * Выгрузка держит соединение с базой до конца, поэтому одновременно выполняется не больше
+ * comics.export.concurrency выгрузок
+ */
+@Log4j
+@Service
+public class ExportService {
+    private static final String[] QUERIES = {
+            "select 'character' as type, id, name, to_char(create_date, 'FMDD-MM-YYYY') as \"createDate\", " +
+                    "portrait, description, biography from characters order by id",
+            "select 'comics' as type, id, title, to_char(release, 'FMDD-MM-YYYY') as release, cover " +
+                    "from comics order by id",
+            "select 'page' as type, comics_id as comics, order_page as \"order\", path_file as file " +
+                    "from comics_page order by comics_id, order_page, path_file",
+            "select 'link' as type, character_id as \"character\", comics_id as comics " +
+                    "from comics_has_character order by comics_id, character_id"};
+
+    private final DataSource dataSource;
+    private final Bulkhead bulkhead;
+    private final int fetchSize;
+    private final int concurrency;
+    private final AtomicInteger active = new AtomicInteger();
+
+    public ExportService(DataSource dataSource,
+                         Bulkhead bulkhead,
+                         @Value("${comics.export.fetch-size}") int fetchSize,
+                         @Value("${comics.export.concurrency}") int concurrency) {
+        this.dataSource = dataSource;
+        this.bulkhead = bulkhead;
+        this.fetchSize = fetchSize;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @return записи каталога: сначала персонажи, затем комиксы, страницы и связи
+     * @throws HttpStatus.503, если уже выполняется comics.export.concurrency выгрузок
+     */
+    public Flux<Map<String, Object>> exportAll() {
+        return Flux.defer(() -> {
+            if (active.incrementAndGet() > concurrency) {
+                active.decrementAndGet();
+                return Flux.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "Выполняется слишком много выгрузок, повторите запрос позже"));
+            }
+            AtomicLong rows = new AtomicLong();
+            long start = System.currentTimeMillis();
+            return Flux.generate(this::open, this::next, ExportCursor::close)
+                    .doOnNext(row -> rows.incrementAndGet())
+                    .subscribeOn(bulkhead.db())
+                    .doFinally(signal -> {
+                        active.decrementAndGet();
+                        log.info(String.format("Выгрузка (%s) за %d мс: %d записей",
+                                signal, System.currentTimeMillis() - start, rows.get()));
+                    });
+        });
+    }
+
+    private ExportCursor open() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            return new ExportCursor(connection);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private ExportCursor next(ExportCursor cursor, SynchronousSink<Map<String, Object>> sink) {
+        try {
+            while (cursor.resultSet == null || !cursor.resultSet.next()) {
+                if (cursor.query == QUERIES.length) {
+                    sink.complete();
+                    return cursor;
+                }
+                cursor.execute(QUERIES[cursor.query++], fetchSize);
+            }
+            ResultSetMetaData meta = cursor.resultSet.getMetaData();
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                Object value = cursor.resultSet.getObject(i);
+                if (value != null) row.put(meta.getColumnLabel(i), value);
+            }
+            sink.next(row);
+        } catch (SQLException e) {
+            sink.error(e);
+        }
+        return cursor;
+    }
+
+    /**
+     * Соединение выгрузки и открытый курсор текущей таблицы
+     */
+    private static final class ExportCursor {
+        private final Connection connection;
+        private Statement statement;
+        private ResultSet resultSet;
+        private int query;
+
+        private ExportCursor(Connection connection) {
+            this.connection = connection;
+        }
+
+        private void execute(String sql, int fetchSize) throws SQLException {
+            closeStatement();
+            statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            resultSet = statement.executeQuery(sql);
+        }
+
+        private void closeStatement() throws SQLException {
+            if (statement != null) statement.close();
+            statement = null;
+            resultSet = null;
+        }
+
+        private void close() {
+            try {
+                closeStatement();
+                connection.rollback();
+            } catch (SQLException e) {
+                log.warn(String.format("Ошибка при закрытии курсора выгрузки\n%s", e.toString()));
+            } finally {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.warn(String.format("Ошибка при закрытии соединения выгрузки\n%s", e.toString()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ru.stm.marvelcomics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>FileMetrics - метрики {@link FileService}</h2>
+ * <p>
+ * Все таймеры, размеры и счетчики файловых операций регистрируются один раз при создании bean,
+ * операции только записывают в них значения.</br>
+ * Таймеры: comics.file.create (outcome), comics.file.write (source, outcome), comics.file.force,
+ * comics.file.store (result), comics.file.delete (target, outcome).
+ * Размер записанных файлов - comics.file.write.bytes (source),
+ * число удаленных из хранилища файлов содержимого - comics.file.released
+ */
+@Component
+public class FileMetrics {
+    static final String PART = "part";
+    static final String STREAM = "stream";
+    static final String DISCARD = "discard";
+    static final String FILE = "file";
+    static final String FOLDER = "folder";
+    static final String LINKED = "linked";
+    static final String NEW = "new";
+
+    private static final String[] OUTCOMES = {"success", "error"};
+    private static final String[] SOURCES = {PART, STREAM};
+    private static final String[] TARGETS = {DISCARD, FILE, FOLDER};
+
+    private final Map<String, Timer> timers = new HashMap<>();
+    private final Map<String, DistributionSummary> written = new HashMap<>();
+    private final Timer force;
+    private final Counter released;
+
+    public FileMetrics(MeterRegistry registry) {
+        for (String outcome : OUTCOMES) {
+            timers.put(key("create", outcome), Timer.builder("comics.file.create")
+                    .tag("outcome", outcome)
+                    .register(registry));
+            for (String source : SOURCES) {
+                timers.put(key("write", source, outcome), Timer.builder("comics.file.write")
+                        .tag("source", source)
+                        .tag("outcome", outcome)
+                        .register(registry));
+            }
+            for (String target : TARGETS) {
+                timers.put(key("delete", target, outcome), Timer.builder("comics.file.delete")
+                        .tag("target", target)
+                        .tag("outcome", outcome)
+                        .register(registry));
+            }
+        }
+        for (String result : new String[]{LINKED, NEW}) {
+            timers.put(key("store", result), Timer.builder("comics.file.store")
+                    .tag("result", result)
+                    .register(registry));
+        }
+        for (String source : SOURCES) {
+            written.put(source, DistributionSummary.builder("comics.file.write.bytes")
+                    .baseUnit("bytes")
+                    .tag("source", source)
+                    .register(registry));
+        }
+        this.force = Timer.builder("comics.file.force").register(registry);
+        this.released = registry.counter("comics.file.released");
+    }
+
+    void created(long start, boolean success) {
+        record(timers.get(key("create", outcome(success))), start);
+    }
+
+    /**
+     * @param source {@value #PART} или {@value #STREAM}
+     * @param bytes  количество записанных байт
+     */
+    void written(String source, long start, boolean success, long bytes) {
+        record(timers.get(key("write", source, outcome(success))), start);
+        written.get(source).record(bytes);
+    }
+
+    void forced(long start) {
+        record(force, start);
+    }
+
+    /**
+     * @param result {@value #LINKED} - содержимое уже хранилось, {@value #NEW} - сохранено впервые
+     */
+    void stored(long start, String result) {
+        record(timers.get(key("store", result)), start);
+    }
+
+    /**
+     * @param target {@value #DISCARD}, {@value #FILE} или {@value #FOLDER}
+     */
+    void deleted(String target, long start, boolean success) {
+        record(timers.get(key("delete", target, outcome(success))), start);
+    }
+
+    void released() {
+        released.increment();
+    }
+
+    private static void record(Timer timer, long start) {
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private static String outcome(boolean success) {
+        return success ? "success" : "error";
+    }
+
+    private static String key(String... parts) {
+        return String.join("/", parts);
+    }
+}
@@ -1,31 +1,70 @@
 package ru.stm.marvelcomics.service;
 
 import lombok.extern.log4j.Log4j;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
 import ru.stm.marvelcomics.util.Const;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Comparator;
+import java.util.List;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * <h2>FileService для работы с файлами</h2>
+ * <p>
+ * Содержимое файлов хранится один раз: при записи считается SHA-256, и файл с таким же содержимым,
+ * загруженный в другой комикс, повторно или как вариант обложки, не занимает место на диске повторно.</br>
+ * Содержимое лежит в {@value Const#BLOBS_DIR}/{первые 2 символа}/{digest}, а файлы комиксов и персонажей -
+ * жесткие ссылки (hard link) на него с именем {digest}_{uuid}_{имя файла}.
+ * Число ссылок на содержимое (unix:nlink) служит счетчиком ссылок: содержимое удаляется,
+ * когда на него не осталось ни одной ссылки, кроме хранилища.</br>
+ * Время операций, размер записанных файлов и число удаленных файлов содержимого публикуются
+ * в метриках {@link FileMetrics}
  */
 @Log4j
 public class FileService {
+    private static final int DIGEST_LENGTH = 32;
+    private static final int COPY_BUFFER = 64 * 1024;
+    private static final long CHECK_INTERVAL = 16 * 1024 * 1024;
+    private static final Pattern DIGEST_PREFIX = Pattern.compile(String.format("^([0-9a-f]{%d})_", DIGEST_LENGTH));
+
+    private final FileMetrics metrics;
     private Path path;
+    private MessageDigest digest;
+    private long written;
+
+    private FileService(FileMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     /**
      * Подготовка к получению файла
      *
+     * @param metrics метрики файловых операций
      * @return this
      */
-    public static FileService upload() {
-        return new FileService();
+    public static FileService upload(FileMetrics metrics) {
+        return new FileService(metrics);
     }
 
     /**
@@ -37,6 +76,7 @@ public class FileService {
      * @return this
      */
     public FileService createPath(String dir, long id, String filename) {
+        long start = System.nanoTime();
         String uploadDirectory = String.format("%s%s/%d/", Const.PATH_FILE, dir, id);
         if (!Files.exists(Paths.get(uploadDirectory))) {
             try {
@@ -53,20 +93,156 @@ public class FileService {
         } catch (IOException e) {
             log.warn(String.format("Ошибка при создании файла: %s/%s\n%s", uploadDirectory, uuidFileName, e.toString()));
         }
+        metrics.created(start, path != null);
         return this;
     }
 
     /**
-     * Загрузка файла
+     * Потоковая запись файла на диск.
+     * Содержимое multipart-части пишется буферами, файл целиком в памяти не хранится
      *
      * @param file
+     * @return уникальное имя файла после того, как все части записаны
+     */
+    public Mono<String> write(FilePart file) {
+        if (path == null) {
+            return Mono.error(new IOException("Файл для записи не создан"));
+        }
+        digest = sha256();
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            written = 0;
+            return DataBufferUtils.write(file.content().doOnNext(buffer -> {
+                written += buffer.readableByteCount();
+                digest.update(buffer.asByteBuffer());
+            }), path, StandardOpenOption.WRITE)
+                    .then(Mono.fromCallable(this::getFilename))
+                    .doOnSuccess(filename -> metrics.written(FileMetrics.PART, start, true, written))
+                    .doOnError(e -> metrics.written(FileMetrics.PART, start, false, written));
+        });
+    }
+
+    /**
+     * Блокирующая запись файла на диск из потока, например, из элемента архива.
+     * Содержимое копируется частями, файл целиком в памяти не хранится.
+     * Размер элемента в архиве не проверяется, поэтому считаются фактически записанные байты:
+     * запись прерывается, как только их больше limit. Каждые {@value #CHECK_INTERVAL} байт вызывается check,
+     * например, проверка свободного места
+     *
+     * @param content содержимое файла, не закрывается
+     * @param limit   максимальный размер файла в байтах
+     * @param check   проверка во время записи, прерывает запись исключением
+     * @return this
+     * @throws IOException если файл не создан или запись не удалась
+     * @throws org.springframework.http.HttpStatus.413 если содержимое больше limit
+     */
+    public FileService write(InputStream content, long limit, Runnable check) throws IOException {
+        if (path == null) {
+            throw new IOException("Файл для записи не создан");
+        }
+        digest = sha256();
+        long start = System.nanoTime();
+        written = 0;
+        long nextCheck = CHECK_INTERVAL;
+        byte[] buffer = new byte[COPY_BUFFER];
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                written += read;
+                if (written > limit) {
+                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                            String.format("Файл больше %d байт", limit));
+                }
+                if (written >= nextCheck) {
+                    check.run();
+                    nextCheck += CHECK_INTERVAL;
+                }
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.written(FileMetrics.STREAM, start, false, written);
+            throw e;
+        }
+        metrics.written(FileMetrics.STREAM, start, true, written);
+        return this;
+    }
+
+    /**
+     * Переносит записанный файл в хранилище содержимого.
+     * Если такое содержимое уже есть, файл заменяется ссылкой на него, и место на диске освобождается.
+     * Файл получает имя {digest}_{uuid}_{имя файла}
+     *
+     * @return this
+     * @throws IOException если не удалось создать ссылку
+     */
+    public FileService store() throws IOException {
+        long start = System.nanoTime();
+        String hex = hex(digest.digest()).substring(0, DIGEST_LENGTH);
+        Path blob = blob(hex);
+        Path stored = path.resolveSibling(String.format("%s_%s", hex, path.getFileName()));
+        Files.createDirectories(blob.getParent());
+        try {
+            Path link = Files.createLink(path.resolveSibling(stored.getFileName() + ".link"), blob);
+            Files.move(link, stored, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(path);
+            log.debug(String.format("Содержимое %s уже хранится, создана ссылка %s", hex, stored));
+            metrics.stored(start, FileMetrics.LINKED);
+        } catch (NoSuchFileException e) {
+            try {
+                Files.createLink(blob, path);
+            } catch (FileAlreadyExistsException exists) {
+                log.debug(String.format("Содержимое %s сохранено параллельной загрузкой", hex));
+            }
+            Files.move(path, stored, StandardCopyOption.ATOMIC_MOVE);
+            metrics.stored(start, FileMetrics.NEW);
+        }
+        path = stored;
+        return this;
+    }
+
+    /**
+     * Сбрасывает записанный файл на диск (fsync)
+     *
+     * @return this
+     * @throws IOException если файл не удалось сбросить на диск
+     */
+    public FileService force() throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        metrics.forced(start);
+        return this;
+    }
+
+    /**
+     * Удаляет созданный файл, например, если запись прервалась
+     *
      * @return this
      */
-    public FileService transfer(FilePart file) {
-        file.transferTo(path);
+    public FileService discard() {
+        long start = System.nanoTime();
+        try {
+            if (path != null) {
+                Files.deleteIfExists(path);
+                release(metrics, path.getFileName().toString());
+            }
+            metrics.deleted(FileMetrics.DISCARD, start, true);
+        } catch (IOException e) {
+            log.warn(String.format("Ошибка при удалении файла: %s\n%s", path, e.toString()));
+            metrics.deleted(FileMetrics.DISCARD, start, false);
+        }
         return this;
     }
 
+    /**
+     * @return количество записанных байт
+     */
+    public long getSize() {
+        return written;
+    }
+
     /**
      * Возвращает уникальное имя файла
      *
@@ -79,14 +255,21 @@ public class FileService {
     /**
      * Удаляет файл
      *
+     * @param metrics  метрики файловых операций
      * @param pathFile
      * @return false - при удалении произошло исключение
      */
-    public static boolean delete(String pathFile) {
+    public static boolean delete(FileMetrics metrics, String pathFile) {
+        long start = System.nanoTime();
         try {
-            return Files.deleteIfExists(Paths.get(String.format("%s/%s", Const.PATH_FILE, pathFile)));
+            Path path = Paths.get(String.format("%s/%s", Const.PATH_FILE, pathFile));
+            boolean deleted = Files.deleteIfExists(path);
+            release(metrics, path.getFileName().toString());
+            metrics.deleted(FileMetrics.FILE, start, true);
+            return deleted;
         } catch (IOException e) {
             log.warn(String.format("Ошибка при удалении файла: %s\n%s", pathFile, e.toString()));
+            metrics.deleted(FileMetrics.FILE, start, false);
             return false;
         }
     }
@@ -94,22 +277,67 @@ public class FileService {
     /**
      * Удаляет папку с файлами
      *
-     * @param dir папка из которой удалить
-     * @param id  папка которую удалить
+     * @param metrics метрики файловых операций
+     * @param dir     папка из которой удалить
+     * @param id      папка которую удалить
      * @return false - при удалении файлов произошло исключение
      */
-    public static boolean delete(String dir, long id) {
+    public static boolean delete(FileMetrics metrics, String dir, long id) {
+        long start = System.nanoTime();
         Path path = Paths.get(String.format("%s%s/%d", Const.PATH_FILE, dir, id));
-        try {
-            Files.walk(path)
-                    .sorted(Comparator.reverseOrder())
-                    .map(Path::toFile)
-                    .forEach(File::delete);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(path)) {
+            files = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            files.forEach(file -> file.toFile().delete());
             log.info(String.format("Удалена папка с файлами: %s/%d", dir, id));
         } catch (IOException e) {
             log.warn(String.format("Ошибка при удалении папки с файлами: %s/%d\n%s", dir, id, e.toString()));
+            metrics.deleted(FileMetrics.FOLDER, start, false);
             return false;
         }
+        files.forEach(file -> release(metrics, file.getFileName().toString()));
+        metrics.deleted(FileMetrics.FOLDER, start, true);
         return true;
     }
+
+    /**
+     * Удаляет содержимое из хранилища, если на него больше нет ссылок
+     *
+     * @param metrics  метрики файловых операций
+     * @param filename имя удаленного файла
+     */
+    private static void release(FileMetrics metrics, String filename) {
+        Matcher matcher = DIGEST_PREFIX.matcher(filename);
+        if (!matcher.find()) return;
+        Path blob = blob(matcher.group(1));
+        try {
+            if (Files.exists(blob) && (Integer) Files.getAttribute(blob, "unix:nlink") <= 1) {
+                Files.deleteIfExists(blob);
+                metrics.released();
+                log.debug(String.format("Удалено содержимое без ссылок: %s", blob));
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn(String.format("Ошибка при удалении содержимого: %s\n%s", blob, e.toString()));
+        }
+    }
+
+    private static Path blob(String hex) {
+        return Paths.get(String.format("%s%s/%s/%s", Const.PATH_FILE, Const.BLOBS_DIR, hex.substring(0, 2), hex));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
 }
\ No newline at end of file
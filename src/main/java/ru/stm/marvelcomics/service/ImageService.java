@@ -0,0 +1,299 @@
+package ru.stm.marvelcomics.service;
+
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.config.Bulkhead;
+import ru.stm.marvelcomics.util.Const;
+
+import javax.annotation.PostConstruct;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * <h2>ImageService - уменьшенные копии изображений</h2>
+ * <p>
+ * Для обложек, портретов и страниц создаются JPEG-копии фиксированной ширины (comics.image.widths)
+ * и прогрессивная JPEG-копия в исходном размере (size=progressive).
+ * Копии хранятся рядом с оригиналом: {dir}/{id}/derivatives/{size}/{filename}.jpg</br>
+ * После загрузки файла копии создаются в фоновом пуле {@link Bulkhead#fromImage}.
+ * Если копии нет (не успела создаться или была вытеснена), она создается при первом запросе.</br>
+ * Общий размер копий ограничен comics.image.budget: при превышении удаляются копии,
+ * к которым дольше всего не обращались
+ */
+@Log4j
+@Service
+public class ImageService {
+    public static final String PROGRESSIVE = "progressive";
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private final Bulkhead bulkhead;
+    private final FileMetrics fileMetrics;
+    private final Set<String> sizes = new TreeSet<>();
+    private final long budget;
+
+    /**
+     * Копии в порядке обращения: первой идет копия, к которой дольше всего не обращались
+     */
+    private final LinkedHashMap<File, Long> derivatives = new LinkedHashMap<>(256, 0.75f, true);
+    private long total;
+
+    public ImageService(Bulkhead bulkhead,
+                        FileMetrics fileMetrics,
+                        @Value("${comics.image.widths}") int[] widths,
+                        @Value("${comics.image.budget}") DataSize budget) {
+        this.bulkhead = bulkhead;
+        this.fileMetrics = fileMetrics;
+        for (int width : widths) {
+            sizes.add(String.valueOf(width));
+        }
+        sizes.add(String.valueOf(Const.THUMBNAIL_WIDTH));
+        sizes.add(PROGRESSIVE);
+        this.budget = budget.toBytes();
+    }
+
+    /**
+     * Учитывает копии, созданные до запуска приложения.
+     * Просматриваются только папки {dir}/{id}/derivatives комиксов и персонажей, оригиналы и blobs не обходятся.
+     * Копии с более ранней датой изменения вытесняются первыми
+     */
+    @PostConstruct
+    void load() {
+        List<File> files = new ArrayList<>();
+        for (String dir : new String[]{Const.COMICS_DIR, Const.CHARACTER_DIR}) {
+            Path root = Paths.get(Const.PATH_FILE + dir);
+            if (!Files.isDirectory(root)) continue;
+            try (DirectoryStream<Path> folders = Files.newDirectoryStream(root)) {
+                for (Path folder : folders) {
+                    Path copies = folder.resolve(Const.DERIVATIVES_DIR);
+                    if (!Files.isDirectory(copies)) continue;
+                    try (Stream<Path> sized = Files.walk(copies, 2)) {
+                        sized.filter(path -> path.getNameCount() - copies.getNameCount() == 2)
+                                .map(Path::toFile)
+                                .filter(file -> file.isFile() && !file.getName().endsWith(".tmp"))
+                                .forEach(files::add);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn(String.format("Ошибка при чтении копий изображений в %s\n%s", root, e.toString()));
+            }
+        }
+        files.sort(Comparator.comparingLong(File::lastModified));
+        files.forEach(file -> added(file, file.length()));
+        log.info(String.format("Копии изображений: %d файлов, %d байт", derivatives.size(), total));
+    }
+
+    /**
+     * Возвращает копию изображения, при необходимости создает ее
+     *
+     * @param dir      папка в пути к файлу
+     * @param id       папка в пути к файлу
+     * @param filename имя файла оригинала
+     * @param size     ширина из comics.image.widths или "progressive"
+     * @return файл копии
+     * @throws org.springframework.http.HttpStatus.400 если size недопустим
+     * @throws org.springframework.http.HttpStatus.404 если нет оригинала
+     * @throws org.springframework.http.HttpStatus.415 если оригинал не является изображением
+     */
+    public Mono<File> derivative(String dir, long id, String filename, String size) {
+        if (!sizes.contains(size)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("Допустимые значения size: %s", sizes)));
+        }
+        File target = derivativeFile(dir, id, filename, size);
+        return bulkhead.fromFile(() -> target.isFile())
+                .flatMap(exists -> {
+                    if (exists) {
+                        touch(target);
+                        return Mono.just(target);
+                    }
+                    return bulkhead.fromImage(() -> generate(original(dir, id, filename), target, size));
+                });
+    }
+
+    /**
+     * Создает все копии только что загруженного изображения в фоновом пуле.
+     * Не задерживает ответ на запрос: если пул перегружен, копии будут созданы при первом запросе
+     *
+     * @param dir      папка в пути к файлу
+     * @param id       папка в пути к файлу
+     * @param filename имя файла оригинала
+     */
+    public void generateAll(String dir, long id, String filename) {
+        File original = original(dir, id, filename);
+        bulkhead.fromImage(() -> {
+            BufferedImage source = read(original);
+            for (String size : sizes) {
+                File target = derivativeFile(dir, id, filename, size);
+                if (!target.isFile()) render(source, target, size);
+            }
+            return sizes.size();
+        }).subscribe(count -> {
+        }, e -> log.debug(String.format("Копии для %s не созданы: %s", original, e.toString())));
+    }
+
+    /**
+     * Удаляет все копии изображения
+     *
+     * @param dir      папка в пути к файлу
+     * @param id       папка в пути к файлу
+     * @param filename имя файла оригинала
+     * @return количество удаленных копий
+     */
+    public int delete(String dir, long id, String filename) {
+        int deleted = 0;
+        for (String size : sizes) {
+            File file = derivativeFile(dir, id, filename, size);
+            if (file.delete()) deleted++;
+            removed(file);
+        }
+        return deleted;
+    }
+
+    /**
+     * Удаляет папку комикса или персонажа вместе с оригиналами и всеми копиями
+     * и исключает копии из учета comics.image.budget
+     *
+     * @param dir папка в пути к файлу
+     * @param id  папка в пути к файлу
+     * @return false, если папку не удалось удалить
+     * @see FileService#delete(FileMetrics, String, long)
+     */
+    public boolean deleteAll(String dir, long id) {
+        boolean deleted = FileService.delete(fileMetrics, dir, id);
+        removedAll(Paths.get(String.format("%s%s/%d/%s", Const.PATH_FILE, dir, id, Const.DERIVATIVES_DIR)));
+        return deleted;
+    }
+
+    private File generate(File original, File target, String size) throws IOException {
+        if (target.isFile()) {
+            touch(target);
+            return target;
+        }
+        return render(read(original), target, size);
+    }
+
+    private static BufferedImage read(File original) throws IOException {
+        if (!original.isFile()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        BufferedImage source = ImageIO.read(original);
+        if (source == null) {
+            throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE,
+                    String.format("%s не является изображением", original.getName()));
+        }
+        return source;
+    }
+
+    private File render(BufferedImage source, File target, String size) throws IOException {
+        int width = PROGRESSIVE.equals(size) ? source.getWidth() : Math.min(Integer.parseInt(size), source.getWidth());
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        Files.createDirectories(target.getParentFile().toPath());
+        File tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            writeJpeg(scaled, tmp, PROGRESSIVE.equals(size));
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        added(target, target.length());
+        return target;
+    }
+
+    private static void writeJpeg(BufferedImage image, File file, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(JPEG_QUALITY);
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private synchronized void touch(File file) {
+        derivatives.get(file);
+    }
+
+    private synchronized void added(File file, long size) {
+        Long old = derivatives.put(file, size);
+        total += size - (old == null ? 0 : old);
+        Iterator<Map.Entry<File, Long>> eldest = derivatives.entrySet().iterator();
+        while (total > budget && eldest.hasNext()) {
+            Map.Entry<File, Long> entry = eldest.next();
+            if (entry.getKey().equals(file)) continue;
+            if (!entry.getKey().delete() && entry.getKey().exists()) {
+                log.warn(String.format("Не удалось удалить копию изображения: %s", entry.getKey()));
+            }
+            total -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private synchronized void removed(File file) {
+        Long size = derivatives.remove(file);
+        if (size != null) total -= size;
+    }
+
+    private synchronized void removedAll(Path folder) {
+        Iterator<Map.Entry<File, Long>> entries = derivatives.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<File, Long> entry = entries.next();
+            if (entry.getKey().toPath().startsWith(folder)) {
+                total -= entry.getValue();
+                entries.remove();
+            }
+        }
+    }
+
+    private static File original(String dir, long id, String filename) {
+        return new File(String.format("%s%s/%d/%s", Const.PATH_FILE, dir, id, filename));
+    }
+
+    private static File derivativeFile(String dir, long id, String filename, String size) {
+        return new File(String.format("%s%s/%d/%s/%s/%s.jpg", Const.PATH_FILE, dir, id, Const.DERIVATIVES_DIR, size, filename));
+    }
+}
@@ -0,0 +1,333 @@
+package ru.stm.marvelcomics.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import ru.stm.marvelcomics.config.Bulkhead;
+import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.dto.ImportResult;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h2>ImportService - массовый импорт персонажей, комиксов и связей между ними</h2>
+ * <p>
+ * Каждая строка запроса - отдельный json-объект с полем "type":</br>
+ * {"type":"character","ref":"...","name":"...","createDate":"d-MM-yyyy","description":"...","biography":"..."}</br>
+ * {"type":"comics","ref":"...","title":"...","release":"d-MM-yyyy"}</br>
+ * {"type":"link","character":id или "ref","comics":id или "ref"}</br>
+ * Поле "ref" не обязательно: по нему на запись можно сослаться в связи в том же импорте.</br>
+ * Строки сохраняются пачками по comics.import.batch-size, каждая пачка - одна транзакция
+ * из нескольких batch insert. Следующая пачка читается из запроса только после сохранения предыдущей,
+ * поэтому клиент не может прислать больше, чем успевает записать база.</br>
+ * Id выделяются из последовательностей блоками по {@value #ID_BLOCK}, как это делает Hibernate.</br>
+ * Для каждой строки выдается результат {@link ImportResult}. Ошибка в строке не прерывает импорт,
+ * ошибка сохранения пачки отмечается во всех ее строках
+ */
+@Log4j
+@Service
+public class ImportService {
+    private static final int ID_BLOCK = 50;
+    private static final String CHARACTER = "character";
+    private static final String COMICS = "comics";
+    private static final String LINK = "link";
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final TransactionTemplate transaction;
+    private final Bulkhead bulkhead;
+    private final EntityCache cache;
+    private final SearchService search;
+    private final int batchSize;
+    private final ObjectMapper jsonParser = new ObjectMapper();
+
+    public ImportService(JdbcTemplate jdbc,
+                         TransactionTemplate transaction,
+                         Bulkhead bulkhead,
+                         EntityCache cache,
+                         SearchService search,
+                         @Value("${comics.import.batch-size}") int batchSize) {
+        this.jdbc = jdbc;
+        this.namedJdbc = new NamedParameterJdbcTemplate(jdbc);
+        this.transaction = transaction;
+        this.bulkhead = bulkhead;
+        this.cache = cache;
+        this.search = search;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Импортирует строки запроса
+     *
+     * @param lines строки ndjson
+     * @return результаты в порядке строк
+     */
+    public Flux<ImportResult> importAll(Flux<String> lines) {
+        Refs refs = new Refs();
+        AtomicLong created = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        long start = System.currentTimeMillis();
+        return lines.index()
+                .filter(line -> !line.getT2().trim().isEmpty())
+                .map(line -> parse(line.getT1() + 1, line.getT2()))
+                .buffer(batchSize)
+                .concatMap(batch -> bulkhead.fromDb(() -> save(batch, refs))
+                        .flatMapIterable(results -> results), 1)
+                .doOnNext(result -> {
+                    if (ImportResult.ERROR.equals(result.getStatus())) failed.incrementAndGet();
+                    else created.incrementAndGet();
+                })
+                .doFinally(signal -> log.info(String.format("Импорт (%s) за %d мс: сохранено %d, ошибок %d",
+                        signal, System.currentTimeMillis() - start, created.get(), failed.get())));
+    }
+
+    private Record parse(long line, String text) {
+        Record record = new Record(line);
+        try {
+            JsonNode json = jsonParser.readTree(text);
+            if (!json.isObject()) return record.fail("Строка должна быть json-объектом");
+            ObjectNode node = (ObjectNode) json;
+            record.type = node.path("type").asText(null);
+            record.ref = node.hasNonNull("ref") ? node.get("ref").asText() : null;
+            node.remove("type");
+            node.remove("ref");
+            if (CHARACTER.equals(record.type)) {
+                record.character = jsonParser.treeToValue(node, Char.class);
+                if (record.character.getName() == null || record.character.getName().trim().isEmpty()) {
+                    return record.fail("Не заполнено обязательное поле name");
+                }
+            } else if (COMICS.equals(record.type)) {
+                record.comics = jsonParser.treeToValue(node, Comics.class);
+                if (record.comics.getTitle() == null || record.comics.getTitle().trim().isEmpty()) {
+                    return record.fail("Не заполнено обязательное поле title");
+                }
+            } else if (LINK.equals(record.type)) {
+                record.characterKey = node.get(CHARACTER);
+                record.comicsKey = node.get(COMICS);
+                if (record.characterKey == null || record.comicsKey == null) {
+                    return record.fail("Связь должна содержать поля character и comics");
+                }
+            } else {
+                return record.fail("Поле type должно быть character, comics или link");
+            }
+        } catch (JsonProcessingException e) {
+            return record.fail(String.format("Некорректный json: %s", e.getOriginalMessage()));
+        }
+        return record;
+    }
+
+    private List<ImportResult> save(List<Record> batch, Refs refs) {
+        Refs added = new Refs();
+        try {
+            transaction.execute(status -> {
+                write(batch, refs, added);
+                return null;
+            });
+        } catch (DataAccessException | TransactionException e) {
+            List<ImportResult> results = new ArrayList<>(batch.size());
+            for (Record record : batch) {
+                results.add(ImportResult.error(record.line, record.type, record.ref, record.error != null
+                        ? record.error
+                        : String.format("Пачка не сохранена: %s", e.getMostSpecificCause().getMessage())));
+            }
+            return results;
+        }
+        refs.characters.putAll(added.characters);
+        refs.comics.putAll(added.comics);
+
+        List<ImportResult> results = new ArrayList<>(batch.size());
+        for (Record record : batch) {
+            if (record.error != null) {
+                results.add(ImportResult.error(record.line, record.type, record.ref, record.error));
+            } else if (record.character != null) {
+                search.indexCharacter(record.character);
+                results.add(ImportResult.created(record.line, record.type, record.ref, record.character.getId()));
+            } else if (record.comics != null) {
+                search.indexComics(record.comics);
+                results.add(ImportResult.created(record.line, record.type, record.ref, record.comics.getId()));
+            } else {
+                results.add(ImportResult.linked(record.line));
+            }
+        }
+        cache.evictLists();
+        return results;
+    }
+
+    private void write(List<Record> batch, Refs refs, Refs added) {
+        List<Record> characters = new ArrayList<>();
+        List<Record> comics = new ArrayList<>();
+        List<Record> links = new ArrayList<>();
+        for (Record record : batch) {
+            if (record.error != null) continue;
+            if (record.character != null) characters.add(record);
+            else if (record.comics != null) comics.add(record);
+            else links.add(record);
+        }
+
+        long[] characterIds = reserve("char_id_seq", characters.size());
+        for (int i = 0; i < characters.size(); i++) {
+            Record record = characters.get(i);
+            record.character.setId(characterIds[i]);
+            if (record.ref != null) added.characters.put(record.ref, characterIds[i]);
+        }
+        jdbc.batchUpdate("insert into characters (id, name, create_date, portrait, description, biography) " +
+                "values (?, ?, ?, ?, ?, ?)", characters, characters.size(), (ps, record) -> {
+            Char character = record.character;
+            ps.setLong(1, character.getId());
+            ps.setString(2, character.getName());
+            ps.setDate(3, character.getCreateDate() == null ? null : new Date(character.getCreateDate().getTime()));
+            ps.setString(4, character.getPortraitFilename());
+            ps.setString(5, character.getDescription());
+            ps.setString(6, character.getBiography());
+        });
+
+        long[] comicsIds = reserve("com_id_seq", comics.size());
+        for (int i = 0; i < comics.size(); i++) {
+            Record record = comics.get(i);
+            record.comics.setId(comicsIds[i]);
+            if (record.ref != null) added.comics.put(record.ref, comicsIds[i]);
+        }
+        jdbc.batchUpdate("insert into comics (id, title, release, cover) values (?, ?, ?, ?)",
+                comics, comics.size(), (ps, record) -> {
+                    Comics item = record.comics;
+                    ps.setLong(1, item.getId());
+                    ps.setString(2, item.getTitle());
+                    ps.setDate(3, item.getRelease() == null ? null : new Date(item.getRelease().getTime()));
+                    ps.setString(4, item.getCoverFilename());
+                });
+
+        List<long[]> pairs = resolve(links, refs, added);
+        jdbc.batchUpdate("insert into comics_has_character (comics_id, character_id) select ?, ? " +
+                "where not exists (select 1 from comics_has_character l where l.comics_id = ? and l.character_id = ?)",
+                pairs, pairs.size(), (ps, pair) -> {
+                    ps.setLong(1, pair[1]);
+                    ps.setLong(2, pair[0]);
+                    ps.setLong(3, pair[1]);
+                    ps.setLong(4, pair[0]);
+                });
+    }
+
+    /**
+     * Находит id персонажей и комиксов для связей. Связи с несуществующими записями отмечаются ошибкой
+     *
+     * @return пары {id персонажа, id комикса}
+     */
+    private List<long[]> resolve(List<Record> links, Refs refs, Refs added) {
+        if (links.isEmpty()) return Collections.emptyList();
+        Map<Record, long[]> resolved = new HashMap<>();
+        Set<Long> characterIds = new HashSet<>();
+        Set<Long> comicsIds = new HashSet<>();
+        for (Record record : links) {
+            Long characterId = id(record.characterKey, refs.characters, added.characters);
+            Long comicsId = id(record.comicsKey, refs.comics, added.comics);
+            if (characterId == null || comicsId == null) {
+                record.fail(String.format("Не найден %s: %s", characterId == null ? CHARACTER : COMICS,
+                        characterId == null ? record.characterKey : record.comicsKey));
+                continue;
+            }
+            resolved.put(record, new long[]{characterId, comicsId});
+            characterIds.add(characterId);
+            comicsIds.add(comicsId);
+        }
+        Set<Long> existingCharacters = existing("characters", characterIds, added.characters.values());
+        Set<Long> existingComics = existing("comics", comicsIds, added.comics.values());
+        List<long[]> pairs = new ArrayList<>(resolved.size());
+        for (Record record : links) {
+            long[] pair = resolved.get(record);
+            if (pair == null) continue;
+            if (!existingCharacters.contains(pair[0])) {
+                record.fail(String.format("Не найден character: %d", pair[0]));
+            } else if (!existingComics.contains(pair[1])) {
+                record.fail(String.format("Не найден comics: %d", pair[1]));
+            } else {
+                pairs.add(pair);
+            }
+        }
+        return pairs;
+    }
+
+    private Set<Long> existing(String table, Set<Long> ids, Iterable<Long> added) {
+        Set<Long> existing = new HashSet<>();
+        added.forEach(existing::add);
+        Set<Long> unknown = new HashSet<>(ids);
+        unknown.removeAll(existing);
+        if (!unknown.isEmpty()) {
+            existing.addAll(namedJdbc.queryForList(String.format("select id from %s where id in (:ids)", table),
+                    Collections.singletonMap("ids", unknown), Long.class));
+        }
+        return existing;
+    }
+
+    private static Long id(JsonNode key, Map<String, Long> refs, Map<String, Long> added) {
+        if (key.canConvertToLong()) return key.asLong();
+        if (!key.isTextual()) return null;
+        Long id = added.get(key.asText());
+        return id != null ? id : refs.get(key.asText());
+    }
+
+    /**
+     * Выделяет id из последовательности блоками, как оптимизатор pooled в Hibernate:
+     * значение последовательности v закрепляет за вызывающим id от v - {@value #ID_BLOCK} + 1 до v
+     */
+    private long[] reserve(String sequence, int count) {
+        long[] ids = new long[count];
+        int i = 0;
+        while (i < count) {
+            List<Long> blocks = jdbc.queryForList(String.format("select nextval('%s') from generate_series(1, ?)", sequence),
+                    Long.class, (count - i + ID_BLOCK - 1) / ID_BLOCK);
+            for (long hi : blocks) {
+                for (long id = Math.max(1, hi - ID_BLOCK + 1); id <= hi && i < count; id++) {
+                    ids[i++] = id;
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static final class Record {
+        private final long line;
+        private String type;
+        private String ref;
+        private Char character;
+        private Comics comics;
+        private JsonNode characterKey;
+        private JsonNode comicsKey;
+        private String error;
+
+        private Record(long line) {
+            this.line = line;
+        }
+
+        private Record fail(String error) {
+            this.error = error;
+            return this;
+        }
+    }
+
+    /**
+     * Id записей по ссылкам "ref" из строк импорта
+     */
+    private static final class Refs {
+        private final Map<String, Long> characters = new HashMap<>();
+        private final Map<String, Long> comics = new HashMap<>();
+    }
+}
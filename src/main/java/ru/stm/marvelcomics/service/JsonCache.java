@@ -0,0 +1,133 @@
+package ru.stm.marvelcomics.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.util.Const;
+
+import java.util.function.Supplier;
+
+/**
+ * <h2>JsonCache - кэш готовых json-ответов</h2>
+ * <p>
+ * Хранит сериализованные ответы для просмотра комикса и персонажа и для первых страниц списков.
+ * Ответ из кэша пишется в ответ Netty как есть, без повторной сериализации Jackson.</br>
+ * Ключ содержит версию из {@link EntityCache}: после изменения комикса или персонажа
+ * формируется новый ключ, а старый ответ вытесняется по размеру.</br>
+ * Общий размер ответов ограничен comics.json-cache.size,
+ * статистика публикуется в метриках cache.* с тегом cache=json
+ */
+@Component
+public class JsonCache {
+    private final ObjectMapper mapper;
+    private final EntityCache entities;
+    private final Cache<String, Entry> cache;
+
+    public JsonCache(ObjectMapper mapper,
+                     EntityCache entities,
+                     MeterRegistry registry,
+                     @Value("${comics.json-cache.size}") DataSize size) {
+        this.mapper = mapper;
+        this.entities = entities;
+        this.cache = CaffeineCacheMetrics.monitor(registry, Caffeine.newBuilder()
+                .maximumWeight(size.toBytes())
+                .<String, Entry>weigher((key, entry) -> entry.body.length)
+                .recordStats()
+                .build(), "json");
+    }
+
+    /**
+     * @param id id комикса
+     * @return ключ ответа с полной информацией о комиксе
+     */
+    public String comicsKey(long id) {
+        return String.format("comics/%d#%d", id, entities.comicsVersion(id));
+    }
+
+    /**
+     * @param id id персонажа
+     * @return ключ ответа с полной информацией о персонаже
+     */
+    public String characterKey(long id) {
+        return String.format("character/%d#%d", id, entities.characterVersion(id));
+    }
+
+    /**
+     * @param sort  сортировка
+     * @param limit размер страницы
+     * @return ключ первой страницы списка комиксов
+     */
+    public String comicsListKey(String sort, int limit) {
+        return String.format("comics?sort=%s&limit=%d#%d", sort, limit, entities.comicsListVersion());
+    }
+
+    /**
+     * @param limit размер страницы
+     * @return ключ первой страницы списка персонажей
+     */
+    public String characterListKey(int limit) {
+        return String.format("character?limit=%d#%d", limit, entities.characterListVersion());
+    }
+
+    /**
+     * Пишет в ответ json из кэша или формирует его
+     *
+     * @param response ответ
+     * @param key      ключ ответа, null - ответ не кэшируется
+     * @param loader   формирование ответа, если его нет в кэше
+     * @return void
+     */
+    public Mono<Void> write(ServerHttpResponse response, String key, Supplier<Mono<Entry>> loader) {
+        Entry cached = key == null ? null : cache.getIfPresent(key);
+        Mono<Entry> entry = cached != null
+                ? Mono.just(cached)
+                : loader.get().doOnNext(loaded -> {
+            if (key != null) cache.put(key, loaded);
+        });
+        return entry.flatMap(e -> {
+            response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            response.getHeaders().setContentLength(e.body.length);
+            if (e.nextCursor != null) {
+                response.getHeaders().set(Const.NEXT_CURSOR_HEADER, e.nextCursor);
+            }
+            return response.writeWith(Mono.just(response.bufferFactory().wrap(e.body)));
+        });
+    }
+
+    /**
+     * Сериализует ответ
+     *
+     * @param body       объект ответа
+     * @param nextCursor значение заголовка {@value Const#NEXT_CURSOR_HEADER} или null
+     * @return ответ для {@link #write(ServerHttpResponse, String, Supplier)}
+     */
+    public Entry entry(Object body, String nextCursor) {
+        try {
+            return new Entry(mapper.writeValueAsBytes(body), nextCursor);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Ошибка сериализации ответа", e);
+        }
+    }
+
+    /**
+     * Сериализованный ответ и курсор на следующую страницу
+     */
+    public static final class Entry {
+        private final byte[] body;
+        private final String nextCursor;
+
+        private Entry(byte[] body, String nextCursor) {
+            this.body = body;
+            this.nextCursor = nextCursor;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ru.stm.marvelcomics.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import ru.stm.marvelcomics.config.Bulkhead;
+import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.dto.CharacterDTO;
+import ru.stm.marvelcomics.domain.dto.ComicsDTO;
+import ru.stm.marvelcomics.repository.CharacterRepository;
+import ru.stm.marvelcomics.repository.ComicsRepository;
+import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.PrefixIndex;
+import ru.stm.marvelcomics.util.SearchIndex;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <h2>SearchService - полнотекстовый поиск и автодополнение персонажей и комиксов</h2>
+ * <p>
+ * Поиск выполняется по индексам {@link SearchIndex} в памяти приложения и не обращается к базе.
+ * Персонажи ищутся по имени, описанию и биографии (совпадение в имени весит больше),
+ * комиксы - по названию.</br>
+ * Индексы строятся из репозиториев после запуска приложения, до завершения построения
+ * поиск находит только уже проиндексированные записи.
+ * Записи, удаленные во время построения, запоминаются и не попадают в индекс из прочитанной ранее пачки.
+ * Сервисы обновляют индексы после добавления, изменения и удаления персонажа или комикса.</br>
+ * Автодополнение по началу имени персонажа или названия комикса выполняется по {@link PrefixIndex}.
+ * Подсказки упорядочены по популярности - числу просмотров с момента запуска приложения.
+ * Просмотры накапливаются и переносятся в индекс раз в {@link Const#POPULARITY_FLUSH}
+ */
+@Log4j
+@RequiredArgsConstructor
+@Service
+public class SearchService implements DisposableBean {
+    private static final int LOAD_PAGE = 500;
+    private static final float NAME_BOOST = 3f;
+
+    private final CharacterRepository characterRepo;
+    private final ComicsRepository comicsRepo;
+    private final Bulkhead bulkhead;
+    private final SearchIndex<CharacterDTO> characters = new SearchIndex<>(NAME_BOOST, 1f, 1f);
+    private final SearchIndex<ComicsDTO> comics = new SearchIndex<>(1f);
+    private final PrefixIndex<CharacterDTO> characterNames = new PrefixIndex<>(Const.SUGGEST_LIMIT);
+    private final PrefixIndex<ComicsDTO> comicsTitles = new PrefixIndex<>(Const.SUGGEST_LIMIT);
+    private final AtomicReference<Map<Long, Long>> characterViews = new AtomicReference<>(new ConcurrentHashMap<>());
+    private final AtomicReference<Map<Long, Long>> comicsViews = new AtomicReference<>(new ConcurrentHashMap<>());
+    private final Set<Long> removedCharacters = ConcurrentHashMap.newKeySet();
+    private final Set<Long> removedComics = ConcurrentHashMap.newKeySet();
+    private volatile boolean loading;
+    private Disposable popularity;
+
+    /**
+     * Строит индексы в пуле базы данных, не задерживая запуск приложения,
+     * и запускает перенос просмотров в популярность подсказок
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        popularity = Flux.interval(Const.POPULARITY_FLUSH)
+                .subscribe(tick -> {
+                    characterNames.addWeights(characterViews.getAndSet(new ConcurrentHashMap<>()));
+                    comicsTitles.addWeights(comicsViews.getAndSet(new ConcurrentHashMap<>()));
+                });
+        loading = true;
+        bulkhead.runOnDb(() -> {
+            long start = System.currentTimeMillis();
+            List<Char> characterBatch;
+            long lastId = 0;
+            do {
+                characterBatch = characterRepo.findAfterId(lastId, LOAD_PAGE);
+                for (Char character : characterBatch) {
+                    synchronized (characters) {
+                        if (!characters.contains(character.getId())
+                                && !removedCharacters.contains(character.getId())) indexCharacter(character);
+                    }
+                    lastId = character.getId();
+                }
+            } while (characterBatch.size() == LOAD_PAGE);
+            List<Comics> comicsBatch;
+            lastId = 0;
+            do {
+                comicsBatch = comicsRepo.findAfterId(lastId, LOAD_PAGE);
+                for (Comics item : comicsBatch) {
+                    synchronized (comics) {
+                        if (!comics.contains(item.getId()) && !removedComics.contains(item.getId())) indexComics(item);
+                    }
+                    lastId = item.getId();
+                }
+            } while (comicsBatch.size() == LOAD_PAGE);
+            log.info(String.format("Поисковые индексы построены за %d мс: %d персонажей, %d комиксов",
+                    System.currentTimeMillis() - start, characters.size(), comics.size()));
+        }).doFinally(signal -> {
+            loading = false;
+            removedCharacters.clear();
+            removedComics.clear();
+        }).subscribe(done -> {
+        }, e -> log.warn(String.format("Ошибка при построении поисковых индексов\n%s", e.toString())));
+    }
+
+    /**
+     * @param query текст запроса
+     * @param limit максимальное количество результатов
+     * @return краткие содержания {@link CharacterDTO#preview(Char)} в порядке убывания релевантности
+     */
+    public List<CharacterDTO> searchCharacters(String query, int limit) {
+        return characters.search(query, limit);
+    }
+
+    /**
+     * @param query текст запроса
+     * @param limit максимальное количество результатов
+     * @return краткие содержания {@link ComicsDTO#preview(Comics)} в порядке убывания релевантности
+     */
+    public List<ComicsDTO> searchComics(String query, int limit) {
+        return comics.search(query, limit);
+    }
+
+    /**
+     * @param prefix начало имени персонажа
+     * @param limit  максимальное количество результатов, не больше {@value Const#SUGGEST_LIMIT}
+     * @return краткие содержания {@link CharacterDTO#preview(Char)} в порядке убывания популярности
+     */
+    public List<CharacterDTO> suggestCharacters(String prefix, int limit) {
+        return characterNames.suggest(prefix, limit);
+    }
+
+    /**
+     * @param prefix начало названия комикса
+     * @param limit  максимальное количество результатов, не больше {@value Const#SUGGEST_LIMIT}
+     * @return краткие содержания {@link ComicsDTO#preview(Comics)} в порядке убывания популярности
+     */
+    public List<ComicsDTO> suggestComics(String prefix, int limit) {
+        return comicsTitles.suggest(prefix, limit);
+    }
+
+    /**
+     * Учитывает просмотр персонажа в популярности
+     *
+     * @param id id персонажа
+     */
+    public void viewedCharacter(long id) {
+        characterViews.get().merge(id, 1L, Long::sum);
+    }
+
+    /**
+     * Учитывает просмотр комикса или его страницы в популярности
+     *
+     * @param id id комикса
+     */
+    public void viewedComics(long id) {
+        comicsViews.get().merge(id, 1L, Long::sum);
+    }
+
+    /**
+     * Добавляет персонажа в индекс или обновляет его
+     *
+     * @param character персонаж
+     */
+    public void indexCharacter(Char character) {
+        CharacterDTO preview = CharacterDTO.preview(character);
+        synchronized (characters) {
+            characters.put(character.getId(), preview,
+                    character.getName(), character.getDescription(), character.getBiography());
+            characterNames.put(character.getId(), preview, character.getName());
+        }
+    }
+
+    /**
+     * @param id id удаленного персонажа
+     */
+    public void removeCharacter(long id) {
+        synchronized (characters) {
+            if (loading) removedCharacters.add(id);
+            characters.remove(id);
+            characterNames.remove(id);
+        }
+    }
+
+    /**
+     * Добавляет комикс в индекс или обновляет его
+     *
+     * @param item комикс
+     */
+    public void indexComics(Comics item) {
+        ComicsDTO preview = ComicsDTO.preview(item);
+        synchronized (comics) {
+            comics.put(item.getId(), preview, item.getTitle());
+            comicsTitles.put(item.getId(), preview, item.getTitle());
+        }
+    }
+
+    /**
+     * @param id id удаленного комикса
+     */
+    public void removeComics(long id) {
+        synchronized (comics) {
+            if (loading) removedComics.add(id);
+            comics.remove(id);
+            comicsTitles.remove(id);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (popularity != null) popularity.dispose();
+    }
+}
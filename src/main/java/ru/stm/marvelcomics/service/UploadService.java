@@ -0,0 +1,240 @@
+package ru.stm.marvelcomics.service;
+
+import lombok.extern.log4j.Log4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.config.Bulkhead;
+import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.DataBufferInputStream;
+import ru.stm.marvelcomics.util.NaturalOrder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * <h2>UploadService - загрузка файлов из multipart-запроса на диск</h2>
+ * <p>
+ * Файл из multipart-части копируется в хранилище частями, целиком в памяти не хранится,
+ * и сбрасывается на диск (fsync) до того, как загрузка считается завершенной.</br>
+ * Multipart разбирается Spring до этого сервиса: каждая часть сначала целиком пишется во временный файл,
+ * и скорость клиента от записи в хранилище не зависит. Объем временных файлов ограничен
+ * comics.upload.max-parts и comics.upload.max-part-size ({@link ru.stm.marvelcomics.config.MultipartConfig}),
+ * превышение дает ответ 413.</br>
+ * В хранилище одновременно копируется не больше comics.upload.concurrency файлов запроса.
+ * Перед копированием каждого файла проверяется свободное место в хранилище: если осталось меньше
+ * comics.upload.min-free-space, загрузка отклоняется ответом 507. Эта проверка защищает хранилище,
+ * но не временную папку.</br>
+ * Архив CBZ/ZIP принимается телом запроса, а не multipart-частью, и распаковывается потоково:
+ * тело читается по мере распаковки, элементы пишутся в хранилище по мере чтения, сам архив на диск не пишется.
+ * Распакованный размер элемента ограничен comics.upload.archive.max-entry-size, всего архива -
+ * comics.upload.archive.max-size (ответ 413), свободное место проверяется и во время записи элемента.</br>
+ * После записи файла в фоне создаются его уменьшенные копии ({@link ImageService})
+ */
+@Log4j
+@Service
+public class UploadService {
+    private static final int ARCHIVE_PREFETCH = 4;
+    private static final Set<String> IMAGE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "bmp"));
+
+    private final Bulkhead bulkhead;
+    private final ImageService images;
+    private final FileMetrics fileMetrics;
+    private final int concurrency;
+    private final long minFreeSpace;
+    private final long maxEntrySize;
+    private final long maxArchiveSize;
+
+    public UploadService(Bulkhead bulkhead,
+                         ImageService images,
+                         FileMetrics fileMetrics,
+                         @Value("${comics.upload.concurrency}") int concurrency,
+                         @Value("${comics.upload.min-free-space}") DataSize minFreeSpace,
+                         @Value("${comics.upload.archive.max-entry-size}") DataSize maxEntrySize,
+                         @Value("${comics.upload.archive.max-size}") DataSize maxArchiveSize) {
+        this.bulkhead = bulkhead;
+        this.images = images;
+        this.fileMetrics = fileMetrics;
+        this.concurrency = concurrency;
+        this.minFreeSpace = minFreeSpace.toBytes();
+        this.maxEntrySize = maxEntrySize.toBytes();
+        this.maxArchiveSize = maxArchiveSize.toBytes();
+    }
+
+    /**
+     * Загружает один файл
+     *
+     * @param dir  папка в пути к файлу
+     * @param id   папка в пути к файлу
+     * @param file файл из запроса
+     * @return уникальное имя записанного файла
+     * @throws org.springframework.http.HttpStatus.413 если часть больше comics.upload.max-part-size
+     * @throws org.springframework.http.HttpStatus.507 если на диске недостаточно места
+     */
+    public Mono<String> upload(String dir, long id, FilePart file) {
+        return bulkhead.fromFile(() -> {
+            checkFreeSpace();
+            return FileService.upload(fileMetrics).createPath(dir, id, file.filename());
+        })
+                .flatMap(target -> target.write(file)
+                        .flatMap(filename -> bulkhead.fromFile(() -> target.force().store().getFilename()))
+                        .onErrorResume(e -> bulkhead.fromFile(target::discard).then(Mono.error(e)))
+                        .doOnCancel(target::discard))
+                .doOnNext(filename -> images.generateAll(dir, id, filename))
+                .onErrorMap(UploadService::isTooLarge, UploadService::tooLarge);
+    }
+
+    /**
+     * Копирует несколько файлов в хранилище, не больше comics.upload.concurrency одновременно.
+     * Если загрузка одного из файлов не удалась, уже записанные файлы удаляются
+     *
+     * @param dir   папка в пути к файлу
+     * @param id    папка в пути к файлу
+     * @param files файлы из запроса
+     * @return имена записанных файлов в порядке следования файлов в запросе
+     * @throws org.springframework.http.HttpStatus.413 если частей больше comics.upload.max-parts
+     *                                                 или часть больше comics.upload.max-part-size
+     * @throws org.springframework.http.HttpStatus.507 если на диске недостаточно места
+     */
+    public Mono<List<String>> uploadAll(String dir, long id, Flux<FilePart> files) {
+        Queue<String> written = new ConcurrentLinkedQueue<>();
+        return files
+                .flatMapSequential(file -> upload(dir, id, file).doOnNext(written::add), concurrency, 1)
+                .collectList()
+                .onErrorMap(UploadService::isTooLarge, UploadService::tooLarge)
+                .onErrorResume(e -> discard(dir, id, new ArrayList<>(written)).then(Mono.error(e)));
+    }
+
+    /**
+     * Распаковывает архив CBZ/ZIP из тела запроса, не сохраняя сам архив на диск.
+     * Тело читается через {@link DataBufferInputStream} не больше {@value #ARCHIVE_PREFETCH} частей наперед,
+     * поэтому клиент передает архив не быстрее, чем он распаковывается. Каждый элемент-изображение сразу пишется
+     * в хранилище, как отдельно загруженный файл. Папки, скрытые файлы и файлы других типов пропускаются.
+     * Размеры из заголовков архива не учитываются: считаются распакованные байты, и запись прерывается
+     * на превышении размера элемента или архива, поэтому сильно сжатый архив не заполнит хранилище.
+     * Если распаковка не удалась, уже записанные файлы удаляются
+     *
+     * @param dir     папка в пути к файлу
+     * @param id      папка в пути к файлу
+     * @param archive тело запроса
+     * @return имена записанных файлов в естественном порядке имен элементов архива ({@link NaturalOrder})
+     * @throws org.springframework.http.HttpStatus.400 если архив поврежден или содержит больше {@value Const#MAX_ARCHIVE_PAGES} изображений
+     * @throws org.springframework.http.HttpStatus.413 если распакованный элемент или весь архив больше допустимого
+     * @throws org.springframework.http.HttpStatus.507 если на диске недостаточно места
+     */
+    public Mono<List<String>> unpack(String dir, long id, Flux<DataBuffer> archive) {
+        List<String[]> written = new ArrayList<>();
+        return bulkhead.fromFile(() -> {
+            long unpacked = 0;
+            try (ZipInputStream zip = new ZipInputStream(new DataBufferInputStream(archive, ARCHIVE_PREFETCH))) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    String name = entry.getName().replace('\\', '/');
+                    String filename = name.substring(name.lastIndexOf('/') + 1);
+                    if (entry.isDirectory() || !isImage(name, filename)) continue;
+                    if (written.size() == Const.MAX_ARCHIVE_PAGES) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                                String.format("Архив содержит больше %d изображений", Const.MAX_ARCHIVE_PAGES));
+                    }
+                    if (unpacked >= maxArchiveSize) throw archiveTooLarge();
+                    checkFreeSpace();
+                    FileService target = FileService.upload(fileMetrics).createPath(dir, id, filename);
+                    long limit = Math.min(maxEntrySize, maxArchiveSize - unpacked);
+                    try {
+                        unpacked += target.write(zip, limit, this::checkFreeSpace).getSize();
+                        written.add(new String[]{name, target.force().store().getFilename()});
+                    } catch (ResponseStatusException e) {
+                        target.discard();
+                        throw limit < maxEntrySize && e.getStatus() == HttpStatus.PAYLOAD_TOO_LARGE ? archiveTooLarge() : e;
+                    } catch (IOException | RuntimeException e) {
+                        target.discard();
+                        throw e;
+                    }
+                }
+            } catch (ZipException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        String.format("Архив поврежден: %s", e.getMessage()), e);
+            }
+            written.sort((a, b) -> NaturalOrder.compare(a[0], b[0]));
+            List<String> filenames = new ArrayList<>(written.size());
+            written.forEach(file -> filenames.add(file[1]));
+            log.info(String.format("Распакован архив: %d изображений в %s/%d", filenames.size(), dir, id));
+            return filenames;
+        })
+                .doOnNext(filenames -> filenames.forEach(filename -> images.generateAll(dir, id, filename)))
+                .onErrorResume(e -> {
+                    List<String> filenames = new ArrayList<>(written.size());
+                    written.forEach(file -> filenames.add(file[1]));
+                    return discard(dir, id, filenames).then(Mono.error(e));
+                });
+    }
+
+    /**
+     * Удаляет загруженные файлы, например, если их не удалось сохранить в базе
+     *
+     * @param dir       папка в пути к файлу
+     * @param id        папка в пути к файлу
+     * @param filenames имена файлов
+     * @return void
+     */
+    public Mono<Void> discard(String dir, long id, List<String> filenames) {
+        if (filenames.isEmpty()) return Mono.empty();
+        return bulkhead.fromFile(() -> {
+            filenames.forEach(filename -> {
+                images.delete(dir, id, filename);
+                FileService.delete(fileMetrics, String.format("%s/%d/%s", dir, id, filename));
+            });
+            log.info(String.format("Удалено %d файлов незавершенной загрузки: %s/%d", filenames.size(), dir, id));
+            return filenames.size();
+        }).then();
+    }
+
+    private static boolean isImage(String name, String filename) {
+        if (filename.isEmpty() || filename.startsWith(".") || name.startsWith("__MACOSX/")) return false;
+        String extension = filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
+        return IMAGE_EXTENSIONS.contains(extension);
+    }
+
+    /**
+     * Разбор multipart сообщает о превышении ограничений {@link DataBufferLimitException}, иногда как причину
+     */
+    private static boolean isTooLarge(Throwable e) {
+        return e instanceof DataBufferLimitException || e.getCause() instanceof DataBufferLimitException;
+    }
+
+    private static Throwable tooLarge(Throwable e) {
+        return new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage(), e);
+    }
+
+    private ResponseStatusException archiveTooLarge() {
+        return new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                String.format("Распакованный архив больше %d байт", maxArchiveSize));
+    }
+
+    private void checkFreeSpace() {
+        File root = new File(Const.PATH_FILE);
+        if (root.exists() && root.getUsableSpace() < minFreeSpace) {
+            log.warn(String.format("Недостаточно места на диске: свободно %d байт", root.getUsableSpace()));
+            throw new ResponseStatusException(HttpStatus.INSUFFICIENT_STORAGE,
+                    "Недостаточно места для загрузки файлов, повторите запрос позже");
+        }
+    }
+}
@@ -1,129 +1,239 @@
 package ru.stm.marvelcomics.service.impl;
 
-import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Sort;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.config.Bulkhead;
 import ru.stm.marvelcomics.domain.Char;
-import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.dto.BatchDTO;
 import ru.stm.marvelcomics.domain.dto.CharacterDTO;
 import ru.stm.marvelcomics.domain.dto.ComicsDTO;
+import ru.stm.marvelcomics.domain.projection.CharacterPreview;
+import ru.stm.marvelcomics.domain.projection.ComicsPreview;
 import ru.stm.marvelcomics.repository.CharacterRepository;
+import ru.stm.marvelcomics.repository.ComicsRepository;
 import ru.stm.marvelcomics.service.CharacterService;
+import ru.stm.marvelcomics.service.EntityCache;
+import ru.stm.marvelcomics.service.FileMetrics;
 import ru.stm.marvelcomics.service.FileService;
+import ru.stm.marvelcomics.service.ImageService;
+import ru.stm.marvelcomics.service.SearchService;
+import ru.stm.marvelcomics.service.UploadService;
+import ru.stm.marvelcomics.util.BatchLoader;
 import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.Cursor;
+import ru.stm.marvelcomics.util.SingleFlight;
 
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <h2>Сервис для работы с репозиторием персонажей </h2>
+ * <p>
+ * Обращения к репозиториям и к диску выполняются в пулах {@link Bulkhead}, а не в потоках event loop.</br>
+ * Одновременные запросы одного персонажа или его комиксов выполняют один запрос к базе ({@link SingleFlight}),
+ * персонажи из одновременных запросов по списку id загружаются одним запросом ({@link BatchLoader})
  *
  * @see Char#Char()
  */
-@RequiredArgsConstructor
 @Service
+@ConditionalOnProperty(name = "comics.persistence", havingValue = "jpa", matchIfMissing = true)
 public class CharacterServiceImpl implements CharacterService {
     private final CharacterRepository characterRepo;
+    private final ComicsRepository comicsRepo;
+    private final Bulkhead bulkhead;
+    private final UploadService uploads;
+    private final ImageService images;
+    private final FileMetrics fileMetrics;
+    private final EntityCache cache;
+    private final SearchService search;
+    private final SingleFlight<Long, Char> byIdFlight;
+    private final SingleFlight<Long, List<ComicsPreview>> comicsFlight;
+    private final BatchLoader<Char> batchLoader;
 
-    @Override
-    public Flux<CharacterDTO> get(String sort, int limit, int offset) {
-        return Flux.fromStream(characterRepo
-                .findAll(Sort.by(sort))
-                .stream()
-                .skip(offset)
-                .limit(limit)
-                .map(CharacterDTO::preview));
+    public CharacterServiceImpl(CharacterRepository characterRepo,
+                                ComicsRepository comicsRepo,
+                                Bulkhead bulkhead,
+                                UploadService uploads,
+                                ImageService images,
+                                FileMetrics fileMetrics,
+                                EntityCache cache,
+                                SearchService search,
+                                MeterRegistry registry) {
+        this.characterRepo = characterRepo;
+        this.comicsRepo = comicsRepo;
+        this.bulkhead = bulkhead;
+        this.uploads = uploads;
+        this.images = images;
+        this.fileMetrics = fileMetrics;
+        this.cache = cache;
+        this.search = search;
+        this.byIdFlight = new SingleFlight<>("character.getById", registry);
+        this.comicsFlight = new SingleFlight<>("character.getComics", registry);
+        this.batchLoader = new BatchLoader<>("character", registry, this::findAllById);
     }
 
     @Override
-    public Char getCharacterById(Long id) {
-        return Optional.of(characterRepo.findById(id).get())
-                .orElseGet(null);
+    public Flux<CharacterDTO> get(String sort, String cursor, int limit, int offset) {
+        if (cursor == null) {
+            return bulkhead.fromDb(() -> characterRepo.findPageByName(limit, offset))
+                    .flatMapIterable(characters -> characters)
+                    .map(CharacterDTO::preview);
+        }
+        Cursor after;
+        try {
+            after = Cursor.decode(cursor, sort);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("Некорректный cursor: %s", cursor)));
+        }
+        return bulkhead.fromDb(() -> findNext(after, limit))
+                .flatMapIterable(characters -> characters)
+                .map(CharacterDTO::preview);
+    }
+
+    /**
+     * Выбирает персонажей, следующих за курсором</br>
+     * Персонажи без имени выдаются после всех остальных в порядке id
+     *
+     * @param after курсор на последнего выданного персонажа
+     * @param limit ограничение количества результатов
+     * @return список персонажей
+     */
+    private List<CharacterPreview> findNext(Cursor after, int limit) {
+        if (after.isKeyNull()) {
+            return characterRepo.findNextWithoutName(after.getId(), limit);
+        }
+        List<CharacterPreview> characters = new ArrayList<>(characterRepo.findNextByName(after.getKey(), after.getId(), limit));
+        if (characters.size() < limit) {
+            characters.addAll(characterRepo.findNextWithoutName(0, limit - characters.size()));
+        }
+        return characters;
     }
 
     @Override
     public Mono<Char> getById(long id) {
-        return characterRepo.findById(id)
-                .map(Mono::just)
-                .orElseGet(() ->
-                        Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                                String.format("по id = %d ничего не найдено", id))));
+        return cache.character(id, () -> byIdFlight.execute(id,
+                () -> bulkhead.fromDb(() -> characterRepo.findById(id).orElse(null))))
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        String.format("по id = %d ничего не найдено", id))));
+    }
+
+    @Override
+    public Mono<BatchDTO<Char>> getByIds(List<Long> ids) {
+        return Flux.fromIterable(new LinkedHashSet<>(ids))
+                .flatMap(id -> cache.character(id, () -> batchLoader.load(id)))
+                .collectMap(Char::getId)
+                .map(found -> BatchDTO.of(ids, found));
     }
 
     @Override
     public Flux<ComicsDTO> getComics(long id) {
-        return characterRepo.findById(id)
-                .map(character ->
-                        Flux.fromStream(character.getComicsList()
-                                .stream()
-                                .map(ComicsDTO::preview)))
-                .orElseGet(() -> Flux.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                        String.format("по id = %d ничего не найдено", id))));
+        return comicsFlight.execute(id, () -> bulkhead.fromDb(() -> {
+            List<ComicsPreview> comics = comicsRepo.findPreviewsByCharacter(id);
+            return comics.isEmpty() && !characterRepo.existsById(id) ? null : comics;
+        }))
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        String.format("по id = %d ничего не найдено", id))))
+                .flatMapIterable(comics -> comics)
+                .map(ComicsDTO::preview);
     }
 
     @Override
     public Mono<Char> add(Char character, Mono<FilePart> file) {
         if (character == null) return Mono.empty();
         character.setId(null);
-        Char charFromDB = characterRepo.save(character);
-        if (file != null) addFile(charFromDB, file);
-        return Mono.just(characterRepo.save(charFromDB));
+        Mono<Char> charFromDB = bulkhead.fromDb(() -> characterRepo.save(character));
+        if (file != null) {
+            charFromDB = charFromDB
+                    .flatMap(saved -> addFile(saved, file))
+                    .flatMap(saved -> bulkhead.fromDb(() -> characterRepo.save(saved)));
+        }
+        return charFromDB.doOnNext(saved -> cache.evictCharacter(saved.getId()))
+                .doOnNext(search::indexCharacter);
     }
 
     @Override
     public Mono<Char> update(Char character, Mono<FilePart> file) {
-        if (!characterRepo.existsById(character.getId())) {
-            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                    String.format("character c id = %d удален или никогда не существовал", character.getId())));
-        }
-        FileService.delete(characterRepo.findById(character.getId())
-                .map(Char::getPortrait)
-                .orElse(""));
-        if (file != null) addFile(character, file);
-        return Mono.just(characterRepo.save(character));
+        return bulkhead.fromDb(() -> characterRepo.findById(character.getId()).orElse(null))
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        String.format("character c id = %d удален или никогда не существовал", character.getId()))))
+                .flatMap(old -> bulkhead.fromFile(() -> FileService.delete(fileMetrics, old.getPortrait())))
+                .then(file == null ? Mono.just(character) : addFile(character, file))
+                .flatMap(changed -> bulkhead.fromDb(() -> characterRepo.save(changed)))
+                .doOnSuccess(saved -> cache.evictCharacter(character.getId()))
+                .doOnNext(search::indexCharacter);
     }
 
     @Override
-    public Mono<Object> addComics(long id, Comics comics) {
-        Char character = getCharacterById(id);
-        if (character != null && comics != null) {
-            character.addComics(comics);
-            return Mono.just(characterRepo.save(character));
-        }
-        return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST));
+    public Mono<Object> addComics(long id, long comicsId) {
+        return bulkhead.fromDb(() -> {
+            if (!comicsRepo.existsById(comicsId)) return null;
+            Char character = characterRepo.findById(id).orElse(null);
+            if (character != null) {
+                characterRepo.addComics(id, comicsId);
+                return (Object) character;
+            }
+            return null;
+        }).switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST)))
+                .doOnSuccess(added -> cache.evictCharacter(id));
     }
 
     @Override
     public Mono<Void> delete(long id) {
-        if (characterRepo.existsById(id)) {
-            FileService.delete(Const.CHARACTER_DIR, id);
-            characterRepo.deleteById(id);
-        }
-        return Mono.empty();
+        return bulkhead.fromDb(() -> characterRepo.existsById(id))
+                .filter(exists -> exists)
+                .flatMap(exists -> bulkhead.fromFile(() -> images.deleteAll(Const.CHARACTER_DIR, id)))
+                .flatMap(deleted -> bulkhead.runOnDb(() -> characterRepo.deleteById(id)))
+                .doOnSuccess(deleted -> cache.evictCharacter(id))
+                .doOnSuccess(deleted -> search.removeCharacter(id));
     }
 
     @Override
     public Mono<Void> deleteComics(Long id, Long comicsId) {
-        Char character = getCharacterById(id);
-        if (character != null) {
-            character.getComicsList().removeIf(comics -> comics.getId().equals(comicsId));
-            characterRepo.save(character);
-            return Mono.empty();
-        }
-        return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST));
+        return bulkhead.fromDb(() -> characterRepo.existsById(id))
+                .filter(exists -> exists)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST)))
+                .flatMap(exists -> bulkhead.fromDb(() -> characterRepo.deleteComics(id, comicsId)))
+                .doOnSuccess(deleted -> cache.evictCharacter(id))
+                .then();
+    }
+
+    /**
+     * Добавление изображения персонажа.
+     * Загрузка файла
+     *
+     * @param character
+     * @param file
+     * @return character с новым именем файла изображения
+     */
+    private Mono<Char> addFile(Char character, Mono<FilePart> file) {
+        return file.flatMap(f -> uploads.upload(Const.CHARACTER_DIR, character.getId(), f))
+                .map(filename -> {
+                    character.setPortrait(filename);
+                    return character;
+                })
+                .defaultIfEmpty(character);
     }
 
-    private void addFile(Char character, Mono<FilePart> file) {
-        file.flatMap(f -> {
-            character.setPortrait(FileService.upload()
-                    .createPath(Const.COMICS_DIR, character.getId(), f.filename())
-                    .transfer(f)
-                    .getFilename());
-            return Mono.empty();
-        }).subscribe();
+    /**
+     * Загружает персонажей одним запросом where id in (...)
+     *
+     * @param ids id персонажей
+     * @return найденные персонажи по их id
+     */
+    private Mono<Map<Long, Char>> findAllById(Set<Long> ids) {
+        return bulkhead.fromDb(() -> characterRepo.findAllById(ids).stream()
+                .collect(Collectors.toMap(Char::getId, Function.identity())));
     }
 }
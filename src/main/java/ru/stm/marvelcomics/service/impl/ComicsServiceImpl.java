@@ -1,137 +1,248 @@
 package ru.stm.marvelcomics.service.impl;
 
-import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Sort;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.config.Bulkhead;
 import ru.stm.marvelcomics.domain.Comics;
 import ru.stm.marvelcomics.domain.ComicsPage;
+import ru.stm.marvelcomics.domain.dto.BatchDTO;
 import ru.stm.marvelcomics.domain.dto.CharacterDTO;
 import ru.stm.marvelcomics.domain.dto.ComicsDTO;
 import ru.stm.marvelcomics.domain.dto.PageDTO;
+import ru.stm.marvelcomics.domain.projection.CharacterPreview;
+import ru.stm.marvelcomics.domain.projection.ComicsPreview;
+import ru.stm.marvelcomics.domain.projection.PageView;
+import ru.stm.marvelcomics.repository.CharacterRepository;
 import ru.stm.marvelcomics.repository.ComicsPageRepository;
 import ru.stm.marvelcomics.repository.ComicsRepository;
 import ru.stm.marvelcomics.service.ComicsService;
+import ru.stm.marvelcomics.service.EntityCache;
+import ru.stm.marvelcomics.service.FileMetrics;
 import ru.stm.marvelcomics.service.FileService;
+import ru.stm.marvelcomics.service.SearchService;
+import ru.stm.marvelcomics.service.ImageService;
+import ru.stm.marvelcomics.service.UploadService;
+import ru.stm.marvelcomics.util.BatchLoader;
 import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.Cursor;
+import ru.stm.marvelcomics.util.SingleFlight;
 
-import java.util.Comparator;
-import java.util.Optional;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
  * <h2>Сервис для работы с репозиторием комиксов и страниц комиксов</h2>
+ * <p>
+ * Обращения к репозиториям и к диску выполняются в пулах {@link Bulkhead}, а не в потоках event loop.</br>
+ * Одновременные запросы одного комикса, его страницы или персонажей выполняют один запрос к базе ({@link SingleFlight}),
+ * комиксы из одновременных запросов по списку id загружаются одним запросом ({@link BatchLoader})
  *
  * @see Comics#Comics()
  * @see ComicsPage#ComicsPage()
  */
-@RequiredArgsConstructor
 @Service
+@ConditionalOnProperty(name = "comics.persistence", havingValue = "jpa", matchIfMissing = true)
 public class ComicsServiceImpl implements ComicsService {
     private final ComicsRepository comicsRepo;
     private final ComicsPageRepository pageRepo;
+    private final CharacterRepository characterRepo;
+    private final Bulkhead bulkhead;
+    private final UploadService uploads;
+    private final EntityCache cache;
+    private final SearchService search;
+    private final ImageService images;
+    private final FileMetrics fileMetrics;
+    private final SingleFlight<Long, Comics> byIdFlight;
+    private final SingleFlight<String, Object> pageFlight;
+    private final SingleFlight<Long, List<CharacterPreview>> charactersFlight;
+    private final BatchLoader<Comics> batchLoader;
 
-    @Override
-    public Flux<ComicsDTO> get(String sort, int limit, int offset) {
-        return Flux.fromStream(comicsRepo
-                .findAll(Sort.by(sort))
-                .stream()
-                .skip(offset)
-                .limit(limit)
-                .map(ComicsDTO::preview));
+    public ComicsServiceImpl(ComicsRepository comicsRepo,
+                             ComicsPageRepository pageRepo,
+                             CharacterRepository characterRepo,
+                             Bulkhead bulkhead,
+                             UploadService uploads,
+                             EntityCache cache,
+                             SearchService search,
+                             ImageService images,
+                             FileMetrics fileMetrics,
+                             MeterRegistry registry) {
+        this.comicsRepo = comicsRepo;
+        this.pageRepo = pageRepo;
+        this.characterRepo = characterRepo;
+        this.bulkhead = bulkhead;
+        this.uploads = uploads;
+        this.cache = cache;
+        this.search = search;
+        this.images = images;
+        this.fileMetrics = fileMetrics;
+        this.byIdFlight = new SingleFlight<>("comics.getById", registry);
+        this.pageFlight = new SingleFlight<>("comics.getPage", registry);
+        this.charactersFlight = new SingleFlight<>("comics.getCharacters", registry);
+        this.batchLoader = new BatchLoader<>("comics", registry, this::findAllById);
     }
 
     @Override
-    public Comics getComicsById(Long id) {
-        return Optional.of(comicsRepo.findById(id).get())
-                .orElseGet(null);
+    public Flux<ComicsDTO> get(String sort, String cursor, int limit, int offset) {
+        if (cursor == null) {
+            return bulkhead.fromDb(() -> "release".equals(sort)
+                    ? comicsRepo.findPageByRelease(limit, offset)
+                    : comicsRepo.findPageByTitle(limit, offset))
+                    .flatMapIterable(comics -> comics)
+                    .map(ComicsDTO::preview);
+        }
+        Cursor after;
+        try {
+            after = Cursor.decode(cursor, sort);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(badCursor(cursor));
+        }
+        return bulkhead.fromDb(() -> findNext(after, limit))
+                .onErrorMap(DateTimeException.class, e -> badCursor(cursor))
+                .flatMapIterable(comics -> comics)
+                .map(ComicsDTO::preview);
     }
 
     @Override
     public Mono<Object> getById(long id, int order) {
-        if (!comicsRepo.existsById(id)) {
-            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                    String.format("по id = %d ничего не найдено", id)));
-        }
-        Comics comics = comicsRepo.findById(id).get();
-        if (order <= 0) {
-            return Mono.just(comics);
-        }
-        return getPage(comics, order);
+        Mono<Object> comics = cache.comics(id, () -> byIdFlight.execute(id,
+                () -> bulkhead.fromDb(() -> comicsRepo.findById(id).orElse(null))))
+                .switchIfEmpty(notFound(id))
+                .cast(Object.class);
+        if (order <= 0) return comics;
+        return pageFlight.execute(id + "/" + order, () -> getPage(id, order))
+                .switchIfEmpty(comics);
     }
 
     @Override
-    public Flux<CharacterDTO> getCharacters(long id) {
-        return Flux.fromStream(comicsRepo.findById(id).get()
-                .getCharacters()
-                .stream()
-                .map(CharacterDTO::preview));
+    public Mono<List<PageView>> getPages(long id) {
+        return bulkhead.fromDb(() -> pageRepo.findAllPages(id))
+                .filter(pages -> !pages.isEmpty())
+                .switchIfEmpty(notFound(id));
+    }
+
+    @Override
+    public Mono<BatchDTO<Comics>> getByIds(List<Long> ids) {
+        return Flux.fromIterable(new LinkedHashSet<>(ids))
+                .flatMap(id -> cache.comics(id, () -> batchLoader.load(id)))
+                .collectMap(Comics::getId)
+                .map(found -> BatchDTO.of(ids, found));
+    }
 
+    @Override
+    public Flux<CharacterDTO> getCharacters(long id) {
+        return charactersFlight.execute(id, () -> bulkhead.fromDb(() -> {
+            List<CharacterPreview> characters = characterRepo.findPreviewsByComics(id);
+            return characters.isEmpty() && !comicsRepo.existsById(id) ? null : characters;
+        }))
+                .switchIfEmpty(notFound(id))
+                .flatMapIterable(characters -> characters)
+                .map(CharacterDTO::preview);
     }
 
     @Override
     public Mono<Comics> add(Comics comics, Mono<FilePart> file) {
         if (comics == null) return Mono.empty();
         comics.setId(null);
-        Comics comicsFromDB = comicsRepo.save(comics); //получаем id
-        if (file != null) addFile(comicsFromDB, file);
-        return Mono.just(comicsRepo.save(comicsFromDB));
+        Mono<Comics> comicsFromDB = bulkhead.fromDb(() -> comicsRepo.save(comics)); //получаем id
+        if (file != null) {
+            comicsFromDB = comicsFromDB
+                    .flatMap(saved -> addFile(saved, file))
+                    .flatMap(saved -> bulkhead.fromDb(() -> comicsRepo.save(saved)));
+        }
+        return comicsFromDB.doOnNext(saved -> cache.evictComics(saved.getId()))
+                .doOnNext(search::indexComics);
     }
 
     @Override
     public Mono<Comics> update(Comics comics, Mono<FilePart> file) {
         if (comics == null) return Mono.empty();
-        if (!comicsRepo.existsById(comics.getId())) {
-            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                    String.format("comics c id = %d удален или никогда не существовал", comics.getId())));
-        }
-        if (file != null) addFile(comics, file);
-        return Mono.just(comicsRepo.save(comics));
+        return bulkhead.fromDb(() -> comicsRepo.existsById(comics.getId()))
+                .filter(exists -> exists)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        String.format("comics c id = %d удален или никогда не существовал", comics.getId()))))
+                .then(file == null ? Mono.just(comics) : addFile(comics, file))
+                .flatMap(changed -> bulkhead.fromDb(() -> comicsRepo.save(changed)))
+                .doOnSuccess(saved -> cache.evictComics(comics.getId()))
+                .doOnNext(search::indexComics);
     }
 
     @Override
     public Mono<Void> delete(long id) {
-        if (comicsRepo.existsById(id)) {
-            FileService.delete(Const.COMICS_DIR, id);
-            comicsRepo.deleteById(id);
-        }
-        return Mono.empty();
+        return bulkhead.fromDb(() -> comicsRepo.findWithPagesById(id).orElse(null))
+                .flatMap(comics -> bulkhead.fromFile(() -> images.deleteAll(Const.COMICS_DIR, id))
+                        .then(bulkhead.runOnDb(() -> comicsRepo.delete(comics))))
+                .doOnSuccess(deleted -> cache.evictComics(id))
+                .doOnSuccess(deleted -> search.removeComics(id));
     }
 
     @Override
     public Mono<Void> addPage(long id, long order, Flux<FilePart> files) {
-        if (!comicsRepo.existsById(id)) {
-            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
-                    String.format("по id = %d ничего не найдено", id)));
-        }
-        Comics comics = comicsRepo.findById(id).get();
-        files.index()
-                .flatMap(f -> {
-                    pageRepo.save(ComicsPage.builder()
-                            .comics(comics)
-                            .order(f.getT1() + order)
-                            .pathFile(FileService.upload()
-                                    .createPath(Const.COMICS_DIR, id, f.getT2().filename())
-                                    .transfer(f.getT2())
-                                    .getFilename())
-                            .build());
-                    return Mono.empty();
-                }).subscribe();
-        return Mono.empty();
+        return bulkhead.fromDb(() -> comicsRepo.findById(id).orElse(null))
+                .switchIfEmpty(notFound(id))
+                .flatMap(comics -> uploads.uploadAll(Const.COMICS_DIR, id, files)
+                        .flatMap(filenames -> savePages(comics, order, filenames)))
+                .doOnSuccess(added -> cache.evictComics(id));
+    }
+
+    @Override
+    public Mono<Void> addArchive(long id, long order, Flux<DataBuffer> archive) {
+        return bulkhead.fromDb(() -> comicsRepo.findById(id).orElse(null))
+                .switchIfEmpty(notFound(id))
+                .flatMap(comics -> uploads.unpack(Const.COMICS_DIR, id, archive)
+                        .flatMap(filenames -> savePages(comics, order, filenames)))
+                .doOnSuccess(added -> cache.evictComics(id));
     }
 
     @Override
     public Mono<Void> deletePage(long id, String fileName) {
-        ComicsPage page = pageRepo.findComicsPageByPathFile(fileName);
-        if (page != null) {
-            FileService.delete(page.getPathFile());
-            pageRepo.delete(page);
+        return bulkhead.fromDb(() -> pageRepo.findComicsPageByPathFile(fileName))
+                .filter(page -> page.getComics().getId() == id)
+                .switchIfEmpty(pageNotFound(id, fileName))
+                .flatMap(page -> bulkhead.fromFile(() -> {
+                    images.delete(Const.COMICS_DIR, id, page.getId());
+                    return FileService.delete(fileMetrics, String.format("%s/%d/%s", Const.COMICS_DIR, id, page.getId()));
+                })
+                        .then(bulkhead.runOnDb(() -> pageRepo.delete(page))))
+                .doOnSuccess(deleted -> cache.evictComics(id));
+    }
+
+    /**
+     * Сохраняет страницы комикса одним saveAll (пачками по hibernate.jdbc.batch_size).
+     * Если страницы не удалось сохранить, загруженные файлы удаляются
+     *
+     * @param comics    комикс
+     * @param order     номер первой страницы
+     * @param filenames имена загруженных файлов в порядке страниц
+     * @return void
+     */
+    private Mono<Void> savePages(Comics comics, long order, List<String> filenames) {
+        if (filenames.isEmpty()) return Mono.empty();
+        List<ComicsPage> pages = new ArrayList<>(filenames.size());
+        for (int i = 0; i < filenames.size(); i++) {
+            pages.add(ComicsPage.builder()
+                    .comics(comics)
+                    .order(order + i)
+                    .pathFile(filenames.get(i))
+                    .build());
         }
-        return Mono.empty();
+        return bulkhead.runOnDb(() -> pageRepo.saveAll(pages))
+                .onErrorResume(e -> uploads.discard(Const.COMICS_DIR, comics.getId(), filenames)
+                        .then(Mono.error(e)));
     }
 
     /**
@@ -140,32 +251,79 @@ public class ComicsServiceImpl implements ComicsService {
      *
      * @param comics
      * @param file
+     * @return comics с новым именем файла обложки
      */
-    private void addFile(Comics comics, Mono<FilePart> file) {
-        file.flatMap(f -> {
-            comics.setCover(FileService.upload()
-                    .createPath(Const.COMICS_DIR, comics.getId(), f.filename())
-                    .transfer(f)
-                    .getFilename());
-            return Mono.empty();
-        }).subscribe();
+    private Mono<Comics> addFile(Comics comics, Mono<FilePart> file) {
+        return file.flatMap(f -> uploads.upload(Const.COMICS_DIR, comics.getId(), f))
+                .map(filename -> {
+                    comics.setCover(filename);
+                    return comics;
+                })
+                .defaultIfEmpty(comics);
     }
 
     /**
-     * Возвращает страницу комикса
+     * Выбирает комиксы, следующие за курсором</br>
+     * Комиксы без названия или без даты публикации выдаются после всех остальных в порядке id
      *
-     * @param comics
-     * @param order  - номер страницы
-     * @return объект {@link PageDTO#view(Comics, ComicsPage)}
+     * @param after курсор на последний выданный комикс
+     * @param limit ограничение количества результатов
+     * @return список комиксов
      */
-    private Mono<Object> getPage(Comics comics, int order) {
-        return Mono.just(pageRepo.findAllByComics(comics)
-                .stream()
-                .sorted(Comparator.comparing(ComicsPage::getOrder))
-                .skip(order)
-                .limit(1)
-                .map(page -> PageDTO.view(comics, page)))
-                .cast(Object.class)
-                .defaultIfEmpty(comics);
+    private List<ComicsPreview> findNext(Cursor after, int limit) {
+        boolean byTitle = "title".equals(after.getSort());
+        if (after.isKeyNull()) {
+            return byTitle
+                    ? comicsRepo.findNextWithoutTitle(after.getId(), limit)
+                    : comicsRepo.findNextWithoutRelease(after.getId(), limit);
+        }
+        List<ComicsPreview> comics = new ArrayList<>(byTitle
+                ? comicsRepo.findNextByTitle(after.getKey(), after.getId(), limit)
+                : comicsRepo.findNextByRelease(
+                java.sql.Date.valueOf(LocalDate.parse(after.getKey(), Const.FORMAT_DATE_TO_STRING)), after.getId(), limit));
+        if (comics.size() < limit) {
+            comics.addAll(byTitle
+                    ? comicsRepo.findNextWithoutTitle(0, limit - comics.size())
+                    : comicsRepo.findNextWithoutRelease(0, limit - comics.size()));
+        }
+        return comics;
+    }
+
+    /**
+     * Возвращает страницу комикса вместе с соседними страницами одним запросом.
+     * Номер страницы - позиция в порядке order_page, path_file, а не значение order_page
+     *
+     * @param id    id комикса
+     * @param order номер страницы, больше 0
+     * @return объект {@link PageDTO#view(List)} или пустой Mono, если страницы с таким номером нет
+     */
+    private Mono<Object> getPage(long id, int order) {
+        return bulkhead.fromDb(() -> PageDTO.view(pageRepo.findPageWindow(id, order - 1, 3)));
+    }
+
+    /**
+     * Загружает комиксы одним запросом where id in (...)
+     *
+     * @param ids id комиксов
+     * @return найденные комиксы по их id
+     */
+    private Mono<Map<Long, Comics>> findAllById(Set<Long> ids) {
+        return bulkhead.fromDb(() -> comicsRepo.findAllById(ids).stream()
+                .collect(Collectors.toMap(Comics::getId, Function.identity())));
+    }
+
+    private static ResponseStatusException badCursor(String cursor) {
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                String.format("Некорректный cursor: %s", cursor));
+    }
+
+    private static <T> Mono<T> notFound(long id) {
+        return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                String.format("по id = %d ничего не найдено", id)));
+    }
+
+    private static <T> Mono<T> pageNotFound(long id, String fileName) {
+        return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                String.format("у комикса id = %d нет страницы %s", id, fileName)));
     }
 }
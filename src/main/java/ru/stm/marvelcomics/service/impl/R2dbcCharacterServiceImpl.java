@@ -0,0 +1,312 @@
+package ru.stm.marvelcomics.service.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.Row;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.config.Bulkhead;
+import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.dto.BatchDTO;
+import ru.stm.marvelcomics.domain.dto.CharacterDTO;
+import ru.stm.marvelcomics.domain.dto.ComicsDTO;
+import ru.stm.marvelcomics.service.CharacterService;
+import ru.stm.marvelcomics.service.EntityCache;
+import ru.stm.marvelcomics.service.FileMetrics;
+import ru.stm.marvelcomics.service.FileService;
+import ru.stm.marvelcomics.service.ImageService;
+import ru.stm.marvelcomics.service.SearchService;
+import ru.stm.marvelcomics.service.UploadService;
+import ru.stm.marvelcomics.util.BatchLoader;
+import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.Cursor;
+import ru.stm.marvelcomics.util.SingleFlight;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <h2>Неблокирующий сервис для работы с персонажами через R2DBC</h2>
+ * <p>
+ * Включается параметром comics.persistence=r2dbc.
+ * Запросы к базе выполняются асинхронно и не занимают поток event loop на время ожидания ответа,
+ * операции с файлами выполняются в пуле {@link Bulkhead}.</br>
+ * Одновременные запросы одного персонажа или его комиксов выполняют один запрос к базе ({@link SingleFlight}),
+ * персонажи из одновременных запросов по списку id загружаются одним запросом ({@link BatchLoader})
+ *
+ * @see Char#Char()
+ */
+@Service
+@ConditionalOnProperty(name = "comics.persistence", havingValue = "r2dbc")
+public class R2dbcCharacterServiceImpl implements CharacterService {
+    private static final String CHARACTER_COLUMNS = "ch.id, ch.name, ch.create_date, ch.portrait, ch.description, ch.biography";
+
+    private final DatabaseClient db;
+    private final TransactionalOperator r2dbcTransactionalOperator;
+    private final Bulkhead bulkhead;
+    private final UploadService uploads;
+    private final ImageService images;
+    private final FileMetrics fileMetrics;
+    private final EntityCache cache;
+    private final SearchService search;
+    private final SingleFlight<Long, Char> byIdFlight;
+    private final SingleFlight<Long, List<ComicsDTO>> comicsFlight;
+    private final BatchLoader<Char> batchLoader;
+
+    public R2dbcCharacterServiceImpl(DatabaseClient db,
+                                     TransactionalOperator r2dbcTransactionalOperator,
+                                     Bulkhead bulkhead,
+                                     UploadService uploads,
+                                     ImageService images,
+                                     FileMetrics fileMetrics,
+                                     EntityCache cache,
+                                     SearchService search,
+                                     MeterRegistry registry) {
+        this.db = db;
+        this.r2dbcTransactionalOperator = r2dbcTransactionalOperator;
+        this.bulkhead = bulkhead;
+        this.uploads = uploads;
+        this.images = images;
+        this.fileMetrics = fileMetrics;
+        this.cache = cache;
+        this.search = search;
+        this.byIdFlight = new SingleFlight<>("character.getById", registry);
+        this.comicsFlight = new SingleFlight<>("character.getComics", registry);
+        this.batchLoader = new BatchLoader<>("character", registry, this::findAllById);
+    }
+
+    @Override
+    public Flux<CharacterDTO> get(String sort, String cursor, int limit, int offset) {
+        if (cursor == null) {
+            return db.execute("select ch.id, ch.name, ch.portrait from characters ch " +
+                    "order by ch.name, ch.id limit :limit offset :offset")
+                    .bind("limit", limit)
+                    .bind("offset", offset)
+                    .map((row, metadata) -> toPreview(row))
+                    .all();
+        }
+        Cursor after;
+        try {
+            after = Cursor.decode(cursor, sort);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("Некорректный cursor: %s", cursor)));
+        }
+        if (after.isKeyNull()) {
+            return findNextWithoutName(after.getId(), limit);
+        }
+        Flux<CharacterDTO> named = db.execute("select ch.id, ch.name, ch.portrait from characters ch " +
+                "where (ch.name, ch.id) > (:name, :id) order by ch.name, ch.id limit :limit")
+                .bind("name", after.getKey())
+                .bind("id", after.getId())
+                .bind("limit", limit)
+                .map((row, metadata) -> toPreview(row))
+                .all()
+                .cache();
+        return named.concatWith(named.count()
+                .flatMapMany(count -> count < limit
+                        ? findNextWithoutName(0, (int) (limit - count))
+                        : Flux.empty()));
+    }
+
+    /**
+     * @return персонажи без имени в порядке id после id: они идут в конце списка, отсортированного по имени
+     */
+    private Flux<CharacterDTO> findNextWithoutName(long id, int limit) {
+        return db.execute("select ch.id, ch.name, ch.portrait from characters ch " +
+                "where ch.name is null and ch.id > :id order by ch.id limit :limit")
+                .bind("id", id)
+                .bind("limit", limit)
+                .map((row, metadata) -> toPreview(row))
+                .all();
+    }
+
+    @Override
+    public Mono<Char> getById(long id) {
+        return cache.character(id, () -> byIdFlight.execute(id, () -> findCharacter(id)))
+                .switchIfEmpty(notFound(id));
+    }
+
+    @Override
+    public Mono<BatchDTO<Char>> getByIds(List<Long> ids) {
+        return Flux.fromIterable(new LinkedHashSet<>(ids))
+                .flatMap(id -> cache.character(id, () -> batchLoader.load(id)))
+                .collectMap(Char::getId)
+                .map(found -> BatchDTO.of(ids, found));
+    }
+
+    @Override
+    public Flux<ComicsDTO> getComics(long id) {
+        return comicsFlight.execute(id, () -> findCharacter(id)
+                .switchIfEmpty(notFound(id))
+                .thenMany(db.execute("select c.id, c.title, c.release, c.cover from comics c " +
+                        "join comics_has_character l on l.comics_id = c.id where l.character_id = :id")
+                        .bind("id", id)
+                        .map((row, metadata) -> {
+                            LocalDate release = row.get("release", LocalDate.class);
+                            return ComicsDTO.preview(new Comics(row.get("id", Long.class), row.get("title", String.class),
+                                    release == null ? null : java.sql.Date.valueOf(release), row.get("cover", String.class),
+                                    new ArrayList<>(), new ArrayList<>()));
+                        })
+                        .all())
+                .collectList())
+                .flatMapIterable(comics -> comics);
+    }
+
+    @Override
+    public Mono<Char> add(Char character, Mono<FilePart> file) {
+        if (character == null) return Mono.empty();
+        return bind(db.execute("insert into characters (id, name, create_date, portrait, description, biography) " +
+                "values (nextval('char_id_seq'), :name, :createDate, :portrait, :description, :biography) " +
+                "returning id"), character)
+                .map((row, metadata) -> row.get("id", Long.class))
+                .one()
+                .flatMap(id -> {
+                    character.setId(id);
+                    return file == null ? Mono.just(character) : uploadPortrait(character, file).flatMap(this::save);
+                })
+                .doOnNext(saved -> cache.evictCharacter(saved.getId()))
+                .doOnNext(search::indexCharacter);
+    }
+
+    @Override
+    public Mono<Char> update(Char character, Mono<FilePart> file) {
+        return findCharacter(character.getId())
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        String.format("character c id = %d удален или никогда не существовал", character.getId()))))
+                .flatMap(old -> file == null || old.getPortraitFilename() == null
+                        ? Mono.just(character)
+                        : bulkhead.fromFile(() -> FileService.delete(fileMetrics, old.getPortrait())).thenReturn(character))
+                .flatMap(changed -> file == null ? Mono.just(changed) : uploadPortrait(changed, file))
+                .flatMap(this::save)
+                .doOnSuccess(saved -> cache.evictCharacter(character.getId()))
+                .doOnNext(search::indexCharacter);
+    }
+
+    @Override
+    public Mono<Object> addComics(long id, long comicsId) {
+        return db.execute("insert into comics_has_character (comics_id, character_id) values (:comicsId, :id) " +
+                "on conflict do nothing")
+                .bind("comicsId", comicsId)
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated()
+                .onErrorMap(DataIntegrityViolationException.class, e -> new ResponseStatusException(HttpStatus.BAD_REQUEST))
+                .doOnSuccess(added -> cache.evictCharacter(id))
+                .then(findCharacter(id))
+                .cast(Object.class);
+    }
+
+    @Override
+    public Mono<Void> delete(long id) {
+        return r2dbcTransactionalOperator.transactional(
+                db.execute("delete from comics_has_character where character_id = :id").bind("id", id).fetch().rowsUpdated()
+                        .then(db.execute("delete from characters where id = :id").bind("id", id).fetch().rowsUpdated()))
+                .filter(deleted -> deleted > 0)
+                .flatMap(deleted -> bulkhead.fromFile(() -> images.deleteAll(Const.CHARACTER_DIR, id)))
+                .doOnSuccess(deleted -> cache.evictCharacter(id))
+                .doOnSuccess(deleted -> search.removeCharacter(id))
+                .then();
+    }
+
+    @Override
+    public Mono<Void> deleteComics(Long id, Long comicsId) {
+        return db.execute("select 1 from characters where id = :id")
+                .bind("id", id)
+                .fetch()
+                .first()
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST)))
+                .flatMap(exists -> db.execute("delete from comics_has_character where character_id = :id and comics_id = :comicsId")
+                        .bind("id", id)
+                        .bind("comicsId", comicsId)
+                        .fetch()
+                        .rowsUpdated())
+                .doOnSuccess(deleted -> cache.evictCharacter(id))
+                .then();
+    }
+
+    private Mono<Char> findCharacter(long id) {
+        return db.execute(String.format("select %s from characters ch where ch.id = :id", CHARACTER_COLUMNS))
+                .bind("id", id)
+                .map((row, metadata) -> toCharacter(row))
+                .one();
+    }
+
+    /**
+     * Загружает персонажей одним запросом where id in (...)
+     *
+     * @param ids id персонажей
+     * @return найденные персонажи по их id
+     */
+    private Mono<Map<Long, Char>> findAllById(Set<Long> ids) {
+        return db.execute(String.format("select %s from characters ch where ch.id in (:ids)", CHARACTER_COLUMNS))
+                .bind("ids", ids)
+                .map((row, metadata) -> toCharacter(row))
+                .all()
+                .collectMap(Char::getId);
+    }
+
+    private Mono<Char> save(Char character) {
+        return bind(db.execute("update characters set name = :name, create_date = :createDate, portrait = :portrait, " +
+                "description = :description, biography = :biography where id = :id"), character)
+                .bind("id", character.getId())
+                .fetch()
+                .rowsUpdated()
+                .thenReturn(character);
+    }
+
+    private Mono<Char> uploadPortrait(Char character, Mono<FilePart> file) {
+        return file.flatMap(f -> uploads.upload(Const.CHARACTER_DIR, character.getId(), f))
+                .map(filename -> {
+                    character.setPortrait(filename);
+                    return character;
+                })
+                .defaultIfEmpty(character);
+    }
+
+    private static <T> Mono<T> notFound(long id) {
+        return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                String.format("по id = %d ничего не найдено", id)));
+    }
+
+    /**
+     * Портрет передается в базу как имя файла, без пути из {@link Char#getPortrait()}
+     */
+    private static DatabaseClient.GenericExecuteSpec bind(DatabaseClient.GenericExecuteSpec spec, Char character) {
+        spec = bind(spec, "name", character.getName());
+        spec = character.getCreateDate() == null
+                ? spec.bindNull("createDate", LocalDate.class)
+                : spec.bind("createDate", new java.sql.Date(character.getCreateDate().getTime()).toLocalDate());
+        spec = bind(spec, "portrait", character.getPortraitFilename());
+        spec = bind(spec, "description", character.getDescription());
+        return bind(spec, "biography", character.getBiography());
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bind(DatabaseClient.GenericExecuteSpec spec, String name, String value) {
+        return value == null ? spec.bindNull(name, String.class) : spec.bind(name, value);
+    }
+
+    private static CharacterDTO toPreview(Row row) {
+        return CharacterDTO.preview(new Char(row.get("id", Long.class), row.get("name", String.class), null,
+                row.get("portrait", String.class), null, null, new ArrayList<>()));
+    }
+
+    private static Char toCharacter(Row row) {
+        LocalDate createDate = row.get("create_date", LocalDate.class);
+        return new Char(row.get("id", Long.class), row.get("name", String.class),
+                createDate == null ? null : java.sql.Date.valueOf(createDate), row.get("portrait", String.class),
+                row.get("description", String.class), row.get("biography", String.class), new ArrayList<>());
+    }
+}
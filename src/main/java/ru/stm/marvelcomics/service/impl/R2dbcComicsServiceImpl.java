@@ -0,0 +1,416 @@
+package ru.stm.marvelcomics.service.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.Row;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.stm.marvelcomics.config.Bulkhead;
+import ru.stm.marvelcomics.domain.Char;
+import ru.stm.marvelcomics.domain.Comics;
+import ru.stm.marvelcomics.domain.ComicsPage;
+import ru.stm.marvelcomics.domain.dto.BatchDTO;
+import ru.stm.marvelcomics.domain.dto.CharacterDTO;
+import ru.stm.marvelcomics.domain.dto.ComicsDTO;
+import ru.stm.marvelcomics.domain.dto.PageDTO;
+import ru.stm.marvelcomics.domain.projection.PageView;
+import ru.stm.marvelcomics.service.ComicsService;
+import ru.stm.marvelcomics.service.EntityCache;
+import ru.stm.marvelcomics.service.FileMetrics;
+import ru.stm.marvelcomics.service.FileService;
+import ru.stm.marvelcomics.service.SearchService;
+import ru.stm.marvelcomics.service.ImageService;
+import ru.stm.marvelcomics.service.UploadService;
+import ru.stm.marvelcomics.util.BatchLoader;
+import ru.stm.marvelcomics.util.Const;
+import ru.stm.marvelcomics.util.Cursor;
+import ru.stm.marvelcomics.util.SingleFlight;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <h2>Неблокирующий сервис для работы с комиксами и страницами комиксов через R2DBC</h2>
+ * <p>
+ * Включается параметром comics.persistence=r2dbc.
+ * Запросы к базе выполняются асинхронно и не занимают поток event loop на время ожидания ответа,
+ * операции с файлами выполняются в пуле {@link Bulkhead}.</br>
+ * Одновременные запросы одного комикса, его страницы или персонажей выполняют один запрос к базе ({@link SingleFlight}),
+ * комиксы из одновременных запросов по списку id загружаются одним запросом ({@link BatchLoader})
+ *
+ * @see Comics#Comics()
+ * @see ComicsPage#ComicsPage()
+ */
+@Service
+@ConditionalOnProperty(name = "comics.persistence", havingValue = "r2dbc")
+public class R2dbcComicsServiceImpl implements ComicsService {
+    private static final String COMICS_COLUMNS = "c.id, c.title, c.release, c.cover";
+    private static final int PAGE_BATCH = 50;
+
+    private final DatabaseClient db;
+    private final TransactionalOperator r2dbcTransactionalOperator;
+    private final Bulkhead bulkhead;
+    private final UploadService uploads;
+    private final EntityCache cache;
+    private final SearchService search;
+    private final ImageService images;
+    private final FileMetrics fileMetrics;
+    private final SingleFlight<Long, Comics> byIdFlight;
+    private final SingleFlight<String, Object> pageFlight;
+    private final SingleFlight<Long, List<CharacterDTO>> charactersFlight;
+    private final BatchLoader<Comics> batchLoader;
+
+    public R2dbcComicsServiceImpl(DatabaseClient db,
+                                  TransactionalOperator r2dbcTransactionalOperator,
+                                  Bulkhead bulkhead,
+                                  UploadService uploads,
+                                  EntityCache cache,
+                                  SearchService search,
+                                  ImageService images,
+                                  FileMetrics fileMetrics,
+                                  MeterRegistry registry) {
+        this.db = db;
+        this.r2dbcTransactionalOperator = r2dbcTransactionalOperator;
+        this.bulkhead = bulkhead;
+        this.uploads = uploads;
+        this.cache = cache;
+        this.search = search;
+        this.images = images;
+        this.fileMetrics = fileMetrics;
+        this.byIdFlight = new SingleFlight<>("comics.getById", registry);
+        this.pageFlight = new SingleFlight<>("comics.getPage", registry);
+        this.charactersFlight = new SingleFlight<>("comics.getCharacters", registry);
+        this.batchLoader = new BatchLoader<>("comics", registry, this::findAllById);
+    }
+
+    @Override
+    public Flux<ComicsDTO> get(String sort, String cursor, int limit, int offset) {
+        if (cursor == null) {
+            return db.execute(String.format("select %s from comics c order by c.%s, c.id limit :limit offset :offset",
+                    COMICS_COLUMNS, "release".equals(sort) ? "release" : "title"))
+                    .bind("limit", limit)
+                    .bind("offset", offset)
+                    .map((row, metadata) -> ComicsDTO.preview(toComics(row)))
+                    .all();
+        }
+        try {
+            return findNext(Cursor.decode(cursor, sort), limit)
+                    .map(ComicsDTO::preview);
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("Некорректный cursor: %s", cursor)));
+        }
+    }
+
+    @Override
+    public Mono<Object> getById(long id, int order) {
+        Mono<Object> comics = cache.comics(id, () -> byIdFlight.execute(id, () -> findComics(id)))
+                .switchIfEmpty(notFound(id))
+                .cast(Object.class);
+        if (order <= 0) return comics;
+        return pageFlight.execute(id + "/" + order, () -> getPage(id, order))
+                .switchIfEmpty(comics);
+    }
+
+    @Override
+    public Mono<List<PageView>> getPages(long id) {
+        return db.execute("select c.id, c.title, p.path_file from comics c " +
+                "left join comics_page p on p.comics_id = c.id where c.id = :id " +
+                "order by p.order_page, p.path_file")
+                .bind("id", id)
+                .map((row, metadata) -> PageView.of(row.get("id", Long.class), row.get("title", String.class),
+                        row.get("path_file", String.class)))
+                .all()
+                .collectList()
+                .filter(pages -> !pages.isEmpty())
+                .switchIfEmpty(notFound(id));
+    }
+
+    @Override
+    public Mono<BatchDTO<Comics>> getByIds(List<Long> ids) {
+        return Flux.fromIterable(new LinkedHashSet<>(ids))
+                .flatMap(id -> cache.comics(id, () -> batchLoader.load(id)))
+                .collectMap(Comics::getId)
+                .map(found -> BatchDTO.of(ids, found));
+    }
+
+    @Override
+    public Flux<CharacterDTO> getCharacters(long id) {
+        return charactersFlight.execute(id, () -> findComics(id)
+                .switchIfEmpty(notFound(id))
+                .thenMany(db.execute("select ch.id, ch.name, ch.portrait from characters ch " +
+                        "join comics_has_character l on l.character_id = ch.id where l.comics_id = :id")
+                        .bind("id", id)
+                        .map((row, metadata) -> CharacterDTO.preview(new Char(row.get("id", Long.class),
+                                row.get("name", String.class), null, row.get("portrait", String.class),
+                                null, null, new ArrayList<>())))
+                        .all())
+                .collectList())
+                .flatMapIterable(characters -> characters);
+    }
+
+    @Override
+    public Mono<Comics> add(Comics comics, Mono<FilePart> file) {
+        if (comics == null) return Mono.empty();
+        return bind(db.execute("insert into comics (id, title, release, cover) " +
+                "values (nextval('com_id_seq'), :title, :release, :cover) returning id"), comics)
+                .map((row, metadata) -> row.get("id", Long.class))
+                .one()
+                .flatMap(id -> {
+                    comics.setId(id);
+                    return file == null ? Mono.just(comics) : uploadCover(comics, file).flatMap(this::save);
+                })
+                .doOnNext(saved -> cache.evictComics(saved.getId()))
+                .doOnNext(search::indexComics);
+    }
+
+    @Override
+    public Mono<Comics> update(Comics comics, Mono<FilePart> file) {
+        if (comics == null) return Mono.empty();
+        return findComics(comics.getId())
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        String.format("comics c id = %d удален или никогда не существовал", comics.getId()))))
+                .flatMap(old -> file == null ? Mono.just(comics) : uploadCover(comics, file))
+                .flatMap(this::save)
+                .doOnSuccess(saved -> cache.evictComics(comics.getId()))
+                .doOnNext(search::indexComics);
+    }
+
+    @Override
+    public Mono<Void> delete(long id) {
+        return r2dbcTransactionalOperator.transactional(
+                db.execute("delete from comics_page where comics_id = :id").bind("id", id).fetch().rowsUpdated()
+                        .then(db.execute("delete from comics_has_character where comics_id = :id")
+                                .bind("id", id).fetch().rowsUpdated())
+                        .then(db.execute("delete from comics where id = :id").bind("id", id).fetch().rowsUpdated()))
+                .filter(deleted -> deleted > 0)
+                .flatMap(deleted -> bulkhead.fromFile(() -> images.deleteAll(Const.COMICS_DIR, id)))
+                .doOnSuccess(deleted -> cache.evictComics(id))
+                .doOnSuccess(deleted -> search.removeComics(id))
+                .then();
+    }
+
+    @Override
+    public Mono<Void> addPage(long id, long order, Flux<FilePart> files) {
+        return findComics(id)
+                .switchIfEmpty(notFound(id))
+                .flatMap(comics -> uploads.uploadAll(Const.COMICS_DIR, id, files))
+                .flatMap(filenames -> savePages(id, order, filenames))
+                .doOnSuccess(added -> cache.evictComics(id));
+    }
+
+    @Override
+    public Mono<Void> addArchive(long id, long order, Flux<DataBuffer> archive) {
+        return findComics(id)
+                .switchIfEmpty(notFound(id))
+                .flatMap(comics -> uploads.unpack(Const.COMICS_DIR, id, archive))
+                .flatMap(filenames -> savePages(id, order, filenames))
+                .doOnSuccess(added -> cache.evictComics(id));
+    }
+
+    /**
+     * Сохраняет страницы комикса в одной транзакции пачками по {@value #PAGE_BATCH}.
+     * Если страницы не удалось сохранить, загруженные файлы удаляются
+     *
+     * @param id        id комикса
+     * @param order     номер первой страницы
+     * @param filenames имена загруженных файлов в порядке страниц
+     * @return void
+     */
+    private Mono<Void> savePages(long id, long order, List<String> filenames) {
+        List<ComicsPage> pages = new ArrayList<>(filenames.size());
+        for (int i = 0; i < filenames.size(); i++) {
+            pages.add(new ComicsPage(order + i, filenames.get(i), null));
+        }
+        return r2dbcTransactionalOperator.transactional(Flux.fromIterable(pages)
+                .buffer(PAGE_BATCH)
+                .concatMap(batch -> insertPages(id, batch))
+                .then())
+                .onErrorResume(e -> uploads.discard(Const.COMICS_DIR, id, filenames)
+                        .then(Mono.error(e)));
+    }
+
+    /**
+     * Вставляет страницы комикса одним запросом insert ... values (...), (...)
+     *
+     * @param id    id комикса
+     * @param pages страницы с номером и именем файла
+     * @return количество вставленных строк
+     */
+    private Mono<Integer> insertPages(long id, List<ComicsPage> pages) {
+        StringBuilder sql = new StringBuilder("insert into comics_page (comics_id, order_page, path_file) values ");
+        for (int i = 0; i < pages.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(String.format("(:id, :order%d, :pathFile%d)", i, i));
+        }
+        DatabaseClient.GenericExecuteSpec spec = db.execute(sql.toString()).bind("id", id);
+        for (int i = 0; i < pages.size(); i++) {
+            spec = spec.bind("order" + i, pages.get(i).getOrder())
+                    .bind("pathFile" + i, pages.get(i).getId());
+        }
+        return spec.fetch().rowsUpdated();
+    }
+
+    @Override
+    public Mono<Void> deletePage(long id, String fileName) {
+        return db.execute("delete from comics_page where comics_id = :id and path_file = :pathFile")
+                .bind("id", id)
+                .bind("pathFile", fileName)
+                .fetch()
+                .rowsUpdated()
+                .filter(deleted -> deleted > 0)
+                .switchIfEmpty(pageNotFound(id, fileName))
+                .flatMap(deleted -> bulkhead.fromFile(() -> {
+                    images.delete(Const.COMICS_DIR, id, fileName);
+                    return FileService.delete(fileMetrics, String.format("%s/%d/%s", Const.COMICS_DIR, id, fileName));
+                }))
+                .doOnSuccess(deleted -> cache.evictComics(id))
+                .then();
+    }
+
+    private Mono<Comics> findComics(long id) {
+        return db.execute(String.format("select %s from comics c where c.id = :id", COMICS_COLUMNS))
+                .bind("id", id)
+                .map((row, metadata) -> toComics(row))
+                .one();
+    }
+
+    /**
+     * Загружает комиксы одним запросом where id in (...)
+     *
+     * @param ids id комиксов
+     * @return найденные комиксы по их id
+     */
+    private Mono<Map<Long, Comics>> findAllById(Set<Long> ids) {
+        return db.execute(String.format("select %s from comics c where c.id in (:ids)", COMICS_COLUMNS))
+                .bind("ids", ids)
+                .map((row, metadata) -> toComics(row))
+                .all()
+                .collectMap(Comics::getId);
+    }
+
+    /**
+     * Выбирает комиксы, следующие за курсором</br>
+     * Комиксы без названия или без даты публикации выдаются после всех остальных в порядке id
+     *
+     * @param after курсор на последний выданный комикс
+     * @param limit ограничение количества результатов
+     * @return комиксы
+     */
+    private Flux<Comics> findNext(Cursor after, int limit) {
+        String column = "title".equals(after.getSort()) ? "title" : "release";
+        if (after.isKeyNull()) {
+            return findNextWithout(column, after.getId(), limit);
+        }
+        Flux<Comics> filled = db.execute(String.format("select %s from comics c where (c.%s, c.id) > (:key, :id) " +
+                "order by c.%s, c.id limit :limit", COMICS_COLUMNS, column, column))
+                .bind("key", "title".equals(column) ? after.getKey() : LocalDate.parse(after.getKey(), Const.FORMAT_DATE_TO_STRING))
+                .bind("id", after.getId())
+                .bind("limit", limit)
+                .map((row, metadata) -> toComics(row))
+                .all()
+                .cache();
+        return filled.concatWith(filled.count()
+                .flatMapMany(count -> count < limit
+                        ? findNextWithout(column, 0, (int) (limit - count))
+                        : Flux.empty()));
+    }
+
+    /**
+     * @param column поле сортировки: title или release
+     * @return комиксы, у которых поле сортировки не заполнено, в порядке id после id
+     */
+    private Flux<Comics> findNextWithout(String column, long id, int limit) {
+        return db.execute(String.format("select %s from comics c where c.%s is null and c.id > :id " +
+                "order by c.id limit :limit", COMICS_COLUMNS, column))
+                .bind("id", id)
+                .bind("limit", limit)
+                .map((row, metadata) -> toComics(row))
+                .all();
+    }
+
+    private Mono<Comics> save(Comics comics) {
+        return bind(db.execute("update comics set title = :title, release = :release, cover = :cover " +
+                "where id = :id"), comics)
+                .bind("id", comics.getId())
+                .fetch()
+                .rowsUpdated()
+                .thenReturn(comics);
+    }
+
+    /**
+     * Добавление изображения в комикс.
+     * Загрузка файла
+     *
+     * @param comics
+     * @param file
+     * @return comics с новым именем файла обложки
+     */
+    private Mono<Comics> uploadCover(Comics comics, Mono<FilePart> file) {
+        return file.flatMap(f -> uploads.upload(Const.COMICS_DIR, comics.getId(), f))
+                .map(filename -> {
+                    comics.setCover(filename);
+                    return comics;
+                })
+                .defaultIfEmpty(comics);
+    }
+
+    /**
+     * Возвращает страницу комикса вместе с соседними страницами одним запросом.
+     * Номер страницы - позиция в порядке order_page, path_file, а не значение order_page
+     *
+     * @param id    id комикса
+     * @param order номер страницы, больше 0
+     * @return объект {@link PageDTO#view(List)} или пустой Mono, если страницы с таким номером нет
+     */
+    private Mono<Object> getPage(long id, int order) {
+        return db.execute("select c.id, c.title, p.path_file from comics_page p " +
+                "join comics c on c.id = p.comics_id where p.comics_id = :id " +
+                "order by p.order_page, p.path_file limit 3 offset :offset")
+                .bind("id", id)
+                .bind("offset", order - 1)
+                .map((row, metadata) -> PageView.of(row.get("id", Long.class), row.get("title", String.class),
+                        row.get("path_file", String.class)))
+                .all()
+                .collectList()
+                .flatMap(pages -> Mono.justOrEmpty(PageDTO.view(pages)));
+    }
+
+    private static <T> Mono<T> notFound(long id) {
+        return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                String.format("по id = %d ничего не найдено", id)));
+    }
+
+    private static <T> Mono<T> pageNotFound(long id, String fileName) {
+        return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                String.format("у комикса id = %d нет страницы %s", id, fileName)));
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bind(DatabaseClient.GenericExecuteSpec spec, Comics comics) {
+        spec = comics.getTitle() == null ? spec.bindNull("title", String.class) : spec.bind("title", comics.getTitle());
+        spec = comics.getRelease() == null
+                ? spec.bindNull("release", LocalDate.class)
+                : spec.bind("release", new java.sql.Date(comics.getRelease().getTime()).toLocalDate());
+        return comics.getCoverFilename() == null
+                ? spec.bindNull("cover", String.class)
+                : spec.bind("cover", comics.getCoverFilename());
+    }
+
+    private static Comics toComics(Row row) {
+        LocalDate release = row.get("release", LocalDate.class);
+        return new Comics(row.get("id", Long.class), row.get("title", String.class),
+                release == null ? null : java.sql.Date.valueOf(release), row.get("cover", String.class),
+                new ArrayList<>(), new ArrayList<>());
+    }
+}
@@ -0,0 +1,85 @@
+package ru.stm.marvelcomics.util;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.util.concurrent.Queues;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * <h2>BatchLoader - загрузка по id пачками</h2>
+ * <p>
+ * Id, запрошенные в течение окна {@link Const#BATCH_WINDOW} из любых запросов,
+ * собираются в одну пачку (не больше {@link Const#BATCH_SIZE} id) и загружаются одним запросом к базе.
+ * Каждый вызов {@link #load(long)} получает свой элемент из результата пачки.</br>
+ * Размер пачек публикуется в метрике comics.batch.size с тегом name
+ *
+ * @param <T> загружаемый объект
+ */
+public class BatchLoader<T> {
+    private final Function<Set<Long>, Mono<Map<Long, T>>> loader;
+    private final FluxSink<Request<T>> requests;
+    private final DistributionSummary batchSize;
+
+    /**
+     * @param name     имя для метрик, например "comics"
+     * @param registry реестр метрик
+     * @param loader   загрузка пачки: по набору id возвращает найденные объекты по их id
+     */
+    public BatchLoader(String name, MeterRegistry registry, Function<Set<Long>, Mono<Map<Long, T>>> loader) {
+        this.loader = loader;
+        this.batchSize = DistributionSummary.builder("comics.batch.size")
+                .tag("name", name)
+                .register(registry);
+        UnicastProcessor<Request<T>> processor = UnicastProcessor.create(Queues.<Request<T>>unbounded().get());
+        this.requests = processor.sink();
+        processor.bufferTimeout(Const.BATCH_SIZE, Const.BATCH_WINDOW)
+                .flatMap(this::dispatch)
+                .subscribe();
+    }
+
+    /**
+     * Добавляет id в ближайшую пачку
+     *
+     * @param id id объекта
+     * @return объект или пустой Mono, если объекта с таким id нет
+     */
+    public Mono<T> load(long id) {
+        return Mono.create(sink -> requests.next(new Request<>(id, sink)));
+    }
+
+    private Mono<Void> dispatch(List<Request<T>> batch) {
+        Set<Long> ids = new LinkedHashSet<>();
+        batch.forEach(request -> ids.add(request.id));
+        batchSize.record(ids.size());
+        return Mono.defer(() -> loader.apply(ids))
+                .defaultIfEmpty(Collections.emptyMap())
+                .doOnNext(found -> batch.forEach(request -> {
+                    T value = found.get(request.id);
+                    if (value == null) request.sink.success();
+                    else request.sink.success(value);
+                }))
+                .doOnError(e -> batch.forEach(request -> request.sink.error(e)))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private static final class Request<T> {
+        private final long id;
+        private final MonoSink<T> sink;
+
+        private Request(long id, MonoSink<T> sink) {
+            this.id = id;
+            this.sink = sink;
+        }
+    }
+}
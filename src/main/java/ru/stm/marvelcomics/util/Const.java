@@ -1,7 +1,7 @@
 package ru.stm.marvelcomics.util;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.format.DateTimeFormatter;
 
 public class Const {
     public static final int LIM = 20;
@@ -11,7 +11,18 @@ public class Const {
     public static final String PATH_FILE = "/home/simsim/data/comics_files";
     public static final String COMICS_DIR = "/comics";
     public static final String CHARACTER_DIR = "/character";
-    public static final DateFormat FORMAT_DATE_TO_STRING = new SimpleDateFormat("d.MM.yyyy");
-    public static final DateFormat FORMAT_STRING_TO_DATE = new SimpleDateFormat("d-MM-yyyy");
+    public static final String DERIVATIVES_DIR = "derivatives";
+    public static final String BLOBS_DIR = "/blobs";
+    public static final int THUMBNAIL_WIDTH = 160;
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final int MAX_IDS = 100;
+    public static final int BATCH_SIZE = 100;
+    public static final Duration BATCH_WINDOW = Duration.ofMillis(5);
+    public static final int SUGGEST_LIMIT = 10;
+    public static final Duration POPULARITY_FLUSH = Duration.ofSeconds(30);
+    public static final String NDJSON = "application/x-ndjson";
+    public static final int MAX_ARCHIVE_PAGES = 2000;
+    public static final DateTimeFormatter FORMAT_DATE_TO_STRING = DateTimeFormatter.ofPattern("d.MM.yyyy");
+    public static final DateTimeFormatter FORMAT_STRING_TO_DATE = DateTimeFormatter.ofPattern("d-M-yyyy");
 
 }
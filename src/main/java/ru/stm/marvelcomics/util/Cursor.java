@@ -0,0 +1,104 @@
+package ru.stm.marvelcomics.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * <h2>Cursor - непрозрачный курсор для постраничной выдачи списков</h2>
+ * <p>
+ * Хранит поле сортировки, значение ключа сортировки и id последнего выданного элемента.</br>
+ * Следующая страница выбирается условием (key, id) > (значение, id), поэтому ее стоимость
+ * не зависит от того, насколько далеко клиент ушел от начала списка.</br>
+ * Элементы с незаполненным полем сортировки идут в конце списка в порядке id.</br>
+ * Курсор хранится как "sort\nid\nkey" в Base64: ключ - последнее поле, поэтому перевод строки в названии
+ * не нарушает разбор. Перед ключом стоит признак: "=" - ключ заполнен, "-" - поле сортировки равно null
+ */
+public class Cursor {
+    private static final String SEPARATOR = "\n";
+    private static final String VALUE = "=";
+    private static final String NULL = "-";
+
+    private final String sort;
+    private final String key;
+    private final long id;
+
+    private Cursor(String sort, String key, long id) {
+        this.sort = sort;
+        this.key = key;
+        this.id = id;
+    }
+
+    /**
+     * Формирует курсор, указывающий на элемент
+     *
+     * @param sort поле сортировки
+     * @param key  значение поля сортировки у элемента, null - если не заполнено
+     * @param id   id элемента
+     * @return курсор в виде строки, пригодной для передачи в параметре запроса
+     */
+    public static String encode(String sort, String key, long id) {
+        String raw = String.join(SEPARATOR, sort, Long.toString(id), key == null ? NULL : VALUE + key);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Разбирает курсор, полученный от клиента
+     *
+     * @param cursor курсор из {@link #encode(String, String, long)}
+     * @param sort   поле сортировки текущего запроса
+     * @return объект Cursor
+     * @throws IllegalArgumentException если курсор поврежден или сформирован для другой сортировки
+     */
+    public static Cursor decode(String cursor, String sort) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                .split(SEPARATOR, 3);
+        if (parts.length != 3 || !parts[0].equals(sort)) {
+            throw new IllegalArgumentException("Курсор не соответствует сортировке " + sort);
+        }
+        String key;
+        if (parts[2].equals(NULL)) {
+            key = null;
+        } else if (parts[2].startsWith(VALUE)) {
+            key = parts[2].substring(VALUE.length());
+        } else {
+            throw new IllegalArgumentException("Курсор поврежден");
+        }
+        return new Cursor(parts[0], key, Long.parseLong(parts[1]));
+    }
+
+    /**
+     * Возвращает поле сортировки
+     *
+     * @return sort
+     */
+    public String getSort() {
+        return sort;
+    }
+
+    /**
+     * Возвращает значение поля сортировки у последнего выданного элемента
+     *
+     * @return key, null - если поле не заполнено
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Возвращает id последнего выданного элемента
+     *
+     * @return id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Проверяет, заполнено ли поле сортировки у последнего выданного элемента
+     *
+     * @return true - если поле сортировки равно null
+     */
+    public boolean isKeyNull() {
+        return key == null;
+    }
+}
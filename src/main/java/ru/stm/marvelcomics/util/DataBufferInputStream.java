@@ -0,0 +1,73 @@
+package ru.stm.marvelcomics.util;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import reactor.core.publisher.Flux;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * <h2>DataBufferInputStream - блокирующее чтение потока частей тела запроса</h2>
+ * <p>
+ * Части запрашиваются из потока по мере чтения, не больше prefetch частей наперед,
+ * поэтому клиент передает данные не быстрее, чем они читаются, и тело запроса целиком в памяти не хранится.</br>
+ * Чтение блокирует поток, поэтому выполняется только в пуле {@link ru.stm.marvelcomics.config.Bulkhead}.
+ * Закрытие отменяет поток и освобождает полученные, но не прочитанные части
+ */
+public class DataBufferInputStream extends InputStream {
+    private final Stream<DataBuffer> stream;
+    private final Iterator<DataBuffer> buffers;
+    private DataBuffer current;
+
+    /**
+     * @param content  части тела запроса
+     * @param prefetch сколько частей запрашивается наперед
+     */
+    public DataBufferInputStream(Flux<DataBuffer> content, int prefetch) {
+        this.stream = content.doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release).toStream(prefetch);
+        this.buffers = stream.iterator();
+    }
+
+    @Override
+    public int read() {
+        if (!advance()) return -1;
+        return current.read() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) return 0;
+        if (!advance()) return -1;
+        int count = Math.min(length, current.readableByteCount());
+        current.read(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.readableByteCount();
+    }
+
+    @Override
+    public void close() {
+        release();
+        stream.close();
+    }
+
+    private boolean advance() {
+        while (current == null || current.readableByteCount() == 0) {
+            release();
+            if (!buffers.hasNext()) return false;
+            current = buffers.next();
+        }
+        return true;
+    }
+
+    private void release() {
+        if (current != null) DataBufferUtils.release(current);
+        current = null;
+    }
+}
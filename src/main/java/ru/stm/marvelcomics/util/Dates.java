@@ -0,0 +1,46 @@
+package ru.stm.marvelcomics.util;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * <h2>Dates - форматирование и разбор дат выпуска и первого упоминания</h2>
+ * <p>
+ * Использует неизменяемые {@link java.time.format.DateTimeFormatter} из {@link Const},
+ * поэтому вызывается из любого числа потоков одновременно: из пулов базы данных и потоков event loop
+ */
+public class Dates {
+
+    private Dates() {
+    }
+
+    /**
+     * @param date дата, в том числе java.sql.Date из проекции
+     * @return дата в формате {@link Const#FORMAT_DATE_TO_STRING}, пустая строка - если date равна null
+     */
+    public static String format(Date date) {
+        return date == null ? "" : Const.FORMAT_DATE_TO_STRING.format(toLocalDate(date));
+    }
+
+    /**
+     * @param text дата в формате {@link Const#FORMAT_STRING_TO_DATE}
+     * @return дата на начало дня в часовом поясе сервера
+     * @throws ParseException если text не соответствует формату
+     */
+    public static Date parse(String text) throws ParseException {
+        try {
+            return Date.from(LocalDate.parse(text, Const.FORMAT_STRING_TO_DATE)
+                    .atStartOfDay(ZoneId.systemDefault()).toInstant());
+        } catch (DateTimeParseException e) {
+            throw new ParseException(e.getMessage(), e.getErrorIndex());
+        }
+    }
+
+    private static LocalDate toLocalDate(Date date) {
+        return Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+}
@@ -0,0 +1,58 @@
+package ru.stm.marvelcomics.util;
+
+/**
+ * <h2>NaturalOrder - естественный порядок имен файлов</h2>
+ * <p>
+ * Последовательности цифр сравниваются как числа, остальные символы - без учета регистра,
+ * поэтому "page2.jpg" идет раньше "page10.jpg", а "Page3.jpg" - между ними.</br>
+ * При равенстве по этим правилам имена сравниваются как строки, чтобы порядок был однозначным
+ */
+public class NaturalOrder {
+
+    private NaturalOrder() {
+    }
+
+    /**
+     * @param a первое имя
+     * @param b второе имя
+     * @return отрицательное число, ноль или положительное число, как {@link java.util.Comparator#compare(Object, Object)}
+     */
+    public static int compare(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int startA = skipZeros(a, i);
+                int startB = skipZeros(b, j);
+                int endA = digitsEnd(a, startA);
+                int endB = digitsEnd(b, startB);
+                if (endA - startA != endB - startB) return (endA - startA) - (endB - startB);
+                for (int k = 0; k < endA - startA; k++) {
+                    int diff = a.charAt(startA + k) - b.charAt(startB + k);
+                    if (diff != 0) return diff;
+                }
+                i = endA;
+                j = endB;
+            } else {
+                int diff = Character.toLowerCase(ca) - Character.toLowerCase(cb);
+                if (diff != 0) return diff;
+                i++;
+                j++;
+            }
+        }
+        if (i < a.length() || j < b.length()) return (a.length() - i) - (b.length() - j);
+        return a.compareTo(b);
+    }
+
+    private static int skipZeros(String s, int i) {
+        while (i < s.length() - 1 && s.charAt(i) == '0' && Character.isDigit(s.charAt(i + 1))) i++;
+        return i;
+    }
+
+    private static int digitsEnd(String s, int i) {
+        while (i < s.length() && Character.isDigit(s.charAt(i))) i++;
+        return i;
+    }
+}
@@ -0,0 +1,318 @@
+package ru.stm.marvelcomics.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <h2>PrefixIndex - префиксное дерево для автодополнения</h2>
+ * <p>
+ * Текст записи приводится к нижнему регистру, все символы кроме букв и цифр заменяются пробелом.
+ * В дерево добавляется текст с начала каждого слова, поэтому "Spider-Man" находится и по "spi", и по "man".</br>
+ * Каждый узел хранит {@link #topK} самых популярных записей своего поддерева,
+ * поэтому автодополнение - это спуск по символам префикса и чтение готового списка.
+ * Добавление и рост популярности обновляют списки только на путях записи,
+ * удаление пересчитывает списки на путях записи по спискам дочерних узлов.</br>
+ * Дети узла хранятся в отсортированных массивах, без map на каждый узел.
+ * Глубина дерева ограничена {@value #MAX_DEPTH} символами: более длинный префикс сравнивается по первым символам
+ *
+ * @param <T> результат автодополнения, например краткое содержание
+ */
+public class PrefixIndex<T> {
+    private static final int MAX_DEPTH = 32;
+    private static final Comparator<Entry> ORDER = Comparator.comparingLong((Entry entry) -> -entry.weight)
+            .thenComparingLong(entry -> entry.id);
+
+    private final int topK;
+    private final Node root = new Node();
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param topK сколько лучших записей хранится в каждом узле, максимальный размер ответа
+     */
+    public PrefixIndex(int topK) {
+        this.topK = topK;
+    }
+
+    /**
+     * Добавляет запись или заменяет запись с тем же id, сохраняя ее популярность
+     *
+     * @param id     id записи
+     * @param result результат автодополнения
+     * @param text   текст, по префиксам которого ищется запись
+     */
+    public void put(long id, T result, String text) {
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.remove(id);
+            if (old != null) detach(old);
+            Entry entry = new Entry(id, result, keys(text), old == null ? 0 : old.weight);
+            entries.put(id, entry);
+            attach(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param id id записи
+     */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.remove(id);
+            if (old != null) detach(old);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Увеличивает популярность записей
+     *
+     * @param deltas прирост популярности по id записей
+     */
+    public void addWeights(Map<Long, Long> deltas) {
+        lock.writeLock().lock();
+        try {
+            deltas.forEach((id, delta) -> {
+                Entry entry = entries.get(id);
+                if (entry == null || delta <= 0) return;
+                entry.weight += delta;
+                for (String key : entry.keys) {
+                    for (Node node : path(key, false)) {
+                        node.offer(entry, topK);
+                    }
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param prefix начало названия
+     * @param limit  максимальное количество результатов, не больше topK
+     * @return самые популярные записи, текст которых содержит слово, начинающееся с prefix
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> suggest(String prefix, int limit) {
+        String key = truncate(normalize(prefix).trim());
+        if (key.isEmpty() || limit < 1) return Collections.emptyList();
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            if (node == null) return Collections.emptyList();
+            int size = Math.min(limit, node.top.length);
+            List<T> results = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                results.add((T) node.top[i].result);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return количество записей в индексе
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void attach(Entry entry) {
+        for (String key : entry.keys) {
+            Node[] path = path(key, true);
+            path[path.length - 1].addTerminal(entry);
+            for (Node node : path) {
+                node.offer(entry, topK);
+            }
+        }
+    }
+
+    private void detach(Entry entry) {
+        for (String key : entry.keys) {
+            Node[] path = path(key, false);
+            if (path == null) continue;
+            path[path.length - 1].removeTerminal(entry);
+            recompute(path, key);
+        }
+    }
+
+    private Node[] path(String key, boolean create) {
+        Node[] path = new Node[key.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < key.length(); i++) {
+            Node next = path[i].child(key.charAt(i));
+            if (next == null) {
+                if (!create) return null;
+                next = path[i].addChild(key.charAt(i));
+            }
+            path[i + 1] = next;
+        }
+        return path;
+    }
+
+    /**
+     * Пересчитывает лучшие записи от конца пути к корню и удаляет опустевшие узлы.
+     * Запись может попасть в поддерево несколькими путями ("spider man spider"), повторы отбрасываются
+     */
+    private void recompute(Node[] path, String key) {
+        for (int i = path.length - 1; i >= 0; i--) {
+            Node node = path[i];
+            List<Entry> candidates = new ArrayList<>();
+            Collections.addAll(candidates, node.terminal);
+            for (Node child : node.children) {
+                Collections.addAll(candidates, child.top);
+            }
+            candidates.sort(ORDER);
+            List<Entry> top = new ArrayList<>(topK);
+            for (Entry candidate : candidates) {
+                if (top.size() == topK) break;
+                if (top.isEmpty() || top.get(top.size() - 1) != candidate) top.add(candidate);
+            }
+            node.top = top.toArray(Entry.NONE);
+            if (i > 0 && node.top.length == 0) {
+                path[i - 1].removeChild(key.charAt(i - 1));
+            }
+        }
+    }
+
+    private static List<String> keys(String text) {
+        String normalized = normalize(text);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < normalized.length(); i++) {
+            if (normalized.charAt(i) != ' ' && (i == 0 || normalized.charAt(i - 1) == ' ')) {
+                keys.add(truncate(normalized.substring(i)).trim());
+            }
+        }
+        return keys;
+    }
+
+    private static String truncate(String key) {
+        return key.length() > MAX_DEPTH ? key.substring(0, MAX_DEPTH) : key;
+    }
+
+    private static String normalize(String text) {
+        if (text == null) return "";
+        StringBuilder normalized = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(c == 'ё' || c == 'Ё' ? 'е' : Character.toLowerCase(c));
+            } else if (normalized.length() > 0 && normalized.charAt(normalized.length() - 1) != ' ') {
+                normalized.append(' ');
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static final class Entry {
+        private static final Entry[] NONE = new Entry[0];
+
+        private final long id;
+        private final Object result;
+        private final List<String> keys;
+        private long weight;
+
+        private Entry(long id, Object result, List<String> keys, long weight) {
+            this.id = id;
+            this.result = result;
+            this.keys = keys;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Node {
+        private static final Node[] LEAF = new Node[0];
+
+        private char[] chars = new char[0];
+        private Node[] children = LEAF;
+        private Entry[] terminal = Entry.NONE;
+        private Entry[] top = Entry.NONE;
+
+        private Node child(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            return i < 0 ? null : children[i];
+        }
+
+        private Node addChild(char c) {
+            int i = -Arrays.binarySearch(chars, c) - 1;
+            char[] newChars = new char[chars.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            newChars[i] = c;
+            newChildren[i] = new Node();
+            System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            chars = newChars;
+            children = newChildren;
+            return newChildren[i];
+        }
+
+        private void removeChild(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            if (i < 0) return;
+            char[] newChars = new char[chars.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(chars, 0, newChars, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(chars, i + 1, newChars, i, chars.length - i - 1);
+            System.arraycopy(children, i + 1, newChildren, i, children.length - i - 1);
+            chars = newChars;
+            children = newChildren;
+        }
+
+        /**
+         * Добавляет запись в список лучших или поднимает ее после роста популярности
+         */
+        private void offer(Entry entry, int topK) {
+            int i = 0;
+            while (i < top.length && top[i] != entry) i++;
+            if (i == top.length) {
+                if (top.length == topK && ORDER.compare(entry, top[topK - 1]) > 0) return;
+                top = Arrays.copyOf(top, Math.min(topK, top.length + 1));
+                i = top.length - 1;
+            }
+            while (i > 0 && ORDER.compare(entry, top[i - 1]) < 0) {
+                top[i] = top[i - 1];
+                i--;
+            }
+            top[i] = entry;
+        }
+
+        private void addTerminal(Entry entry) {
+            terminal = Arrays.copyOf(terminal, terminal.length + 1);
+            terminal[terminal.length - 1] = entry;
+        }
+
+        private void removeTerminal(Entry entry) {
+            for (int i = 0; i < terminal.length; i++) {
+                if (terminal[i] == entry) {
+                    Entry[] rest = new Entry[terminal.length - 1];
+                    System.arraycopy(terminal, 0, rest, 0, i);
+                    System.arraycopy(terminal, i + 1, rest, i, terminal.length - i - 1);
+                    terminal = rest;
+                    return;
+                }
+            }
+        }
+    }
+}
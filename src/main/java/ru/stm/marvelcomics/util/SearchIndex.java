@@ -0,0 +1,173 @@
+package ru.stm.marvelcomics.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <h2>SearchIndex - инвертированный индекс с ранжированием BM25</h2>
+ * <p>
+ * Для каждого термина хранит список документов и частоту термина в документе.
+ * Документ состоит из нескольких полей, частота термина в поле умножается на вес поля.</br>
+ * Вместе с документом хранится готовый результат поиска, поэтому поиск не обращается к базе.</br>
+ * Чтение и изменение индекса разделены блокировкой: поиски выполняются параллельно,
+ * добавление и удаление документа ждут их завершения
+ *
+ * @param <T> результат поиска, например краткое содержание
+ * @see TextAnalyzer
+ */
+public class SearchIndex<T> {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final float[] boosts;
+    private final Map<String, Map<Long, Float>> postings = new HashMap<>();
+    private final Map<Long, Document<T>> documents = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private double totalLength;
+
+    /**
+     * @param boosts веса полей документа в порядке их передачи в {@link #put(long, Object, String...)}
+     */
+    public SearchIndex(float... boosts) {
+        this.boosts = boosts;
+    }
+
+    /**
+     * Добавляет документ или заменяет документ с тем же id
+     *
+     * @param id     id документа
+     * @param result результат поиска для этого документа
+     * @param fields тексты полей, null - пустое поле
+     */
+    public void put(long id, T result, String... fields) {
+        Map<String, Float> frequencies = new HashMap<>();
+        float length = 0;
+        for (int i = 0; i < fields.length && i < boosts.length; i++) {
+            for (String term : TextAnalyzer.terms(fields[i])) {
+                frequencies.merge(term, boosts[i], Float::sum);
+                length += boosts[i];
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            frequencies.forEach((term, frequency) ->
+                    postings.computeIfAbsent(term, key -> new HashMap<>()).put(id, frequency));
+            documents.put(id, new Document<>(result, frequencies.keySet(), length));
+            totalLength += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param id id документа
+     */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ищет документы, содержащие хотя бы один термин запроса
+     *
+     * @param query текст запроса
+     * @param limit максимальное количество результатов
+     * @return результаты в порядке убывания релевантности
+     */
+    public List<T> search(String query, int limit) {
+        List<String> terms = TextAnalyzer.terms(query);
+        if (terms.isEmpty() || limit < 1) return Collections.emptyList();
+        lock.readLock().lock();
+        try {
+            int count = documents.size();
+            if (count == 0) return Collections.emptyList();
+            double averageLength = totalLength / count;
+            Map<Long, Double> scores = new HashMap<>();
+            for (String term : new HashSet<>(terms)) {
+                Map<Long, Float> posting = postings.get(term);
+                if (posting == null) continue;
+                double idf = Math.log(1 + (count - posting.size() + 0.5) / (posting.size() + 0.5));
+                posting.forEach((id, frequency) -> {
+                    double norm = K1 * (1 - B + B * documents.get(id).length / averageLength);
+                    scores.merge(id, idf * frequency * (K1 + 1) / (frequency + norm), Double::sum);
+                });
+            }
+            PriorityQueue<Map.Entry<Long, Double>> top = new PriorityQueue<>(limit + 1,
+                    Map.Entry.<Long, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder())));
+            for (Map.Entry<Long, Double> score : scores.entrySet()) {
+                top.add(score);
+                if (top.size() > limit) top.poll();
+            }
+            List<T> results = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                results.add(documents.get(top.poll().getKey()).result);
+            }
+            Collections.reverse(results);
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id id документа
+     * @return true, если документ есть в индексе
+     */
+    public boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return documents.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return количество документов в индексе
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeLocked(long id) {
+        Document<T> old = documents.remove(id);
+        if (old == null) return;
+        totalLength -= old.length;
+        for (String term : old.terms) {
+            Map<Long, Float> posting = postings.get(term);
+            if (posting == null) continue;
+            posting.remove(id);
+            if (posting.isEmpty()) postings.remove(term);
+        }
+    }
+
+    private static final class Document<T> {
+        private final T result;
+        private final Iterable<String> terms;
+        private final float length;
+
+        private Document(T result, Iterable<String> terms, float length) {
+            this.result = result;
+            this.terms = terms;
+            this.length = length;
+        }
+    }
+}
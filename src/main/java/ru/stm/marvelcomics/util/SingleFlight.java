@@ -0,0 +1,66 @@
+package ru.stm.marvelcomics.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * <h2>SingleFlight - объединение одновременных одинаковых запросов</h2>
+ * <p>
+ * Пока загрузка по ключу не завершилась, все запросы с тем же ключом получают ее результат,
+ * а не запускают свою загрузку. После завершения (в том числе с ошибкой) ключ освобождается,
+ * и следующий запрос снова обращается к базе.</br>
+ * Число объединенных запросов публикуется в метрике comics.singleflight.coalesced с тегом name,
+ * число загрузок - в comics.singleflight.loads
+ *
+ * @param <K> ключ запроса
+ * @param <V> результат
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+    private final Counter loads;
+
+    /**
+     * @param name     имя для метрик, например "comics.getById"
+     * @param registry реестр метрик
+     */
+    public SingleFlight(String name, MeterRegistry registry) {
+        this.coalesced = registry.counter("comics.singleflight.coalesced", "name", name);
+        this.loads = registry.counter("comics.singleflight.loads", "name", name);
+    }
+
+    /**
+     * Возвращает загрузку по ключу: уже выполняющуюся или новую
+     *
+     * @param key    ключ запроса
+     * @param loader загрузка, если по ключу ничего не выполняется
+     * @return общий для всех одновременных запросов результат
+     */
+    public Mono<V> execute(K key, Supplier<Mono<V>> loader) {
+        return Mono.defer(() -> {
+            Mono<V> running = inFlight.get(key);
+            if (running != null) {
+                coalesced.increment();
+                return running;
+            }
+            AtomicReference<Mono<V>> self = new AtomicReference<>();
+            Mono<V> created = loader.get()
+                    .doFinally(signal -> inFlight.remove(key, self.get()))
+                    .cache();
+            self.set(created);
+            running = inFlight.putIfAbsent(key, created);
+            if (running != null) {
+                coalesced.increment();
+                return running;
+            }
+            loads.increment();
+            return created;
+        });
+    }
+}
@@ -0,0 +1,250 @@
+package ru.stm.marvelcomics.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <h2>StoredZip - раскладка ZIP-архива без сжатия</h2>
+ * <p>
+ * Архив описывается последовательностью частей: заголовков, сформированных в памяти,
+ * и файлов на диске, которые копируются в архив как есть (метод STORED).
+ * Размер и CRC-32 каждого файла известны заранее, поэтому размер архива и смещение любого байта
+ * вычисляются без записи архива, а одинаковые файлы всегда дают одинаковый архив -
+ * это позволяет отдавать архив по частям (Range).</br>
+ * Время изменения всех элементов - 1 января 1980, ZIP64 не поддерживается:
+ * архив ограничен 65535 элементами и 4 ГБ
+ */
+public class StoredZip {
+    private static final int LOCAL_HEADER = 30;
+    private static final int CENTRAL_HEADER = 46;
+    private static final int END_RECORD = 22;
+    private static final int VERSION = 10;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int DOS_DATE_1980 = (1 << 5) | 1;
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private final List<Part> parts;
+    private final long size;
+
+    /**
+     * @param entries элементы архива в порядке следования
+     * @throws IllegalArgumentException если архив не помещается в формат без ZIP64
+     */
+    public StoredZip(List<Entry> entries) {
+        if (entries.size() > MAX_ENTRIES) {
+            throw new IllegalArgumentException(String.format("Больше %d элементов архива", MAX_ENTRIES));
+        }
+        List<Part> parts = new ArrayList<>(entries.size() * 2 + 1);
+        long[] offsets = new long[entries.size()];
+        long offset = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            offsets[i] = offset;
+            byte[] header = header(entry, LOCAL_HEADER, 0x04034b50, 0);
+            parts.add(new Part(offset, header.length, header, null));
+            offset += header.length;
+            if (entry.size > 0) parts.add(new Part(offset, entry.size, null, entry.file));
+            offset += entry.size;
+        }
+        long centralOffset = offset;
+        ByteBuffer central = ByteBuffer.allocate(centralSize(entries) + END_RECORD).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < entries.size(); i++) {
+            central.put(header(entries.get(i), CENTRAL_HEADER, 0x02014b50, offsets[i]));
+        }
+        int centralLength = central.position();
+        central.putInt(0x06054b50)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) entries.size())
+                .putShort((short) entries.size())
+                .putInt(centralLength)
+                .putInt((int) centralOffset)
+                .putShort((short) 0);
+        parts.add(new Part(offset, central.capacity(), central.array(), null));
+        this.size = offset + central.capacity();
+        if (centralOffset > MAX_SIZE || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Архив больше 4 ГБ");
+        }
+        this.parts = Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * @return части архива в порядке следования
+     */
+    public List<Part> getParts() {
+        return parts;
+    }
+
+    /**
+     * @return размер архива в байтах
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Участок архива для ответа на запрос Range
+     *
+     * @param start первый байт участка
+     * @param end   последний байт участка, включительно
+     * @return части архива, пересекающиеся с участком, и границы участка внутри каждой из них
+     */
+    public List<Slice> slice(long start, long end) {
+        List<Slice> slices = new ArrayList<>();
+        for (Part part : parts) {
+            if (part.offset + part.length <= start || part.offset > end) continue;
+            long from = Math.max(start, part.offset) - part.offset;
+            long length = Math.min(end + 1, part.offset + part.length) - part.offset - from;
+            slices.add(new Slice(part, from, length));
+        }
+        return slices;
+    }
+
+    private static int centralSize(List<Entry> entries) {
+        int size = 0;
+        for (Entry entry : entries) {
+            size += CENTRAL_HEADER + entry.name.length;
+        }
+        return size;
+    }
+
+    /**
+     * Локальный заголовок элемента или его запись в центральном каталоге
+     */
+    private static byte[] header(Entry entry, int fixed, int signature, long localOffset) {
+        boolean central = fixed == CENTRAL_HEADER;
+        ByteBuffer header = ByteBuffer.allocate(fixed + entry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(signature);
+        if (central) header.putShort((short) VERSION);
+        header.putShort((short) VERSION)
+                .putShort((short) UTF8_FLAG)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) DOS_DATE_1980)
+                .putInt((int) entry.crc)
+                .putInt((int) entry.size)
+                .putInt((int) entry.size)
+                .putShort((short) entry.name.length)
+                .putShort((short) 0);
+        if (central) {
+            header.putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putInt(0)
+                    .putInt((int) localOffset);
+        }
+        header.put(entry.name);
+        return header.array();
+    }
+
+    /**
+     * Элемент архива - файл на диске
+     */
+    public static final class Entry {
+        private final byte[] name;
+        private final Path file;
+        private final long size;
+        private final long crc;
+
+        /**
+         * @param name имя элемента в архиве
+         * @param file файл на диске
+         * @param size размер файла
+         * @param crc  CRC-32 содержимого файла
+         */
+        public Entry(String name, Path file, long size, long crc) {
+            if (size > MAX_SIZE) throw new IllegalArgumentException(String.format("Файл больше 4 ГБ: %s", file));
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.file = file;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * Часть архива: байты заголовка или файл на диске
+     */
+    public static final class Part {
+        private final long offset;
+        private final long length;
+        private final byte[] bytes;
+        private final Path file;
+
+        private Part(long offset, long length, byte[] bytes, Path file) {
+            this.offset = offset;
+            this.length = length;
+            this.bytes = bytes;
+            this.file = file;
+        }
+
+        /**
+         * @return смещение части от начала архива
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return размер части в байтах
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return байты заголовка или null, если часть - файл
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return файл на диске или null, если часть - заголовок
+         */
+        public Path getFile() {
+            return file;
+        }
+    }
+
+    /**
+     * Участок одной части архива
+     */
+    public static final class Slice {
+        private final Part part;
+        private final long from;
+        private final long length;
+
+        private Slice(Part part, long from, long length) {
+            this.part = part;
+            this.from = from;
+            this.length = length;
+        }
+
+        /**
+         * @return часть архива
+         */
+        public Part getPart() {
+            return part;
+        }
+
+        /**
+         * @return смещение участка от начала части
+         */
+        public long getFrom() {
+            return from;
+        }
+
+        /**
+         * @return размер участка в байтах
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+}
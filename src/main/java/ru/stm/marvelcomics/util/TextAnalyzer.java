@@ -0,0 +1,119 @@
+package ru.stm.marvelcomics.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <h2>TextAnalyzer - разбиение текста на термины для поиска</h2>
+ * <p>
+ * Текст разбивается на слова из букв и цифр, приводится к нижнему регистру (ё заменяется на е),
+ * служебные слова отбрасываются. От русских и английских слов отсекаются окончания:
+ * "человека", "человеку" и "человек" дают один термин, как и "heroes" и "hero".</br>
+ * Окончания отсекаются по упрощенным правилам (light stemming), без словарей
+ */
+public class TextAnalyzer {
+    private static final int MIN_STEM = 2;
+
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "и", "в", "во", "на", "с", "со", "к", "ко", "по", "о", "об", "от", "из", "за", "для", "до", "у",
+            "не", "но", "а", "или", "что", "как", "это", "он", "она", "они", "его", "ее", "их", "же", "бы",
+            "the", "a", "an", "and", "or", "of", "in", "on", "to", "for", "with", "by", "at", "from",
+            "is", "are", "was", "were", "be", "it", "its", "his", "her", "their", "as", "that", "this"));
+
+    /**
+     * Окончания от длинных к коротким: отсекается первое подходящее
+     */
+    private static final String[] RU_ENDINGS = {
+            "иями",
+            "ями", "ами", "ого", "его", "ому", "ему", "ыми", "ими", "ией", "иях",
+            "ает", "яет", "ует", "ают", "яют", "уют", "ить", "ать", "ять",
+            "ие", "ия", "ий", "ый", "ой", "ая", "яя", "ое", "ее", "ые", "ом", "ем", "ам", "ям",
+            "ах", "ях", "ов", "ев", "ей", "ую", "юю", "ью",
+            "а", "я", "о", "е", "ы", "и", "у", "ю", "ь", "й"};
+
+    private TextAnalyzer() {
+    }
+
+    /**
+     * @param text произвольный текст, может быть null
+     * @return термины в порядке следования слов, с повторами
+     */
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) return terms;
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c == 'ё' || c == 'Ё' ? 'е' : Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                String token = word.toString();
+                word.setLength(0);
+                if (!STOP_WORDS.contains(token)) terms.add(stem(token));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @param word слово в нижнем регистре
+     * @return основа слова
+     */
+    public static String stem(String word) {
+        if (isCyrillic(word)) return stemRussian(word);
+        if (isLatin(word)) return stemEnglish(word);
+        return word;
+    }
+
+    private static String stemRussian(String word) {
+        for (String ending : RU_ENDINGS) {
+            if (word.endsWith(ending) && word.length() - ending.length() >= MIN_STEM + 1) {
+                return word.substring(0, word.length() - ending.length());
+            }
+        }
+        return word;
+    }
+
+    private static String stemEnglish(String word) {
+        if (word.length() <= MIN_STEM + 1) return word;
+        if (word.endsWith("ies") && word.length() > 4) return word.substring(0, word.length() - 3) + "y";
+        if (word.endsWith("sses")) return word.substring(0, word.length() - 2);
+        if (word.endsWith("es") && (word.endsWith("xes") || word.endsWith("ches") || word.endsWith("shes")
+                || word.endsWith("oes"))) {
+            return word.substring(0, word.length() - 2);
+        }
+        if (word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us") && !word.endsWith("is")) {
+            word = word.substring(0, word.length() - 1);
+        }
+        if (word.endsWith("ing") && word.length() > 5) return undouble(word.substring(0, word.length() - 3));
+        if (word.endsWith("ed") && word.length() > 4) return undouble(word.substring(0, word.length() - 2));
+        if (word.endsWith("ly") && word.length() > 4) return word.substring(0, word.length() - 2);
+        return word;
+    }
+
+    private static String undouble(String stem) {
+        int n = stem.length();
+        if (n > 2 && stem.charAt(n - 1) == stem.charAt(n - 2) && "lsz".indexOf(stem.charAt(n - 1)) < 0) {
+            return stem.substring(0, n - 1);
+        }
+        return stem;
+    }
+
+    private static boolean isCyrillic(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.UnicodeBlock.of(word.charAt(i)) == Character.UnicodeBlock.CYRILLIC) return true;
+        }
+        return false;
+    }
+
+    private static boolean isLatin(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c < 'a' || c > 'z') return false;
+        }
+        return true;
+    }
+}
@@ -1,5 +1,10 @@
 package ru.stm.marvelcomics.util;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
 public class Validation {
     public static int LimitIsValid(int limit){
        return limit < 1 || limit > Const.LIM ? Const.LIM : limit;
@@ -8,4 +13,24 @@ public class Validation {
     public static int OffsetIsValid(int offset){
         return offset < 0 ? Const.OFS : offset;
     }
+
+    public static int SuggestLimitIsValid(int limit){
+        if (limit < 1 || limit > Const.SUGGEST_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("limit должен быть от 1 до %d", Const.SUGGEST_LIMIT));
+        }
+        return limit;
+    }
+
+    public static String ComicsSortIsValid(String sort){
+        return "release".equals(sort) ? sort : "title";
+    }
+
+    public static List<Long> IdsIsValid(List<Long> ids){
+        if (ids.isEmpty() || ids.size() > Const.MAX_IDS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("ids должен содержать от 1 до %d id", Const.MAX_IDS));
+        }
+        return ids;
+    }
 }
@@ -3,7 +3,7 @@
 -- DROP TABLE public.characters;
 CREATE SEQUENCE public.char_id_seq
 START WITH 1
-INCREMENT BY 1
+INCREMENT BY 50
 NO MINVALUE
 NO MAXVALUE
 CACHE 1;
@@ -26,3 +26,7 @@ ALTER TABLE ONLY public.characters
         SET DEFAULT NEXTVAL('public.char_id_seq'::regclass);
 ALTER TABLE public.characters
   OWNER TO postgres;
+
+-- Индекс для постраничной выдачи по курсору (name, id)
+CREATE INDEX characters_name_id_idx
+  ON public.characters (name, id);
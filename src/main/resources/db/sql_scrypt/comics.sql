@@ -3,7 +3,7 @@
 -- DROP TABLE public.comics;
 CREATE SEQUENCE public.com_id_seq
 START WITH 1
-INCREMENT BY 1
+INCREMENT BY 50
 NO MINVALUE
 NO MAXVALUE
 CACHE 1;
@@ -25,3 +25,9 @@ ALTER TABLE ONLY public.comics
 
 ALTER TABLE public.comics
   OWNER TO postgres;
+
+-- Индексы для постраничной выдачи по курсору (title, id) и (release, id)
+CREATE INDEX comics_title_id_idx
+  ON public.comics (title, id);
+CREATE INDEX comics_release_id_idx
+  ON public.comics (release, id);
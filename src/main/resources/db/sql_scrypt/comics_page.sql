@@ -17,3 +17,7 @@ WITH (
 );
 ALTER TABLE public.comics_page
   OWNER TO postgres;
+
+-- Индекс для чтения страницы комикса по номеру вместе с соседними страницами
+CREATE INDEX comics_page_comics_id_order_idx
+  ON public.comics_page (comics_id, order_page, path_file);
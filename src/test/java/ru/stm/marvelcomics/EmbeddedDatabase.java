@@ -0,0 +1,48 @@
+package ru.stm.marvelcomics;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * <h2>EmbeddedDatabase - PostgreSQL для интеграционных тестов</h2>
+ * <p>
+ * Запускает один встроенный PostgreSQL на все тесты и направляет на него spring.datasource и comics.r2dbc.url.
+ * Подключается через {@code @ContextConfiguration(initializers = EmbeddedDatabase.class)}
+ */
+public class EmbeddedDatabase implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+    private static EmbeddedPostgres postgres;
+
+    @Override
+    public void initialize(ConfigurableApplicationContext context) {
+        int port = start().getPort();
+        TestPropertyValues.of(
+                String.format("spring.datasource.url=jdbc:postgresql://localhost:%d/postgres?reWriteBatchedInserts=true", port),
+                "spring.datasource.username=postgres",
+                "spring.datasource.password=",
+                String.format("comics.r2dbc.url=r2dbc:pool:postgresql://localhost:%d/postgres", port))
+                .applyTo(context.getEnvironment());
+    }
+
+    private static synchronized EmbeddedPostgres start() {
+        if (postgres == null) {
+            try {
+                postgres = EmbeddedPostgres.builder().start();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    postgres.close();
+                } catch (IOException ignored) {
+                    // процесс и так завершается
+                }
+            }));
+        }
+        return postgres;
+    }
+}
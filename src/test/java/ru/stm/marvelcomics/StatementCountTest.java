@@ -0,0 +1,131 @@
+package ru.stm.marvelcomics;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import ru.stm.marvelcomics.service.EntityCache;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * <h2>Число SQL-запросов на один http-запрос</h2>
+ * <p>
+ * Считает подготовленные Hibernate запросы (hibernate.generate_statistics) для каждого адреса чтения.
+ * Проекции списков, страницы и связей комикс-персонаж и пакетная загрузка по ids должны обходиться
+ * одним запросом независимо от числа строк.</br>
+ * Кеш сущностей сбрасывается перед каждым запросом, чтобы запрос доходил до базы
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ContextConfiguration(initializers = EmbeddedDatabase.class)
+class StatementCountTest {
+    private static final String COMICS = "/v1/public/comics";
+    private static final String CHARACTER = "/v1/public/character";
+
+    @Autowired
+    private WebTestClient client;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private EntityCache cache;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        seed();
+        awaitIdle();
+    }
+
+    @Test
+    void comicsList() {
+        cache.evictLists();
+        assertStatements(1, COMICS + "?limit=3");
+        assertStatements(1, COMICS + "?sort=release&limit=3");
+    }
+
+    @Test
+    void comicsDetail() {
+        cache.evictComics(1001);
+        assertStatements(1, COMICS + "/1001");
+    }
+
+    @Test
+    void comicsPage() {
+        assertStatements(1, COMICS + "/1001?page=2");
+    }
+
+    @Test
+    void comicsByIds() {
+        cache.evictComics(1001);
+        cache.evictComics(1002);
+        cache.evictComics(1003);
+        assertStatements(1, COMICS + "?ids=1001,1002,1003");
+    }
+
+    @Test
+    void comicsCharacters() {
+        assertStatements(1, COMICS + "/1001/characters");
+    }
+
+    @Test
+    void characterDetail() {
+        cache.evictCharacter(2001);
+        assertStatements(1, CHARACTER + "/2001");
+    }
+
+    @Test
+    void characterComics() {
+        assertStatements(1, CHARACTER + "/2001/comics");
+    }
+
+    private void assertStatements(long expected, String uri) {
+        statistics.clear();
+        client.get().uri(uri).exchange().expectStatus().isOk();
+        assertEquals(expected, statistics.getPrepareStatementCount(), uri);
+    }
+
+    /**
+     * Ждет, пока не закончатся запросы фоновой загрузки поискового индекса после старта приложения
+     */
+    private void awaitIdle() throws InterruptedException {
+        long count = -1;
+        while (count != statistics.getPrepareStatementCount()) {
+            count = statistics.getPrepareStatementCount();
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * Три комикса по три страницы и два персонажа, оба во всех комиксах.
+     * Данные пишутся через JdbcTemplate, мимо статистики Hibernate
+     */
+    private void seed() {
+        for (long comics = 1001; comics <= 1003; comics++) {
+            jdbc.update("insert into comics (id, title, release) values (?, ?, current_date) on conflict do nothing",
+                    comics, "Comics " + comics);
+            for (long order = 1; order <= 3; order++) {
+                jdbc.update("insert into comics_page (path_file, order_page, comics_id) values (?, ?, ?) on conflict do nothing",
+                        String.format("comics/%d/%d.jpg", comics, order), order, comics);
+            }
+            for (long character = 2001; character <= 2002; character++) {
+                jdbc.update("insert into characters (id, name, create_date) values (?, ?, current_date) on conflict do nothing",
+                        character, "Character " + character);
+                jdbc.update("insert into comics_has_character (comics_id, character_id) select ?, ? where not exists "
+                        + "(select 1 from comics_has_character where comics_id = ? and character_id = ?)",
+                        comics, character, comics, character);
+            }
+        }
+    }
+}
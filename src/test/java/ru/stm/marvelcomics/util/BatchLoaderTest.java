@@ -0,0 +1,108 @@
+package ru.stm.marvelcomics.util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchLoaderTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final List<Set<Long>> batches = new CopyOnWriteArrayList<>();
+
+    @Test
+    void idsOfOneWindowGoToOneBatch() {
+        BatchLoader<String> loader = new BatchLoader<>("test", registry, this::names);
+
+        List<String> names = Flux.merge(loader.load(1), loader.load(2), loader.load(3))
+                .collectList()
+                .block(TIMEOUT);
+
+        assertEquals(1, batches.size());
+        assertEquals(Set.of(1L, 2L, 3L), batches.get(0));
+        assertEquals(Set.of("1", "2", "3"), new HashSet<>(names));
+    }
+
+    @Test
+    void repeatedIdIsLoadedOnceAndReturnedToEveryCaller() {
+        BatchLoader<String> loader = new BatchLoader<>("test", registry, this::names);
+
+        List<String> names = Flux.merge(loader.load(7), loader.load(7))
+                .collectList()
+                .block(TIMEOUT);
+
+        assertEquals(List.of("7", "7"), names);
+        assertEquals(Set.of(7L), batches.get(0));
+    }
+
+    @Test
+    void batchIsLimitedByBatchSize() {
+        BatchLoader<String> loader = new BatchLoader<>("test", registry, this::names);
+        int count = Const.BATCH_SIZE * 2 + 1;
+
+        long loaded = Flux.merge(LongStream.rangeClosed(1, count).mapToObj(loader::load).collect(Collectors.toList()))
+                .count()
+                .block(TIMEOUT);
+
+        assertEquals(count, loaded);
+        assertEquals(count, batches.stream().mapToInt(Set::size).sum());
+        assertTrue(batches.stream().allMatch(batch -> batch.size() <= Const.BATCH_SIZE));
+    }
+
+    @Test
+    void missingIdCompletesEmpty() {
+        BatchLoader<String> loader = new BatchLoader<>("test", registry,
+                ids -> Mono.just(Map.of(1L, "1")));
+
+        assertEquals("1", loader.load(1).block(TIMEOUT));
+        assertFalse(loader.load(404).blockOptional(TIMEOUT).isPresent());
+    }
+
+    @Test
+    void errorReachesEveryCallerOfTheBatch() {
+        IllegalStateException failure = new IllegalStateException("db is down");
+        BatchLoader<String> loader = new BatchLoader<>("test", registry, ids -> Mono.error(failure));
+
+        List<Throwable> errors = Flux.merge(
+                loader.load(1).then(Mono.<Throwable>empty()).onErrorResume(Mono::just),
+                loader.load(2).then(Mono.<Throwable>empty()).onErrorResume(Mono::just))
+                .collectList()
+                .block(TIMEOUT);
+
+        assertEquals(2, errors.size());
+        errors.forEach(error -> assertSame(failure, error));
+    }
+
+    @Test
+    void loaderKeepsWorkingAfterFailedBatch() {
+        BatchLoader<String> loader = new BatchLoader<>("test", registry, ids -> ids.contains(1L)
+                ? Mono.error(new IllegalStateException("db is down"))
+                : names(ids));
+
+        assertThrows(IllegalStateException.class, () -> loader.load(1).block(TIMEOUT));
+        assertEquals("2", loader.load(2).block(TIMEOUT));
+    }
+
+    private Mono<Map<Long, String>> names(Set<Long> ids) {
+        batches.add(new HashSet<>(ids));
+        return Mono.just(ids.stream().collect(Collectors.toMap(Function.identity(), String::valueOf)));
+    }
+}
@@ -0,0 +1,69 @@
+package ru.stm.marvelcomics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CursorTest {
+
+    @Test
+    void roundTrip() {
+        Cursor cursor = Cursor.decode(Cursor.encode("title", "Amazing Spider-Man", 42), "title");
+        assertEquals("title", cursor.getSort());
+        assertEquals("Amazing Spider-Man", cursor.getKey());
+        assertEquals(42, cursor.getId());
+        assertFalse(cursor.isKeyNull());
+    }
+
+    @Test
+    void keyWithSeparatorsAndUnicode() {
+        String title = "Человек-паук\nвыпуск 1\n\n=-";
+        Cursor cursor = Cursor.decode(Cursor.encode("title", title, 7), "title");
+        assertEquals(title, cursor.getKey());
+        assertEquals(7, cursor.getId());
+    }
+
+    @Test
+    void nullKeyDiffersFromEmptyKey() {
+        Cursor withoutKey = Cursor.decode(Cursor.encode("release", null, 3), "release");
+        assertTrue(withoutKey.isKeyNull());
+        assertNull(withoutKey.getKey());
+
+        Cursor emptyKey = Cursor.decode(Cursor.encode("title", "", 3), "title");
+        assertFalse(emptyKey.isKeyNull());
+        assertEquals("", emptyKey.getKey());
+    }
+
+    @Test
+    void encodedCursorIsUrlSafe() {
+        String cursor = Cursor.encode("title", "???>>>~~~", Long.MAX_VALUE);
+        assertTrue(cursor.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    void rejectsCursorOfAnotherSort() {
+        String cursor = Cursor.encode("title", "Thor", 1);
+        assertThrows(IllegalArgumentException.class, () -> Cursor.decode(cursor, "release"));
+    }
+
+    @Test
+    void rejectsMalformedCursor() {
+        assertThrows(IllegalArgumentException.class, () -> Cursor.decode("not base64!", "title"));
+        assertThrows(IllegalArgumentException.class, () -> Cursor.decode(raw("title"), "title"));
+        assertThrows(IllegalArgumentException.class, () -> Cursor.decode(raw("title\n1"), "title"));
+        assertThrows(IllegalArgumentException.class, () -> Cursor.decode(raw("title\nabc\n=Thor"), "title"));
+        assertThrows(IllegalArgumentException.class, () -> Cursor.decode(raw("title\n1\nThor"), "title"));
+        assertThrows(IllegalArgumentException.class, () -> Cursor.decode(raw("title\n1\n"), "title"));
+    }
+
+    private static String raw(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,65 @@
+package ru.stm.marvelcomics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NaturalOrderTest {
+
+    @Test
+    void numbersComparedByValue() {
+        assertSorted("page2.jpg", "Page3.jpg", "page10.jpg", "page100.jpg");
+    }
+
+    @Test
+    void leadingZerosIgnored() {
+        assertSorted("001.jpg", "2.jpg", "010.jpg", "11.jpg");
+    }
+
+    @Test
+    void numbersLongerThanLong() {
+        assertSorted("99999999999999999999.jpg", "100000000000000000000.jpg");
+    }
+
+    @Test
+    void shorterPrefixFirst() {
+        assertSorted("page", "page1", "page1a", "page1b");
+    }
+
+    @Test
+    void nestedFoldersAndSeveralNumbers() {
+        assertSorted("ch1/p2.jpg", "ch1/p10.jpg", "ch2/p1.jpg", "ch10/p1.jpg");
+    }
+
+    @Test
+    void equalByRulesStillOrdered() {
+        assertTrue(NaturalOrder.compare("page02.jpg", "page2.jpg") != 0);
+        assertTrue(NaturalOrder.compare("A.jpg", "a.jpg") != 0);
+        assertEquals(0, NaturalOrder.compare("page2.jpg", "page2.jpg"));
+    }
+
+    @Test
+    void antisymmetric() {
+        List<String> names = Arrays.asList("a", "A", "a1", "a01", "a10", "b", "1", "01", "z9", "Z09", "");
+        for (String a : names) {
+            for (String b : names) {
+                assertEquals(Integer.signum(NaturalOrder.compare(a, b)), -Integer.signum(NaturalOrder.compare(b, a)),
+                        a + " <> " + b);
+            }
+        }
+    }
+
+    private static void assertSorted(String... expected) {
+        List<String> names = new ArrayList<>(Arrays.asList(expected));
+        Collections.shuffle(names, new Random(1));
+        names.sort(NaturalOrder::compare);
+        assertEquals(Arrays.asList(expected), names);
+    }
+}
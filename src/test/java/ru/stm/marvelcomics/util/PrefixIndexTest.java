@@ -0,0 +1,113 @@
+package ru.stm.marvelcomics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefixIndexTest {
+
+    @Test
+    void findsByStartOfAnyWord() {
+        PrefixIndex<String> index = new PrefixIndex<>(10);
+        index.put(1, "Spider-Man", "Spider-Man");
+
+        assertEquals(List.of("Spider-Man"), index.suggest("spi", 10));
+        assertEquals(List.of("Spider-Man"), index.suggest("MAN", 10));
+        assertEquals(List.of("Spider-Man"), index.suggest("spider m", 10));
+        assertTrue(index.suggest("pider", 10).isEmpty());
+    }
+
+    @Test
+    void foldsYo() {
+        PrefixIndex<String> index = new PrefixIndex<>(10);
+        index.put(1, "Ёжик", "Ёжик");
+
+        assertEquals(List.of("Ёжик"), index.suggest("еж", 10));
+    }
+
+    @Test
+    void orderedByPopularityThenId() {
+        PrefixIndex<String> index = new PrefixIndex<>(10);
+        index.put(2, "Thor", "Thor");
+        index.put(1, "Thanos", "Thanos");
+        index.put(3, "Thing", "Thing");
+
+        assertEquals(List.of("Thanos", "Thor", "Thing"), index.suggest("th", 10));
+
+        index.addWeights(Map.of(3L, 5L, 2L, 1L));
+        assertEquals(List.of("Thing", "Thor", "Thanos"), index.suggest("th", 10));
+        assertEquals(List.of("Thing"), index.suggest("th", 1));
+    }
+
+    @Test
+    void removeRecomputesTopFromOtherBranches() {
+        PrefixIndex<String> index = new PrefixIndex<>(2);
+        index.put(1, "aa", "aa");
+        index.put(2, "ab", "ab");
+        index.put(3, "acd", "acd");
+        index.addWeights(Map.of(1L, 3L, 2L, 2L, 3L, 1L));
+        assertEquals(List.of("aa", "ab"), index.suggest("a", 10));
+
+        index.remove(1);
+        assertEquals(List.of("ab", "acd"), index.suggest("a", 10));
+
+        index.remove(2);
+        assertEquals(List.of("acd"), index.suggest("a", 10));
+        assertTrue(index.suggest("ab", 10).isEmpty());
+    }
+
+    @Test
+    void repeatedWordIsNotDuplicatedAfterRemove() {
+        PrefixIndex<String> index = new PrefixIndex<>(3);
+        index.put(1, "spider man spider", "Spider Man Spider");
+        index.put(2, "spider woman", "Spider Woman");
+        index.put(3, "spiral", "Spiral");
+
+        index.remove(3);
+        assertEquals(List.of("spider man spider", "spider woman"), index.suggest("spi", 10));
+
+        index.remove(1);
+        assertEquals(List.of("spider woman"), index.suggest("spi", 10));
+        assertTrue(index.suggest("man", 10).isEmpty());
+    }
+
+    @Test
+    void putReplacesTextAndKeepsPopularity() {
+        PrefixIndex<String> index = new PrefixIndex<>(10);
+        index.put(1, "Captain Marvel", "Captain Marvel");
+        index.put(2, "Ms. Marvel", "Ms. Marvel");
+        index.addWeights(Map.of(1L, 10L));
+
+        index.put(1, "Binary", "Binary Marvel");
+
+        assertTrue(index.suggest("captain", 10).isEmpty());
+        assertEquals(List.of("Binary", "Ms. Marvel"), index.suggest("marvel", 10));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void emptyIndexAfterRemovingEverything() {
+        PrefixIndex<String> index = new PrefixIndex<>(10);
+        index.put(1, "Hulk", "Hulk");
+        index.remove(1);
+
+        assertTrue(index.suggest("h", 10).isEmpty());
+        assertEquals(0, index.size());
+
+        index.put(1, "Hulk", "Hulk");
+        assertEquals(List.of("Hulk"), index.suggest("hu", 10));
+    }
+
+    @Test
+    void blankPrefixOrLimitGivesNothing() {
+        PrefixIndex<String> index = new PrefixIndex<>(10);
+        index.put(1, "Hulk", "Hulk");
+
+        assertTrue(index.suggest(" - ", 10).isEmpty());
+        assertTrue(index.suggest("hu", 0).isEmpty());
+    }
+}
@@ -0,0 +1,104 @@
+package ru.stm.marvelcomics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+
+    @Test
+    void rareTermOutweighsCommonTerm() {
+        SearchIndex<String> index = new SearchIndex<>(1f);
+        index.put(1, "spider man", "Spider Man");
+        index.put(2, "thor odinson", "Thor Odinson");
+        index.put(3, "spider woman", "Spider Woman");
+        index.put(4, "iron man", "Iron Man");
+
+        assertEquals("thor odinson", index.search("spider thor", 10).get(0));
+    }
+
+    @Test
+    void shorterDocumentRanksHigherForSameFrequency() {
+        SearchIndex<String> index = new SearchIndex<>(1f);
+        index.put(1, "long", "Hulk smashes every tank in the desert");
+        index.put(2, "short", "Hulk");
+
+        assertEquals(List.of("short", "long"), index.search("hulk", 10));
+    }
+
+    @Test
+    void frequencySaturates() {
+        SearchIndex<String> index = new SearchIndex<>(1f);
+        index.put(1, "twice", "Venom Venom Carnage Carnage");
+        index.put(2, "once each", "Venom Carnage Riot Toxin");
+        index.put(3, "four times", "Venom Venom Venom Venom");
+
+        assertEquals(List.of("four times", "twice", "once each"), index.search("venom", 10));
+        assertEquals(List.of("twice", "once each", "four times"), index.search("venom carnage", 10));
+    }
+
+    @Test
+    void termInEveryDocumentStillMatches() {
+        SearchIndex<String> index = new SearchIndex<>(1f);
+        index.put(1, "iron man", "Iron Man");
+        index.put(2, "ant man", "Ant Man");
+
+        assertEquals(2, index.search("man", 10).size());
+    }
+
+    @Test
+    void boostedFieldWins() {
+        SearchIndex<String> index = new SearchIndex<>(3f, 1f);
+        index.put(1, "in description", "Wolverine", "Logan");
+        index.put(2, "in name", "Logan", "Wolverine");
+
+        assertEquals(List.of("in name", "in description"), index.search("logan", 10));
+    }
+
+    @Test
+    void equalScoresOrderedById() {
+        SearchIndex<Long> index = new SearchIndex<>(1f);
+        index.put(3, 3L, "Storm");
+        index.put(1, 1L, "Storm");
+        index.put(2, 2L, "Storm");
+
+        assertEquals(List.of(1L, 2L, 3L), index.search("storm", 10));
+        assertEquals(List.of(1L, 2L), index.search("storm", 2));
+    }
+
+    @Test
+    void findsOtherWordForms() {
+        SearchIndex<String> index = new SearchIndex<>(1f);
+        index.put(1, "человек-паук", "Человек-паук");
+
+        assertEquals(List.of("человек-паук"), index.search("человека", 10));
+    }
+
+    @Test
+    void putReplacesAndRemoveDeletes() {
+        SearchIndex<String> index = new SearchIndex<>(1f);
+        index.put(1, "old", "Captain Marvel");
+        index.put(1, "new", "Ms. Marvel");
+
+        assertTrue(index.search("captain", 10).isEmpty());
+        assertEquals(List.of("new"), index.search("marvel", 10));
+        assertEquals(1, index.size());
+
+        index.remove(1);
+        assertFalse(index.contains(1));
+        assertTrue(index.search("marvel", 10).isEmpty());
+    }
+
+    @Test
+    void emptyQueryOrLimitGivesNothing() {
+        SearchIndex<String> index = new SearchIndex<>(1f);
+        index.put(1, "hulk", "Hulk");
+
+        assertTrue(index.search("the of", 10).isEmpty());
+        assertTrue(index.search("hulk", 0).isEmpty());
+    }
+}
@@ -0,0 +1,107 @@
+package ru.stm.marvelcomics.util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SingleFlightTest {
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final SingleFlight<Long, String> flight = new SingleFlight<>("test", registry);
+
+    @Test
+    void concurrentCallsShareOneLoad() {
+        AtomicInteger loads = new AtomicInteger();
+        MonoProcessor<String> result = MonoProcessor.create();
+        List<String> values = new ArrayList<>();
+
+        flight.execute(1L, () -> {
+            loads.incrementAndGet();
+            return result;
+        }).subscribe(values::add);
+        flight.execute(1L, () -> {
+            loads.incrementAndGet();
+            return Mono.just("other");
+        }).subscribe(values::add);
+        result.onNext("comics");
+
+        assertEquals(1, loads.get());
+        assertEquals(List.of("comics", "comics"), values);
+        assertEquals(1, registry.counter("comics.singleflight.loads", "name", "test").count());
+        assertEquals(1, registry.counter("comics.singleflight.coalesced", "name", "test").count());
+    }
+
+    @Test
+    void differentKeysLoadSeparately() {
+        AtomicInteger loads = new AtomicInteger();
+        MonoProcessor<String> result = MonoProcessor.create();
+
+        flight.execute(1L, () -> {
+            loads.incrementAndGet();
+            return result;
+        }).subscribe();
+        String other = flight.execute(2L, () -> {
+            loads.incrementAndGet();
+            return Mono.just("second");
+        }).block();
+        result.onNext("first");
+
+        assertEquals(2, loads.get());
+        assertEquals("second", other);
+    }
+
+    @Test
+    void keyIsReleasedAfterCompletion() {
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("1", flight.execute(1L, () -> Mono.fromCallable(() -> "" + loads.incrementAndGet())).block());
+        assertEquals("2", flight.execute(1L, () -> Mono.fromCallable(() -> "" + loads.incrementAndGet())).block());
+    }
+
+    @Test
+    void errorReachesEveryCallerAndReleasesKey() {
+        MonoProcessor<String> result = MonoProcessor.create();
+        IllegalStateException failure = new IllegalStateException("db is down");
+        List<Throwable> errors = new ArrayList<>();
+
+        flight.execute(1L, () -> result).subscribe(value -> {
+        }, errors::add);
+        flight.execute(1L, () -> Mono.just("other")).subscribe(value -> {
+        }, errors::add);
+        result.onError(failure);
+
+        assertEquals(2, errors.size());
+        errors.forEach(error -> assertSame(failure, error));
+        assertEquals("retry", flight.execute(1L, () -> Mono.just("retry")).block());
+    }
+
+    @Test
+    void emptyResultIsShared() {
+        AtomicInteger loads = new AtomicInteger();
+        MonoProcessor<String> result = MonoProcessor.create();
+        List<Boolean> completed = new ArrayList<>();
+
+        for (int i = 0; i < 2; i++) {
+            flight.execute(1L, () -> {
+                loads.incrementAndGet();
+                return result;
+            }).subscribe(value -> {
+            }, error -> {
+            }, () -> completed.add(true));
+        }
+        result.onComplete();
+
+        assertEquals(1, loads.get());
+        assertEquals(2, completed.size());
+        assertFalse(flight.execute(1L, Mono::<String>empty).blockOptional().isPresent());
+    }
+}
@@ -0,0 +1,161 @@
+package ru.stm.marvelcomics.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoredZipTest {
+    private Path dir;
+    private List<byte[]> contents;
+    private StoredZip zip;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("stored-zip");
+        Random random = new Random(42);
+        contents = new ArrayList<>();
+        List<StoredZip.Entry> entries = new ArrayList<>();
+        int[] sizes = {1000, 0, 70_000, 1};
+        for (int i = 0; i < sizes.length; i++) {
+            byte[] content = new byte[sizes[i]];
+            random.nextBytes(content);
+            Path file = Files.write(dir.resolve(i + ".jpg"), content);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            contents.add(content);
+            entries.add(new StoredZip.Entry(String.format("%03d.jpg", i + 1), file, content.length, crc.getValue()));
+        }
+        entries.add(new StoredZip.Entry("страница.jpg", dir.resolve("0.jpg"), sizes[0], crc(contents.get(0))));
+        contents.add(contents.get(0));
+        zip = new StoredZip(entries);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void partsAreContiguous() {
+        long offset = 0;
+        for (StoredZip.Part part : zip.getParts()) {
+            assertEquals(offset, part.getOffset());
+            offset += part.getLength();
+        }
+        assertEquals(zip.getSize(), offset);
+    }
+
+    @Test
+    void readsAsStreamInOrder() throws IOException {
+        byte[] archive = read(0, zip.getSize() - 1);
+        assertEquals(zip.getSize(), archive.length);
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive), StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertArrayEquals(contents.get(names.size()), in.readAllBytes());
+                names.add(entry.getName());
+            }
+        }
+        assertEquals(Arrays.asList("001.jpg", "002.jpg", "003.jpg", "004.jpg", "страница.jpg"), names);
+    }
+
+    @Test
+    void centralDirectoryPointsAtLocalHeaders() throws IOException {
+        Path file = Files.write(dir.resolve("archive.cbz"), read(0, zip.getSize() - 1));
+        try (ZipFile archive = new ZipFile(file.toFile(), StandardCharsets.UTF_8)) {
+            List<? extends ZipEntry> entries = Collections.list(archive.entries());
+            assertEquals(contents.size(), entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                ZipEntry entry = entries.get(i);
+                assertEquals(contents.get(i).length, entry.getSize());
+                assertEquals(crc(contents.get(i)), entry.getCrc());
+                try (InputStream in = archive.getInputStream(entry)) {
+                    assertArrayEquals(contents.get(i), in.readAllBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    void sliceMatchesRangeOfWholeArchive() throws IOException {
+        byte[] archive = read(0, zip.getSize() - 1);
+        long last = zip.getSize() - 1;
+        long[][] ranges = {{0, 0}, {0, 29}, {30, 1029}, {29, 31}, {1000, 50_000}, {last - 21, last}, {last, last}, {5, last}};
+        for (long[] range : ranges) {
+            byte[] expected = Arrays.copyOfRange(archive, (int) range[0], (int) range[1] + 1);
+            assertArrayEquals(expected, read(range[0], range[1]), Arrays.toString(range));
+        }
+    }
+
+    @Test
+    void sliceSkipsPartsOutsideRange() {
+        long start = zip.getParts().get(1).getOffset();
+        long end = start + zip.getParts().get(1).getLength() - 1;
+        List<StoredZip.Slice> slices = zip.slice(start, end);
+
+        assertEquals(1, slices.size());
+        assertEquals(0, slices.get(0).getFrom());
+        assertEquals(contents.get(0).length, slices.get(0).getLength());
+        assertNull(slices.get(0).getPart().getBytes());
+    }
+
+    @Test
+    void emptyArchiveIsEndRecordOnly() {
+        StoredZip empty = new StoredZip(Collections.emptyList());
+        assertEquals(22, empty.getSize());
+        assertEquals(1, empty.getParts().size());
+    }
+
+    @Test
+    void rejectsFileOver4Gb() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new StoredZip.Entry("big.jpg", dir.resolve("big.jpg"), 0x1_0000_0000L, 0));
+    }
+
+    private byte[] read(long start, long end) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (StoredZip.Slice slice : zip.slice(start, end)) {
+            StoredZip.Part part = slice.getPart();
+            byte[] bytes = part.getBytes() != null ? part.getBytes() : Files.readAllBytes(part.getFile());
+            assertTrue(slice.getFrom() + slice.getLength() <= bytes.length);
+            out.write(bytes, (int) slice.getFrom(), (int) slice.getLength());
+        }
+        return out.toByteArray();
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}
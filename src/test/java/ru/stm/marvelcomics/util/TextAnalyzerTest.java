@@ -0,0 +1,56 @@
+package ru.stm.marvelcomics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextAnalyzerTest {
+
+    @Test
+    void splitsOnNonLettersAndLowercases() {
+        assertEquals(List.of("spider", "man", "2099"), TextAnalyzer.terms("Spider-Man (2099)"));
+    }
+
+    @Test
+    void dropsStopWords() {
+        assertEquals(List.of("guardian", "galaxy"), TextAnalyzer.terms("Guardians of the Galaxy"));
+        assertEquals(List.of("войн", "мир"), TextAnalyzer.terms("Война и мир"));
+    }
+
+    @Test
+    void russianWordFormsShareStem() {
+        String stem = TextAnalyzer.stem("человек");
+        assertEquals(stem, TextAnalyzer.stem("человека"));
+        assertEquals(stem, TextAnalyzer.stem("человеку"));
+        assertEquals(stem, TextAnalyzer.stem("человеком"));
+    }
+
+    @Test
+    void englishPluralsShareStem() {
+        assertEquals("hero", TextAnalyzer.stem("heroes"));
+        assertEquals("hero", TextAnalyzer.stem("hero"));
+        assertEquals("story", TextAnalyzer.stem("stories"));
+        assertEquals("avenger", TextAnalyzer.stem("avengers"));
+        assertEquals("class", TextAnalyzer.stem("classes"));
+    }
+
+    @Test
+    void replacesYoWithYe() {
+        assertEquals(TextAnalyzer.terms("еж"), TextAnalyzer.terms("Ёж"));
+    }
+
+    @Test
+    void shortWordsKeepEndings() {
+        assertEquals("мир", TextAnalyzer.stem("мир"));
+        assertEquals("bus", TextAnalyzer.stem("bus"));
+    }
+
+    @Test
+    void nullAndBlankGiveNoTerms() {
+        assertTrue(TextAnalyzer.terms(null).isEmpty());
+        assertTrue(TextAnalyzer.terms(" -- ").isEmpty());
+    }
+}